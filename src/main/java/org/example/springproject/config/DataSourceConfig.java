@@ -1,6 +1,8 @@
 package org.example.springproject.config;
 
+import com.zaxxer.hikari.HikariDataSource;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.boot.jdbc.DataSourceBuilder;
 import org.springframework.context.annotation.Bean;
@@ -28,6 +30,25 @@ public class DataSourceConfig {
         return DataSourceBuilder.create().build();
     }
 
+    /**
+     * Connections reserved for the {@code DecrementCombiner}. A combiner runs while its caller
+     * holds a connection of the main pool, so borrowing from that pool as well could wait out the
+     * connection timeout once the request threads have taken every connection.
+     */
+    @Bean(name = "inventoryCombiningDataSource")
+    public DataSource inventoryCombiningDataSource(
+            @Qualifier("inventoryDataSource") DataSource dataSource,
+            @Value("${transaction.combining.connections:2}") int connections) {
+        return reserveOf(dataSource, "inventory-combining", connections);
+    }
+
+    @Bean(name = "orderCombiningDataSource")
+    public DataSource orderCombiningDataSource(
+            @Qualifier("orderDataSource") DataSource dataSource,
+            @Value("${transaction.combining.connections:2}") int connections) {
+        return reserveOf(dataSource, "order-combining", connections);
+    }
+
     @Primary
     @Bean(name = "inventoryJdbcTemplate")
     public JdbcTemplate inventoryJdbcTemplate(
@@ -53,4 +74,16 @@ public class DataSourceConfig {
         map.put("order", orderJdbcTemplate);
         return map;
     }
+
+    /**
+     * A separate pool of at most {@code connections} connections to the database of
+     * {@code dataSource}. Connections are opened on first use.
+     */
+    private static DataSource reserveOf(DataSource dataSource, String poolName, int connections) {
+        HikariDataSource reserve = DataSourceBuilder.derivedFrom(dataSource).type(HikariDataSource.class).build();
+        reserve.setPoolName(poolName);
+        reserve.setMaximumPoolSize(Math.max(1, connections));
+        reserve.setMinimumIdle(0);
+        return reserve;
+    }
 }
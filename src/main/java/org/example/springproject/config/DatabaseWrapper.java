@@ -1,13 +1,26 @@
 package org.example.springproject.config;
 
 import org.example.springproject.exceptions.DeadlockException;
+import org.example.springproject.exceptions.InsufficientValueException;
 import org.example.springproject.models.Transaction;
+import org.example.springproject.transaction.LockSet;
+import org.example.springproject.transaction.Participant;
+import org.example.springproject.transaction.StatementSavepoint;
 import org.example.springproject.transaction.TransactionContext;
 import org.example.springproject.transaction.TransactionOperation;
+import org.example.springproject.transaction.combining.DecrementCombiner;
+import org.example.springproject.transaction.scheduler.LockKeys;
 import org.example.springproject.transaction.scheduler.TwoPhaseLockingScheduler;
+import org.example.springproject.transaction.scheduler.TwoPhaseLockingScheduler.LockType;
+import org.example.springproject.transaction.schema.ColumnImage;
+import org.example.springproject.transaction.schema.SchemaRegistry;
+import org.example.springproject.transaction.schema.TableSchema;
+import org.example.springproject.transaction.wal.WriteAheadLog;
+import org.example.springproject.util.ConcurrentLongHashMap;
 import org.example.springproject.util.JDBCUtils;
 import org.example.springproject.util.OperationLog;
-import org.example.springproject.util.SchemaUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.RowMapper;
@@ -16,7 +29,9 @@ import org.springframework.stereotype.Component;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -26,38 +41,52 @@ import static org.example.springproject.util.AppConstants.DB_ORDER;
 @Component
 public class DatabaseWrapper {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseWrapper.class);
+    private static final long[] NO_LOCK_KEYS = new long[0];
+
     private final Map<String, DataSource> dataSources;
-    private final Map<String, TransactionContext> activeTransactions;
+    private final ConcurrentLongHashMap<TransactionContext> activeTransactions;
     private final TwoPhaseLockingScheduler scheduler;
     private final OperationLog operationLog;
     private final JDBCUtils jdbcUtils;
+    private final WriteAheadLog writeAheadLog;
+    private final SchemaRegistry schemaRegistry;
+    private final DecrementCombiner decrementCombiner;
+    /** Secondary-key columns repositories look rows up by, per (lower-case) table name. */
+    private final Map<String, List<String>> secondaryKeys = new ConcurrentHashMap<>();
 
     public DatabaseWrapper(
             @Qualifier("inventoryDataSource") DataSource inventoryDataSource,
             @Qualifier("orderDataSource") DataSource orderDataSource,
             TwoPhaseLockingScheduler scheduler,
             OperationLog operationLog,
-            JDBCUtils jdbcUtils) {
+            JDBCUtils jdbcUtils,
+            WriteAheadLog writeAheadLog,
+            SchemaRegistry schemaRegistry,
+            DecrementCombiner decrementCombiner) {
 
         this.dataSources = Map.of(
                 DB_INVENTORY, inventoryDataSource,
                 DB_ORDER, orderDataSource
         );
-        this.activeTransactions = new ConcurrentHashMap<>();
+        this.activeTransactions = new ConcurrentLongHashMap<>();
         this.scheduler = scheduler;
         this.operationLog = operationLog;
         this.jdbcUtils = jdbcUtils;
+        this.writeAheadLog = writeAheadLog;
+        this.schemaRegistry = schemaRegistry;
+        this.decrementCombiner = decrementCombiner;
     }
 
     public TransactionContext beginTransaction(Transaction tx) throws SQLException {
-        String txId = tx.getTransactionId();
-        System.out.println(">>> DEBUG [DatabaseWrapper]: Beginning transaction " + txId);
+        long txId = tx.getTransactionId();
+        LOGGER.debug("Beginning transaction {}", txId);
         if (activeTransactions.containsKey(txId)) {
-            System.err.println(">>> WARNING: Transaction " + txId + " already exists. Cleaning up old context.");
-            closeConnections(txId);
+            LOGGER.warn("Transaction {} already exists. Cleaning up old context.", txId);
+            closeConnections(activeTransactions.get(txId));
         }
 
-        TransactionContext context = new TransactionContext(tx);
+        TransactionContext context = new TransactionContext(tx, operationLog.open(txId));
         Connection inventoryConn = null;
         Connection orderConn = null;
 
@@ -65,13 +94,12 @@ public class DatabaseWrapper {
             inventoryConn = getConnection(DB_INVENTORY);
             orderConn = getConnection(DB_ORDER);
 
-            System.out.println(">>> DEBUG [DatabaseWrapper]: Connections created for " + txId);
-            System.out.println("    - Transaction object ID: " + tx.getTransactionId());
-            System.out.println("    - Context transaction ID: " + context.getTransactionId());
-            System.out.println("    - Inventory connection: " + inventoryConn + " (autoCommit=" + inventoryConn.getAutoCommit() + ")");
-            System.out.println("    - Order connection: " + orderConn + " (autoCommit=" + orderConn.getAutoCommit() + ")");
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("Connections created for {}: inventory={} (autoCommit={}), order={} (autoCommit={})",
+                        txId, inventoryConn, inventoryConn.getAutoCommit(), orderConn, orderConn.getAutoCommit());
+            }
 
-            if (!txId.equals(context.getTransactionId())) {
+            if (txId != context.getTransactionId()) {
                 throw new SQLException("Transaction ID mismatch in DatabaseWrapper!");
             }
 
@@ -81,27 +109,27 @@ public class DatabaseWrapper {
             activeTransactions.put(txId, context);
             return context;
         } catch (SQLException e) {
-            System.err.println(">>> ERROR [DatabaseWrapper]: Failed to begin transaction " + txId);
-            e.printStackTrace();
+            LOGGER.error("Failed to begin transaction {}", txId, e);
+            operationLog.clearLog(txId);
             if (inventoryConn != null) {
                 try {
                     inventoryConn.close();
                 } catch (SQLException ex) {
-                    System.err.println("Failed to close inventory connection during cleanup");
+                    LOGGER.warn("Failed to close inventory connection during cleanup", ex);
                 }
             }
             if (orderConn != null) {
                 try {
                     orderConn.close();
                 } catch (SQLException ex) {
-                    System.err.println("Failed to close order connection during cleanup");
+                    LOGGER.warn("Failed to close order connection during cleanup", ex);
                 }
             }
             throw e;
         }
     }
 
-    public TransactionContext getContext(String txId) {
+    public TransactionContext getContext(long txId) {
         TransactionContext context = activeTransactions.get(txId);
         if (context == null) {
             throw new IllegalArgumentException("Transaction not found or already closed: " + txId);
@@ -109,15 +137,90 @@ public class DatabaseWrapper {
         return context;
     }
 
-    public <T> List<T> executeSelectForUpdate(String txId, String database, String tableName, String sql,
+    /**
+     * Declares that rows of {@code tableName} are looked up by {@code column}. From then on every
+     * write to the table also locks the {@code column = value} predicate of the row it touches,
+     * which is what lets {@link #executeSelectForUpdateByKey} lock the predicate instead of the
+     * table.
+     */
+    public void registerSecondaryKey(String tableName, String column) {
+        secondaryKeys.compute(tableName.toLowerCase(Locale.ROOT), (table, columns) -> {
+            List<String> updated = columns == null ? new ArrayList<>() : new ArrayList<>(columns);
+            String normalized = column.toLowerCase(Locale.ROOT);
+            if (!updated.contains(normalized)) {
+                updated.add(normalized);
+            }
+            return List.copyOf(updated);
+        });
+    }
+
+    public <T> List<T> executeSelectForUpdate(TransactionContext context, String database, String tableName, String sql,
                                               RowMapper<T> rowMapper, Object primaryKey, Object... params) throws DeadlockException {
-        String sqlForUpdate = sql + " FOR UPDATE";
-        TransactionContext context = getContext(txId);
+        TableSchema table = schemaRegistry.table(Participant.fromDatabase(database), tableName);
+        return selectForUpdate(context, database, tableName, sql, rowMapper, primaryKey, LockKeys.row(table, primaryKey), params);
+    }
 
+    /**
+     * Acquires a declared lock set at once, before the transaction's first lock; see
+     * {@link TwoPhaseLockingScheduler#acquireDeclared}.
+     *
+     * @throws DeadlockException if the set could not be acquired within {@code timeoutMillis}.
+     */
+    public void declareLocks(TransactionContext context, LockSet lockSet, long timeoutMillis) throws DeadlockException {
+        List<LockSet.Entry> entries = lockSet.getEntries();
+        long[] keys = new long[entries.size()];
+        LockType[] modes = new LockType[entries.size()];
+        for (int i = 0; i < keys.length; i++) {
+            LockSet.Entry entry = entries.get(i);
+            TableSchema table = schemaRegistry.table(entry.tableName());
+            if (entry.column() == null) {
+                keys[i] = LockKeys.row(table, entry.value());
+            } else {
+                int columnIndex = table.indexOf(entry.column());
+                if (columnIndex < 0 || !secondaryKeyColumns(table).contains(table.getColumns().get(columnIndex))) {
+                    throw new IllegalArgumentException(entry.column() + " is not a registered secondary key of " + entry.tableName());
+                }
+                keys[i] = LockKeys.secondary(table, columnIndex, entry.value());
+            }
+            modes[i] = switch (entry.access()) {
+                case READ -> LockType.SHARED;
+                case WRITE -> LockType.EXCLUSIVE;
+                case DELTA -> LockType.ESCROW;
+            };
+        }
+        if (!scheduler.acquireDeclared(context, keys, modes, timeoutMillis)) {
+            LOGGER.warn("Transaction {} timed out waiting for its {} declared locks", context.getTransactionId(), keys.length);
+            throw new DeadlockException("Transaction timed out waiting for declared locks: " + context.getTransactionId());
+        }
+    }
+
+    /**
+     * SELECT ... FOR UPDATE of the rows whose {@code keyColumn} equals {@code keyValue}. Locks that
+     * predicate rather than the table; the column must have been registered with
+     * {@link #registerSecondaryKey}, otherwise writers would not check it.
+     */
+    public <T> List<T> executeSelectForUpdateByKey(TransactionContext context, String database, String tableName, String sql,
+                                                   RowMapper<T> rowMapper, String keyColumn, Object keyValue,
+                                                   Object... params) throws DeadlockException {
+        TableSchema table = schemaRegistry.table(Participant.fromDatabase(database), tableName);
+        int columnIndex = table.indexOf(keyColumn);
+        if (columnIndex < 0 || !secondaryKeyColumns(table).contains(table.getColumns().get(columnIndex))) {
+            throw new IllegalArgumentException(keyColumn + " is not a registered secondary key of " + tableName);
+        }
+        return selectForUpdate(context, database, tableName, sql, rowMapper, null,
+                LockKeys.secondary(table, columnIndex, keyValue), params);
+    }
+
+    private <T> List<T> selectForUpdate(TransactionContext context, String database, String tableName, String sql,
+                                        RowMapper<T> rowMapper, Object primaryKey, long lockKey,
+                                        Object... params) throws DeadlockException {
+        String sqlForUpdate = sql + " FOR UPDATE";
+        long txId = context.getTransactionId();
         TransactionOperation op = new TransactionOperation(txId, TransactionOperation.OperationType.SELECT_FOR_UPDATE,
                 database, tableName, primaryKey, null, null, sqlForUpdate, params);
+        op.setLockKey(lockKey);
 
-        System.out.println(">>> DEBUG [DatabaseWrapper]: Executing SELECT FOR UPDATE on " + database + "." + tableName + " for tx=" + txId);
+        LOGGER.debug("Executing SELECT FOR UPDATE on {}.{}", database, tableName);
 
         checkLockOrThrow(context, op);
 
@@ -129,24 +232,47 @@ public class DatabaseWrapper {
 
             // CRITICAL: Always complete the operation to log it
             completeOperation(context, op);
-            System.out.println(">>> DEBUG [DatabaseWrapper]: SELECT FOR UPDATE completed and logged");
+            LOGGER.trace("SELECT FOR UPDATE completed and logged");
 
             return result;
         } catch (SQLException | DataAccessException e) {
-            System.err.println(">>> ERROR: SELECT FOR UPDATE failed on " + database + ": " + e.getMessage());
-            e.printStackTrace();
+            LOGGER.error("SELECT FOR UPDATE failed on {}: {}", database, e.getMessage(), e);
+            throw new DeadlockException("Operation failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Plain SELECT on the transaction's connection, without any lock and without logging. It
+     * sees whatever the database has committed, including writes a failing distributed
+     * transaction later compensates. Only for catalog columns whose callers tolerate that;
+     * anything else must be read with a locking method.
+     */
+    public <T> List<T> executeUnlockedSelect(TransactionContext context, String database, String sql,
+                                             RowMapper<T> rowMapper, Object... params) throws DeadlockException {
+        try {
+            Connection conn = getActiveConnection(context, database);
+            verifyConnectionValid(conn, database, context.getTransactionId());
+            return jdbcUtils.executeQuery(conn, sql, rowMapper, params);
+        } catch (SQLException | DataAccessException e) {
+            LOGGER.error("SELECT failed on {}: {}", database, e.getMessage(), e);
             throw new DeadlockException("Operation failed: " + e.getMessage());
         }
     }
 
-    public int executeUpdate(String txId, String database, String tableName, String sql, Object primaryKey,
+    public int executeUpdate(TransactionContext context, String database, String tableName, String sql, Object primaryKey,
                              Map<String, Object> beforeImage, Map<String, Object> afterImage, Object... params) throws DeadlockException {
 
-        TransactionContext context = getContext(txId);
+        long txId = context.getTransactionId();
+        TableSchema table = schemaRegistry.table(Participant.fromDatabase(database), tableName);
         TransactionOperation op = new TransactionOperation(txId, TransactionOperation.OperationType.UPDATE,
-                database, tableName, primaryKey, beforeImage, afterImage, sql, params);
+                database, tableName, primaryKey, deltaImage(table, sql, beforeImage),
+                afterImage != null ? ColumnImage.of(table, afterImage) : null, sql, params);
+        op.setLockKey(LockKeys.row(table, primaryKey));
+        long assigned = table.updatedColumns(sql);
+        // A statement that could not be parsed may assign any column.
+        op.setSecondaryLockKeys(secondaryLockKeys(table, beforeImage, assigned == 0 ? -1L : assigned));
 
-        System.out.println(">>> DEBUG [DatabaseWrapper]: Executing UPDATE on " + database + "." + tableName + " for tx=" + txId);
+        LOGGER.debug("Executing UPDATE on {}.{}", database, tableName);
 
         checkLockOrThrow(context, op);
 
@@ -159,30 +285,35 @@ public class DatabaseWrapper {
             if (rows > 0) {
                 // CRITICAL: Always complete the operation to log it
                 completeOperation(context, op);
-                System.out.println(">>> DEBUG [DatabaseWrapper]: UPDATE completed and logged (" + rows + " rows)");
+                LOGGER.trace("UPDATE completed and logged ({} rows)", rows);
             } else {
-                System.out.println(">>> WARNING [DatabaseWrapper]: UPDATE affected 0 rows, not logging");
+                LOGGER.warn("UPDATE on {}.{} affected 0 rows, not logging", database, tableName);
             }
 
             return rows;
         } catch (SQLException | DataAccessException e) {
-            System.err.println(">>> ERROR: UPDATE failed on " + database + ": " + e.getMessage());
-            e.printStackTrace();
+            LOGGER.error("UPDATE failed on {}: {}", database, e.getMessage(), e);
             throw new DeadlockException("Operation failed: " + e.getMessage());
         }
     }
 
     /**
-     * Executes an INSERT. specially handles 'inventory_transactions' which uses String IDs.
+     * Executes an INSERT. Tables whose key is supplied by the application (such as
+     * 'inventory_transactions', which uses String IDs) take the key from the first parameter.
      */
-    public Integer executeInsert(String txId, String database, String tableName, String sql,
+    public Integer executeInsert(TransactionContext context, String database, String tableName, String sql,
                                  Map<String, Object> data, Object... params) throws DeadlockException {
 
-        TransactionContext context = getContext(txId);
+        long txId = context.getTransactionId();
+        TableSchema table = schemaRegistry.table(Participant.fromDatabase(database), tableName);
         TransactionOperation initialOp = new TransactionOperation(txId, TransactionOperation.OperationType.INSERT,
                 database, tableName, null, null, data, sql, params);
+        initialOp.setLockKey(LockKeys.table(table));
+        // The new row's secondary keys are known up front, so a concurrent lookup by one of them
+        // blocks the insert before the row exists.
+        initialOp.setSecondaryLockKeys(secondaryLockKeys(table, data, 0));
 
-        System.out.println(">>> DEBUG [DatabaseWrapper]: Executing INSERT on " + database + "." + tableName + " for tx=" + txId);
+        LOGGER.debug("Executing INSERT on {}.{}", database, tableName);
 
         checkLockOrThrow(context, initialOp);
 
@@ -193,7 +324,7 @@ public class DatabaseWrapper {
             Object primaryKey;
             Integer generatedId = null;
 
-            if (SchemaUtils.usesManualStringKey(tableName)) {
+            if (!table.hasGeneratedKey()) {
                 jdbcUtils.executeUpdate(conn, sql, params);
                 primaryKey = params[0];
             } else {
@@ -202,24 +333,262 @@ public class DatabaseWrapper {
             }
 
             TransactionOperation finalOp = new TransactionOperation(txId, TransactionOperation.OperationType.INSERT,
-                    database, tableName, primaryKey, null, data, sql, params);
+                    database, tableName, primaryKey, null, data != null ? ColumnImage.of(table, data) : null, sql, params);
 
             completeOperation(context, finalOp);
-            System.out.println(">>> DEBUG [DatabaseWrapper]: INSERT completed and logged (id=" + primaryKey + ")");
+            // The table was only intention-locked; lock the new row now that its key is known.
+            // It is logged first so a failure here still rolls the insert back.
+            finalOp.setLockKey(LockKeys.row(table, primaryKey));
+            checkLockOrThrow(context, finalOp);
+            LOGGER.trace("INSERT completed and logged (id={})", primaryKey);
 
             return generatedId != null ? generatedId : 0;
 
         } catch (SQLException | DataAccessException e) {
-            System.err.println(">>> ERROR: INSERT failed on " + database + ": " + e.getMessage());
-            e.printStackTrace();
+            LOGGER.error("INSERT failed on {}: {}", database, e.getMessage(), e);
             throw new DeadlockException("Operation failed: " + e.getMessage());
         }
     }
 
+    /**
+     * Adds {@code delta} to a numeric column of one row as a commutative INCREMENT. The row is
+     * locked in ESCROW mode, so concurrent deltas on it do not wait for each other, and a
+     * decrement is first reserved against the row's escrow account. The statement itself is
+     * deferred to {@link #applyDeferredIncrements}, just before the commit votes, so the
+     * database's own row lock is held for the commit rather than for the whole transaction.
+     *
+     * @return false if the decrement could take the column below {@code floor}.
+     */
+    public boolean executeIncrement(TransactionContext context, String database, String tableName, String column,
+                                    Object primaryKey, long delta, long floor) throws DeadlockException {
+        long txId = context.getTransactionId();
+        TableSchema table = schemaRegistry.table(Participant.fromDatabase(database), tableName);
+        int columnIndex = table.indexOf(column);
+        if (columnIndex < 0) {
+            throw new IllegalArgumentException(column + " is not a column of " + tableName);
+        }
+        // Decrements are re-checked against the floor when applied, in case the bound was wrong.
+        String sql = delta < 0 ? table.boundedDecrementSql(columnIndex) : table.incrementSql(1L << columnIndex);
+        Object[] params = delta < 0 ? new Object[]{delta, primaryKey, delta, floor} : new Object[]{delta, primaryKey};
+        TransactionOperation op = new TransactionOperation(txId, TransactionOperation.OperationType.INCREMENT,
+                database, tableName, primaryKey, null, ColumnImage.of(table, Map.of(column, delta)), sql, params);
+        long key = LockKeys.row(table, primaryKey);
+        op.setLockKey(key);
+        op.setSecondaryLockKeys(secondaryLockKeys(table, null, 1L << columnIndex));
+
+        LOGGER.debug("Executing INCREMENT on {}.{}", database, tableName);
+
+        checkLockOrThrow(context, op);
+
+        if (delta < 0) {
+            long observed = 0;
+            if (scheduler.needsEscrowValue(context, key)) {
+                observed = readValue(context, database, table, columnIndex, primaryKey);
+            }
+            if (!scheduler.reserveEscrow(context, key, -delta, floor, observed)) {
+                LOGGER.debug("INCREMENT by {} on {}.{} refused: could cross floor {}", delta, database, tableName, floor);
+                return false;
+            }
+        } else {
+            scheduler.creditEscrow(context, key, delta);
+        }
+        context.deferIncrement(op);
+        return true;
+    }
+
+    /**
+     * Takes {@code amount} from {@code column} of one row under an escrow lock, like a negative
+     * {@link #executeIncrement}, but applies it right away through the {@link DecrementCombiner}
+     * together with concurrent decrements of the same row. The decrement is not enlisted: it is
+     * already committed, and is compensated if the transaction aborts. Falls back to
+     * {@link #executeIncrement} if combining is off or the transaction's own connection may
+     * hold the row's database lock, which the combiner would wait for.
+     *
+     * @return false if the decrement could take the column below {@code floor}.
+     */
+    public boolean executeCombinedDecrement(TransactionContext context, String database, String tableName, String column,
+                                            Object primaryKey, long amount, long floor) throws DeadlockException {
+        TableSchema table = schemaRegistry.table(Participant.fromDatabase(database), tableName);
+        long key = LockKeys.row(table, primaryKey);
+        if (!decrementCombiner.isEnabled() || !scheduler.mayChangeElsewhere(context, key)) {
+            return executeIncrement(context, database, tableName, column, primaryKey, -amount, floor);
+        }
+        long txId = context.getTransactionId();
+        int columnIndex = table.indexOf(column);
+        if (columnIndex < 0) {
+            throw new IllegalArgumentException(column + " is not a column of " + tableName);
+        }
+        TransactionOperation op = new TransactionOperation(txId, TransactionOperation.OperationType.INCREMENT,
+                database, tableName, primaryKey, null, ColumnImage.of(table, Map.of(column, -amount)), null);
+        op.setLockKey(key);
+        op.setSecondaryLockKeys(secondaryLockKeys(table, null, 1L << columnIndex));
+        op.setAutonomous(true);
+
+        LOGGER.debug("Executing combined INCREMENT on {}.{}", database, tableName);
+
+        checkLockOrThrow(context, op);
+
+        long observed = 0;
+        if (scheduler.needsEscrowValue(context, key)) {
+            observed = readValue(context, database, table, columnIndex, primaryKey);
+        }
+        if (!scheduler.reserveEscrow(context, key, amount, floor, observed)) {
+            LOGGER.debug("Combined INCREMENT by {} on {}.{} refused: could cross floor {}", -amount, database, tableName, floor);
+            return false;
+        }
+        boolean granted;
+        try {
+            granted = decrementCombiner.decrement(table, columnIndex, op, amount, floor);
+        } catch (SQLException e) {
+            LOGGER.error("Combined INCREMENT failed on {}: {}", database, e.getMessage(), e);
+            throw new DeadlockException("Operation failed: " + e.getMessage());
+        }
+        if (!granted) {
+            LOGGER.debug("Combined INCREMENT by {} on {}.{} refused by the committed value", -amount, database, tableName);
+            return false;
+        }
+        // The undo record is in the WAL now: the transaction's END must be forced so recovery
+        // does not replay it.
+        context.markAutonomousWork();
+        op.setExecuted(true);
+        operationLog.logOperation(context.getOperationLog(), op);
+        scheduler.onOperationComplete(context, op);
+        return true;
+    }
+
+    /**
+     * Runs the transaction's deferred INCREMENT statements and logs them like any other write.
+     * Called by the coordinator before it collects the participants' votes.
+     */
+    public void applyDeferredIncrements(TransactionContext context) throws DeadlockException {
+        long txId = context.getTransactionId();
+        for (TransactionOperation op : context.drainDeferredIncrements()) {
+            int rows;
+            try {
+                Connection conn = getActiveConnection(context, op.getDatabase());
+                verifyConnectionValid(conn, op.getDatabase(), txId);
+                rows = jdbcUtils.executeUpdate(conn, op.getSql(), op.getParams());
+            } catch (SQLException | DataAccessException e) {
+                LOGGER.error("INCREMENT failed on {}: {}", op.getDatabase(), e.getMessage(), e);
+                throw new DeadlockException("Operation failed: " + e.getMessage());
+            }
+            if (rows == 0) {
+                String column = op.getAfterImage().keySet().iterator().next();
+                throw new InsufficientValueException("Insufficient " + column + " on " + op.getTableName() + " "
+                        + op.getPrimaryKeyValue());
+            }
+            completeOperation(context, op);
+            context.markDeltaUndo(Participant.fromDatabase(op.getDatabase()));
+        }
+    }
+
+    /**
+     * Sets a savepoint on the participant connection for {@code database}, remembering how far
+     * the transaction's operation log reached.
+     */
+    public StatementSavepoint setSavepoint(TransactionContext context, String database) throws DeadlockException {
+        Participant participant = Participant.fromDatabase(database);
+        try {
+            Connection conn = getActiveConnection(context, database);
+            verifyConnectionValid(conn, database, context.getTransactionId());
+            return new StatementSavepoint(participant, conn.setSavepoint(), context.getOperationLog().mark());
+        } catch (SQLException e) {
+            LOGGER.error("SAVEPOINT failed on {}: {}", database, e.getMessage(), e);
+            throw new DeadlockException("Operation failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Undoes the participant's work since {@code savepoint} and marks the operations logged on it
+     * since then as rolled back, so compensation skips them. Locks are kept. Their WAL undo
+     * records stay; replaying them restores the before-images as of the savepoint, which the
+     * later records, replayed first, restore anyway.
+     */
+    public void rollbackToSavepoint(TransactionContext context, StatementSavepoint savepoint) throws DeadlockException {
+        String database = savepoint.getParticipant().getDatabaseName();
+        try {
+            Connection conn = getActiveConnection(context, database);
+            verifyConnectionValid(conn, database, context.getTransactionId());
+            conn.rollback(savepoint.getSavepoint());
+        } catch (SQLException e) {
+            LOGGER.error("ROLLBACK TO SAVEPOINT failed on {}: {}", database, e.getMessage(), e);
+            throw new DeadlockException("Operation failed: " + e.getMessage());
+        }
+        context.getOperationLog().rollBackTo(savepoint.getLogMark(), database);
+    }
+
+    public void releaseSavepoint(TransactionContext context, StatementSavepoint savepoint) throws DeadlockException {
+        String database = savepoint.getParticipant().getDatabaseName();
+        try {
+            getActiveConnection(context, database).releaseSavepoint(savepoint.getSavepoint());
+        } catch (SQLException e) {
+            LOGGER.error("RELEASE SAVEPOINT failed on {}: {}", database, e.getMessage(), e);
+            throw new DeadlockException("Operation failed: " + e.getMessage());
+        }
+    }
+
+    private long readValue(TransactionContext context, String database, TableSchema table, int columnIndex,
+                           Object primaryKey) throws DeadlockException {
+        String sql = "SELECT " + table.getColumns().get(columnIndex) + " FROM " + table.getName()
+                + " WHERE " + table.getPrimaryKey() + " = ?";
+        try {
+            Connection conn = getActiveConnection(context, database);
+            verifyConnectionValid(conn, database, context.getTransactionId());
+            List<Number> values = jdbcUtils.executeQuery(conn, sql, (rs, i) -> (Number) rs.getObject(1), primaryKey);
+            return values.isEmpty() || values.get(0) == null ? 0 : values.get(0).longValue();
+        } catch (SQLException | DataAccessException e) {
+            LOGGER.error("Reading {}.{} failed: {}", table.getName(), table.getColumns().get(columnIndex), e.getMessage(), e);
+            throw new DeadlockException("Operation failed: " + e.getMessage());
+        }
+    }
+
+    private List<String> secondaryKeyColumns(TableSchema table) {
+        return secondaryKeys.getOrDefault(table.getName(), List.of());
+    }
+
+    /**
+     * Predicate keys a write to {@code row} must lock, one per registered secondary key of the
+     * table. {@code assigned} masks the columns the write may change. If a key's value is unknown
+     * or may change, the row could enter or leave any predicate, so the table key is locked instead.
+     */
+    private long[] secondaryLockKeys(TableSchema table, Map<String, Object> row, long assigned) {
+        List<String> columns = secondaryKeyColumns(table);
+        if (columns.isEmpty()) {
+            return NO_LOCK_KEYS;
+        }
+        long[] keys = new long[columns.size()];
+        for (int i = 0; i < keys.length; i++) {
+            String column = columns.get(i);
+            int index = table.indexOf(column);
+            if (index < 0 || row == null || row.get(column) == null || (assigned & (1L << index)) != 0) {
+                return new long[] {LockKeys.table(table)};
+            }
+            keys[i] = LockKeys.secondary(table, index, row.get(column));
+        }
+        return keys;
+    }
+
+    /**
+     * Keeps only the columns the UPDATE assigns, so undo restores exactly those and the caller's
+     * full row map is not retained. Falls back to every known column of the row if the statement
+     * cannot be parsed.
+     */
+    private static Map<String, Object> deltaImage(TableSchema table, String sql, Map<String, Object> row) {
+        if (row == null) {
+            return null;
+        }
+        long assigned = table.updatedColumns(sql);
+        if (assigned == 0) {
+            LOGGER.debug("Could not derive assigned columns of '{}'; keeping the full before-image", sql);
+            return ColumnImage.of(table, row);
+        }
+        return ColumnImage.capture(table, row, assigned);
+    }
+
     public Map<String, Object> fetchBeforeImage(String database, String tableName, Long primaryKey) {
         Connection conn = null;
         try {
-            String pkCol = SchemaUtils.getPrimaryKeyColumn(tableName);
+            String pkCol = schemaRegistry.table(Participant.fromDatabase(database), tableName).getPrimaryKey();
             String sql = "SELECT * FROM " + tableName + " WHERE " + pkCol + " = ?";
 
             conn = getConnection(database);
@@ -240,20 +609,20 @@ public class DatabaseWrapper {
         }
     }
 
-    public void closeConnections(String txId) {
-        System.out.println(">>> DEBUG [DatabaseWrapper]: Closing connections for transaction " + txId);
-        TransactionContext context = activeTransactions.remove(txId);
+    public void closeConnections(TransactionContext context) {
+        long txId = context.getTransactionId();
+        LOGGER.debug("Closing connections for transaction {}", txId);
 
-        if (context != null) {
+        if (activeTransactions.remove(txId) != null) {
             Connection invConn = context.getInventoryConnection();
             Connection ordConn = context.getOrderConnection();
 
             closeSafely(invConn, "inventory", txId);
             closeSafely(ordConn, "order", txId);
 
-            System.out.println(">>> DEBUG [DatabaseWrapper]: Connections closed for " + txId);
+            LOGGER.trace("Connections closed for {}", txId);
         } else {
-            System.out.println(">>> DEBUG [DatabaseWrapper]: No context found for " + txId + " (already cleaned up)");
+            LOGGER.debug("No context found for {} (already cleaned up)", txId);
         }
     }
 
@@ -265,10 +634,10 @@ public class DatabaseWrapper {
     }
 
     private Connection getActiveConnection(TransactionContext context, String database) {
-        return DB_INVENTORY.equals(database) ? context.getInventoryConnection() : context.getOrderConnection();
+        return context.getConnection(Participant.fromDatabase(database));
     }
 
-    private void verifyConnectionValid(Connection conn, String database, String txId) throws SQLException {
+    private void verifyConnectionValid(Connection conn, String database, long txId) throws SQLException {
         if (conn == null) {
             throw new SQLException("Connection is null for database " + database + " in transaction " + txId);
         }
@@ -276,55 +645,82 @@ public class DatabaseWrapper {
             throw new SQLException("Connection is closed for database " + database + " in transaction " + txId);
         }
         if (conn.getAutoCommit()) {
-            System.err.println(">>> WARNING: Connection for " + database + " has autoCommit=true! Fixing...");
+            LOGGER.warn("Connection for {} has autoCommit=true! Fixing...", database);
             conn.setAutoCommit(false);
         }
     }
 
     private void checkLockOrThrow(TransactionContext context, TransactionOperation op) throws DeadlockException {
-        if (!scheduler.canExecute(context.getTransaction(), op)) {
-            System.err.println(">>> DEADLOCK: Transaction " + context.getTransactionId() + " cannot acquire lock for " + op.getTableName());
+        if (!scheduler.canExecute(context, op)) {
+            LOGGER.warn("DEADLOCK: Transaction {} cannot acquire lock for {}", context.getTransactionId(), op.getTableName());
             throw new DeadlockException("Transaction must abort due to lock conflict: " + context.getTransactionId());
         }
     }
 
     private void completeOperation(TransactionContext context, TransactionOperation op) {
-        System.out.println(">>> DEBUG [DatabaseWrapper]: Completing operation - tx=" + context.getTransactionId() +
-                " db=" + op.getDatabase() + " table=" + op.getTableName() + " type=" + op.getOperationType());
+        LOGGER.trace("Completing operation - db={} table={} type={}", op.getDatabase(), op.getTableName(), op.getOperationType());
 
         op.setExecuted(true);
-        operationLog.logOperation(op);
-
-        System.out.println(">>> DEBUG [DatabaseWrapper]: Operation logged to OperationLog");
-
-        scheduler.onOperationComplete(context.getTransaction(), op);
+        // Enlist first: if logging is rejected the participant must still be rolled back.
+        context.enlist(op);
+        operationLog.logOperation(context.getOperationLog(), op);
+        if (op.modifiesData()) {
+            writeAheadLog.appendUndo(op);
+        }
+        scheduler.onOperationComplete(context, op);
+    }
 
-        System.out.println(">>> DEBUG [DatabaseWrapper]: Scheduler notified of completion");
+    /**
+     * Terminates the participant's physical connection after its rollback failed. The database
+     * rolls back the open transaction when the session ends, and the pool evicts the broken
+     * connection once it is closed.
+     */
+    public void abandonConnection(TransactionContext context, Participant participant) {
+        abort(context.getConnection(participant), participant.getDatabaseName(), context.getTransactionId());
     }
 
-    private void closeSafely(Connection conn, String dbName, String txId) {
+    private void closeSafely(Connection conn, String dbName, long txId) {
         if (conn != null) {
             try {
                 if (!conn.isClosed()) {
-                    System.out.println(">>> DEBUG [DatabaseWrapper]: Closing " + dbName + " connection for " + txId);
+                    LOGGER.trace("Closing {} connection for {}", dbName, txId);
 
-                    // CRITICAL: Reset autoCommit to true before returning to pool
-                    // This ensures the connection is in a clean state for reuse
+                    // Return the connection to the pool with autoCommit=true, but roll back
+                    // first: switching autoCommit on commits a transaction still open, and work
+                    // reaching this point was neither committed nor rolled back on purpose.
                     if (!conn.getAutoCommit()) {
+                        try {
+                            conn.rollback();
+                        } catch (SQLException e) {
+                            LOGGER.error("Rollback of {} connection for {} failed on close: {}", dbName, txId, e.getMessage(), e);
+                            abort(conn, dbName, txId);
+                            conn.close();
+                            return;
+                        }
                         conn.setAutoCommit(true);
                     }
 
                     conn.close();
-                    System.out.println(">>> DEBUG [DatabaseWrapper]: " + dbName + " connection closed successfully");
                 } else {
-                    System.out.println(">>> DEBUG [DatabaseWrapper]: " + dbName + " connection was already closed for " + txId);
+                    LOGGER.debug("{} connection was already closed for {}", dbName, txId);
                 }
             } catch (SQLException e) {
-                System.err.println(">>> ERROR [DatabaseWrapper]: Error closing " + dbName + " connection for " + txId + ": " + e.getMessage());
-                e.printStackTrace();
+                LOGGER.error("Error closing {} connection for {}: {}", dbName, txId, e.getMessage(), e);
             }
         } else {
-            System.out.println(">>> DEBUG [DatabaseWrapper]: " + dbName + " connection was null for " + txId);
+            LOGGER.debug("{} connection was null for {}", dbName, txId);
+        }
+    }
+
+    private void abort(Connection conn, String dbName, long txId) {
+        if (conn == null) {
+            return;
+        }
+        try {
+            conn.abort(Runnable::run);
+            LOGGER.warn("Aborted {} connection for {}; the database discards its open transaction", dbName, txId);
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.error("Could not abort {} connection for {}: {}", dbName, txId, e.getMessage(), e);
         }
     }
 }
\ No newline at end of file
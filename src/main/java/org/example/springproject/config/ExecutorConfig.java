@@ -0,0 +1,123 @@
+package org.example.springproject.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Thread pools used by the transaction machinery, kept separate from the web request threads.
+ * <p>
+ * With {@code spring.threads.virtual.enabled=true} on Java 21 or later, Spring Boot serves
+ * requests on virtual threads and these executors start a virtual thread per task instead of
+ * pooling platform threads; their thread counts no longer apply. On older runtimes the setting
+ * is ignored and the pools below are used.
+ * <p>
+ * On Java 17 every blocked task holds a platform thread: a JDBC call, a declared lock-set wait,
+ * and the backoff of a synchronous retry, which parks the request thread for the whole delay.
+ * The pools therefore queue at most {@code transaction.executor.queue-capacity} tasks each. Once
+ * a pool's queue is full, new asynchronous store operations are rejected and answered with 503
+ * instead of piling up behind it. Compensation is never rejected: it runs on the aborting thread.
+ */
+@Configuration
+public class ExecutorConfig {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutorConfig.class);
+
+    /** How long shutdown waits for running tasks of a virtual-thread executor. */
+    private static final long VIRTUAL_TERMINATION_TIMEOUT_MS = 10_000;
+
+    private final boolean virtualThreads;
+    private final int queueCapacity;
+
+    public ExecutorConfig(@Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                          @Value("${transaction.executor.queue-capacity:1000}") int queueCapacity) {
+        this.virtualThreads = virtualThreads;
+        this.queueCapacity = queueCapacity;
+        if (virtualThreads && !virtualThreadsSupported()) {
+            LOGGER.warn("spring.threads.virtual.enabled is set, but Java {} has no virtual threads; using platform thread pools",
+                    Runtime.version().feature());
+        }
+    }
+
+    /**
+     * Runs compensation for one participant while the aborting thread compensates another.
+     */
+    @Bean(name = "compensationExecutor")
+    public AsyncTaskExecutor compensationExecutor(
+            @Value("${transaction.compensation.threads:4}") int threads) {
+        return transactionExecutor("compensation-", threads, queueCapacity, new ThreadPoolExecutor.CallerRunsPolicy(),
+                virtualThreads);
+    }
+
+    /**
+     * Runs the attempts of asynchronous retries; backoff between them holds no thread of it.
+     */
+    @Bean(name = "retryExecutor")
+    public AsyncTaskExecutor retryExecutor(
+            @Value("${transaction.retry.threads:16}") int threads) {
+        return transactionExecutor("retry-", threads, queueCapacity, new ThreadPoolExecutor.AbortPolicy(), virtualThreads);
+    }
+
+    /**
+     * Runs the asynchronous checkout operations of {@code StoreService}: orders, reservations.
+     */
+    @Bean(name = "checkoutExecutor")
+    public AsyncTaskExecutor checkoutExecutor(
+            @Value("${store.executor.checkout.threads:32}") int threads) {
+        return transactionExecutor("checkout-", threads, queueCapacity, new ThreadPoolExecutor.AbortPolicy(), virtualThreads);
+    }
+
+    /**
+     * Runs asynchronous changes to existing orders: cancel, modify, ship, return, exchange.
+     */
+    @Bean(name = "orderChangeExecutor")
+    public AsyncTaskExecutor orderChangeExecutor(
+            @Value("${store.executor.order-change.threads:16}") int threads) {
+        return transactionExecutor("order-change-", threads, queueCapacity, new ThreadPoolExecutor.AbortPolicy(), virtualThreads);
+    }
+
+    /**
+     * Runs asynchronous catalog work: stock reads, restocking, discontinuing products.
+     */
+    @Bean(name = "catalogExecutor")
+    public AsyncTaskExecutor catalogExecutor(
+            @Value("${store.executor.catalog.threads:8}") int threads) {
+        return transactionExecutor("catalog-", threads, queueCapacity, new ThreadPoolExecutor.AbortPolicy(), virtualThreads);
+    }
+
+    public static boolean virtualThreadsSupported() {
+        return Runtime.version().feature() >= 21;
+    }
+
+    /**
+     * A virtual thread per task if {@code virtual} and the runtime supports it, otherwise a pool
+     * of {@code threads} platform threads queueing up to {@code queueCapacity} tasks, beyond
+     * which {@code rejection} applies.
+     */
+    public static AsyncTaskExecutor transactionExecutor(String threadNamePrefix, int threads, int queueCapacity,
+                                                        RejectedExecutionHandler rejection, boolean virtual) {
+        if (virtual && virtualThreadsSupported()) {
+            SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+            executor.setVirtualThreads(true);
+            executor.setTaskTerminationTimeout(VIRTUAL_TERMINATION_TIMEOUT_MS);
+            return executor;
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setRejectedExecutionHandler(rejection);
+        executor.setThreadNamePrefix(threadNamePrefix);
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+}
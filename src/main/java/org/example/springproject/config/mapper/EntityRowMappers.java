@@ -4,6 +4,7 @@ import org.springframework.jdbc.core.RowMapper;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -40,6 +41,26 @@ public class EntityRowMappers {
         return map;
     };
 
+    public static final RowMapper<Map<String, Object>> STOCK_BUCKET_MAPPER = (rs, i) -> {
+        Map<String, Object> map = new HashMap<>();
+        map.put("bucket_id", rs.getInt("bucket_id"));
+        map.put("product_id", getSafe(rs, "product_id"));
+        map.put("stock", getSafe(rs, "stock"));
+        return map;
+    };
+
+    public static final RowMapper<Map<String, Object>> RESERVATION_MAPPER = (rs, i) -> {
+        Map<String, Object> map = new HashMap<>();
+        map.put("reservation_id", rs.getInt("reservation_id"));
+        map.put("customer_id", getSafe(rs, "customer_id"));
+        map.put("product_id", getSafe(rs, "product_id"));
+        map.put("quantity", getSafe(rs, "quantity"));
+        map.put("status", getSafe(rs, "status"));
+        Timestamp expiresAt = rs.getTimestamp("expires_at");
+        map.put("expires_at", expiresAt == null ? null : expiresAt.toLocalDateTime());
+        return map;
+    };
+
     private static Object getSafe(ResultSet rs, String column) {
         try {
             rs.findColumn(column);
@@ -0,0 +1,54 @@
+package org.example.springproject.controller;
+
+import org.example.springproject.transaction.combining.DecrementCombiner;
+import org.example.springproject.transaction.retry.RetryEngine;
+import org.example.springproject.transaction.scheduler.TwoPhaseLockingScheduler;
+import org.example.springproject.transaction.wal.WriteAheadLog;
+import org.example.springproject.util.AuditLogWriter;
+import org.example.springproject.util.OperationLog;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/metrics")
+public class MetricsController {
+
+    private final OperationLog operationLog;
+    private final WriteAheadLog writeAheadLog;
+    private final AuditLogWriter auditLogWriter;
+    private final TwoPhaseLockingScheduler scheduler;
+    private final DecrementCombiner decrementCombiner;
+    private final RetryEngine retryEngine;
+
+    public MetricsController(OperationLog operationLog, WriteAheadLog writeAheadLog, AuditLogWriter auditLogWriter,
+                             TwoPhaseLockingScheduler scheduler, DecrementCombiner decrementCombiner,
+                             RetryEngine retryEngine) {
+        this.operationLog = operationLog;
+        this.writeAheadLog = writeAheadLog;
+        this.auditLogWriter = auditLogWriter;
+        this.scheduler = scheduler;
+        this.decrementCombiner = decrementCombiner;
+        this.retryEngine = retryEngine;
+    }
+
+    /**
+     * Internal counters of the transaction coordinator
+     * GET /api/metrics
+     */
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> metrics() {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("operationLog", operationLog.getMetrics());
+        response.put("wal", writeAheadLog.getMetrics());
+        response.put("audit", auditLogWriter.getMetrics());
+        response.put("locks", scheduler.getMetrics());
+        response.put("combining", decrementCombiner.getMetrics());
+        response.put("retry", retryEngine.getMetrics());
+        return ResponseEntity.ok(response);
+    }
+}
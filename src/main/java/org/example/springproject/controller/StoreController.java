@@ -1,10 +1,16 @@
 package org.example.springproject.controller;
 
 import org.example.springproject.service.StoreService;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @RestController
 @RequestMapping("/api/store")
@@ -22,25 +28,62 @@ public class StoreController {
      * Body: { "customerId": 1, "productId": 1, "quantity": 2 }
      */
     @PostMapping("/orders")
-    public ResponseEntity<Map<String, String>> placeOrder(@RequestBody Map<String, Integer> request) {
-        try {
+    public CompletableFuture<ResponseEntity<Map<String, String>>> placeOrder(@RequestBody Map<String, Integer> request) {
+        return respond(() -> {
             Integer customerId = request.get("customerId");
             Integer productId = request.get("productId");
             Integer quantity = request.get("quantity");
+            return storeService.placeOrderAsync(customerId, productId, quantity);
+        }, orderId -> Map.of(
+                "status", "success",
+                "message", "Order placed successfully",
+                "orderId", String.valueOf(orderId)
+        ));
+    }
 
-            Integer orderId = storeService.placeOrder(customerId, productId, quantity);
+    /**
+     * Reserve stock for a later checkout; the reservation expires unless confirmed in time
+     * POST /api/store/reservations
+     * Body: { "customerId": 1, "productId": 1, "quantity": 2 }
+     */
+    @PostMapping("/reservations")
+    public CompletableFuture<ResponseEntity<Map<String, String>>> reserveStock(@RequestBody Map<String, Integer> request) {
+        return respond(() -> {
+            Integer customerId = request.get("customerId");
+            Integer productId = request.get("productId");
+            Integer quantity = request.get("quantity");
+            return storeService.reserveStockAsync(customerId, productId, quantity);
+        }, reservationId -> Map.of(
+                "status", "success",
+                "message", "Stock reserved successfully",
+                "reservationId", String.valueOf(reservationId)
+        ));
+    }
 
-            return ResponseEntity.ok(Map.of(
-                    "status", "success",
-                    "message", "Order placed successfully",
-                    "orderId", String.valueOf(orderId)
-            ));
-        } catch (RuntimeException e) {
-            return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "message", e.getMessage()
-            ));
-        }
+    /**
+     * Turn a reservation into an order
+     * POST /api/store/reservations/{reservationId}/confirm
+     */
+    @PostMapping("/reservations/{reservationId}/confirm")
+    public CompletableFuture<ResponseEntity<Map<String, String>>> confirmReservation(@PathVariable Integer reservationId) {
+        return respond(() -> storeService.confirmReservationAsync(reservationId), orderId -> Map.of(
+                "status", "success",
+                "message", "Order placed successfully",
+                "orderId", String.valueOf(orderId)
+        ));
+    }
+
+    /**
+     * Total stock of a product, including its stock buckets
+     * GET /api/store/products/{productId}/stock
+     */
+    @GetMapping("/products/{productId}/stock")
+    public CompletableFuture<ResponseEntity<Map<String, String>>> getStock(@PathVariable Integer productId) {
+        return respond(() -> storeService.getStockAsync(productId), stock -> Map.of(
+                "status", "success",
+                "productId", String.valueOf(productId),
+                "stock", String.valueOf(stock)
+        ));
     }
 
     /**
@@ -49,23 +92,15 @@ public class StoreController {
      * Body: { "productId": 1, "quantity": 100 }
      */
     @PostMapping("/restock")
-    public ResponseEntity<Map<String, String>> restock(@RequestBody Map<String, Object> request) {
-        try {
+    public CompletableFuture<ResponseEntity<Map<String, String>>> restock(@RequestBody Map<String, Object> request) {
+        return respond(() -> {
             Integer productId = (Integer) request.get("productId");
             Integer quantity = (Integer) request.get("quantity");
-
-            storeService.restockFromSupplier(productId, quantity);
-
-            return ResponseEntity.ok(Map.of(
-                    "status", "success",
-                    "message", "Inventory restocked successfully"
-            ));
-        } catch (RuntimeException e) {
-            return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "message", e.getMessage()
-            ));
-        }
+            return storeService.restockFromSupplierAsync(productId, quantity);
+        }, done -> Map.of(
+                "status", "success",
+                "message", "Inventory restocked successfully"
+        ));
     }
 
     /**
@@ -73,20 +108,11 @@ public class StoreController {
      * PUT /api/store/orders/{orderId}/cancel
      */
     @PutMapping("/orders/{orderId}/cancel")
-    public ResponseEntity<Map<String, String>> cancelOrder(@PathVariable Integer orderId) {
-        try {
-            storeService.cancelOrder(orderId);
-
-            return ResponseEntity.ok(Map.of(
-                    "status", "success",
-                    "message", "Order cancelled successfully"
-            ));
-        } catch (RuntimeException e) {
-            return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "message", e.getMessage()
-            ));
-        }
+    public CompletableFuture<ResponseEntity<Map<String, String>>> cancelOrder(@PathVariable Integer orderId) {
+        return respond(() -> storeService.cancelOrderAsync(orderId), done -> Map.of(
+                "status", "success",
+                "message", "Order cancelled successfully"
+        ));
     }
 
     /**
@@ -95,23 +121,16 @@ public class StoreController {
      * Body: { "newQuantity": 5 }
      */
     @PutMapping("/orders/{orderId}/quantity")
-    public ResponseEntity<Map<String, String>> modifyOrderQuantity(
+    public CompletableFuture<ResponseEntity<Map<String, String>>> modifyOrderQuantity(
             @PathVariable Integer orderId,
             @RequestBody Map<String, Integer> request) {
-        try {
+        return respond(() -> {
             Integer newQuantity = request.get("newQuantity");
-            storeService.modifyOrderQuantity(orderId, newQuantity);
-
-            return ResponseEntity.ok(Map.of(
-                    "status", "success",
-                    "message", "Order quantity updated successfully"
-            ));
-        } catch (RuntimeException e) {
-            return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "message", e.getMessage()
-            ));
-        }
+            return storeService.modifyOrderQuantityAsync(orderId, newQuantity);
+        }, done -> Map.of(
+                "status", "success",
+                "message", "Order quantity updated successfully"
+        ));
     }
 
     /**
@@ -119,20 +138,11 @@ public class StoreController {
      * POST /api/store/orders/{orderId}/ship
      */
     @PostMapping("/orders/{orderId}/ship")
-    public ResponseEntity<Map<String, String>> shipOrder(@PathVariable Integer orderId) {
-        try {
-            storeService.shipOrder(orderId);
-
-            return ResponseEntity.ok(Map.of(
-                    "status", "success",
-                    "message", "Order shipped successfully"
-            ));
-        } catch (RuntimeException e) {
-            return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "message", e.getMessage()
-            ));
-        }
+    public CompletableFuture<ResponseEntity<Map<String, String>>> shipOrder(@PathVariable Integer orderId) {
+        return respond(() -> storeService.shipOrderAsync(orderId), done -> Map.of(
+                "status", "success",
+                "message", "Order shipped successfully"
+        ));
     }
 
     /**
@@ -140,20 +150,11 @@ public class StoreController {
      * POST /api/store/orders/{orderId}/return
      */
     @PostMapping("/orders/{orderId}/return")
-    public ResponseEntity<Map<String, String>> returnOrder(@PathVariable Integer orderId) {
-        try {
-            storeService.returnOrder(orderId);
-
-            return ResponseEntity.ok(Map.of(
-                    "status", "success",
-                    "message", "Order returned successfully"
-            ));
-        } catch (RuntimeException e) {
-            return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "message", e.getMessage()
-            ));
-        }
+    public CompletableFuture<ResponseEntity<Map<String, String>>> returnOrder(@PathVariable Integer orderId) {
+        return respond(() -> storeService.returnOrderAsync(orderId), done -> Map.of(
+                "status", "success",
+                "message", "Order returned successfully"
+        ));
     }
 
     /**
@@ -162,23 +163,16 @@ public class StoreController {
      * Body: { "newProductId": 102 }
      */
     @PutMapping("/orders/{orderId}/exchange")
-    public ResponseEntity<Map<String, String>> exchangeProduct(
+    public CompletableFuture<ResponseEntity<Map<String, String>>> exchangeProduct(
             @PathVariable Integer orderId,
             @RequestBody Map<String, Integer> request) {
-        try {
+        return respond(() -> {
             Integer newProductId = request.get("newProductId");
-            storeService.exchangeProduct(orderId, newProductId);
-
-            return ResponseEntity.ok(Map.of(
-                    "status", "success",
-                    "message", "Product exchanged successfully"
-            ));
-        } catch (RuntimeException e) {
-            return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "message", e.getMessage()
-            ));
-        }
+            return storeService.exchangeProductAsync(orderId, newProductId);
+        }, done -> Map.of(
+                "status", "success",
+                "message", "Product exchanged successfully"
+        ));
     }
 
     /**
@@ -186,19 +180,46 @@ public class StoreController {
      * DELETE /api/store/products/{productId}
      */
     @DeleteMapping("/products/{productId}")
-    public ResponseEntity<Map<String, String>> discontinueProduct(@PathVariable Integer productId) {
-        try {
-            storeService.discontinueProduct(productId);
+    public CompletableFuture<ResponseEntity<Map<String, String>>> discontinueProduct(@PathVariable Integer productId) {
+        return respond(() -> storeService.discontinueProductAsync(productId), done -> Map.of(
+                "status", "success",
+                "message", "Product discontinued successfully"
+        ));
+    }
 
-            return ResponseEntity.ok(Map.of(
-                    "status", "success",
-                    "message", "Product discontinued successfully"
-            ));
+    /**
+     * Maps the outcome of an asynchronous operation to a response: 200 with {@code success}'s
+     * body, or 400 with the failure's message, as the operations have always answered. A failure
+     * to even start the operation (a malformed request) is answered the same way.
+     */
+    private static <T> CompletableFuture<ResponseEntity<Map<String, String>>> respond(
+            Supplier<CompletableFuture<T>> operation, Function<T, Map<String, String>> success) {
+        CompletableFuture<T> result;
+        try {
+            result = operation.get();
         } catch (RuntimeException e) {
-            return ResponseEntity.badRequest().body(Map.of(
-                    "status", "error",
-                    "message", e.getMessage()
-            ));
+            return CompletableFuture.completedFuture(error(e));
         }
+        return result.handle((value, failure) -> {
+            if (failure == null) {
+                return ResponseEntity.ok(success.apply(value));
+            }
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+            if (cause instanceof RuntimeException e) {
+                return error(e);
+            }
+            throw new CompletionException(cause);
+        });
+    }
+
+    /**
+     * 503 if the operation's executor was full, 400 for anything else.
+     */
+    private static ResponseEntity<Map<String, String>> error(RuntimeException e) {
+        HttpStatus status = e instanceof RejectedExecutionException ? HttpStatus.SERVICE_UNAVAILABLE : HttpStatus.BAD_REQUEST;
+        return ResponseEntity.status(status).body(Map.of(
+                "status", "error",
+                "message", e.getMessage()
+        ));
     }
 }
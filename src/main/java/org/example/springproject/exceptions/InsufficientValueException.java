@@ -0,0 +1,11 @@
+package org.example.springproject.exceptions;
+
+/**
+ * A deferred increment would have taken its column below the floor, or its row is gone. Like an
+ * order refused for insufficient stock, this is an answer rather than a conflict: not retryable.
+ */
+public class InsufficientValueException extends RuntimeException {
+    public InsufficientValueException(String message) {
+        super(message);
+    }
+}
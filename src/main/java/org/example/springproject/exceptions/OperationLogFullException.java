@@ -0,0 +1,7 @@
+package org.example.springproject.exceptions;
+
+public class OperationLogFullException extends RuntimeException {
+    public OperationLogFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,12 @@
+package org.example.springproject.exceptions;
+
+/**
+ * A versioned statement matched no row because the row changed since it was read. Retryable
+ * like a deadlock: {@code DistributedTransaction.retryStatement} re-reads and re-applies the
+ * single statement, and failing that the whole transaction may be retried.
+ */
+public class OptimisticLockException extends DeadlockException {
+    public OptimisticLockException(String message) {
+        super(message);
+    }
+}
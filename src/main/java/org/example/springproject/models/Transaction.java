@@ -1,97 +1,134 @@
 package org.example.springproject.models;
 
-import jdk.dynalink.Operation;
 import org.example.springproject.transaction.TransactionOperation;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Objects;
-import java.util.UUID;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Represents a distributed transaction across multiple databases
+ * <p>
+ * The status is a small state machine advanced with compare-and-set, so only one thread can win
+ * a given transition (e.g. ACTIVE to PREPARING when two threads commit at once). The operation
+ * list is an immutable linked chain whose head is swapped with CAS; neither path takes a lock.
  */
 public class Transaction {
-    private String transactionId;
+
+    private static final VarHandle STATUS;
+    private static final VarHandle OPERATIONS;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            STATUS = lookup.findVarHandle(Transaction.class, "status", TransactionStatus.class);
+            OPERATIONS = lookup.findVarHandle(Transaction.class, "operations", OperationNode.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final long transactionId;
     private final long timestamp;
     private final LocalDateTime startTime;
-    private TransactionStatus status;
-    private final List<TransactionOperation> operations;
-    private final ReentrantReadWriteLock lock;
+    private volatile TransactionStatus status;
+    private volatile OperationNode operations;
 
     public enum TransactionStatus {
         ACTIVE,
         PREPARING,
         COMMITTED,
         ABORTED,
-        ROLLED_BACK
-    }
-
-    public Transaction() {
-        this.transactionId = UUID.randomUUID().toString();
-        this.timestamp = System.nanoTime();
-        this.startTime = LocalDateTime.now();
-        this.status = TransactionStatus.ACTIVE;
-        this.operations = new ArrayList<>();
-        this.lock = new ReentrantReadWriteLock();
+        ROLLED_BACK;
+
+        /**
+         * Legal transitions: ACTIVE -> PREPARING | ABORTED, PREPARING -> COMMITTED | ABORTED,
+         * ABORTED -> ROLLED_BACK. COMMITTED and ROLLED_BACK are terminal.
+         */
+        public boolean canTransitionTo(TransactionStatus next) {
+            return switch (this) {
+                case ACTIVE -> next == PREPARING || next == ABORTED;
+                case PREPARING -> next == COMMITTED || next == ABORTED;
+                case ABORTED -> next == ROLLED_BACK;
+                case COMMITTED, ROLLED_BACK -> false;
+            };
+        }
     }
 
-    public Transaction(String transactionId) {
+    /**
+     * @param transactionId id from {@link org.example.springproject.util.TransactionIdGenerator}
+     */
+    public Transaction(long transactionId) {
         this.transactionId = transactionId;
         this.timestamp = System.nanoTime();
         this.startTime = LocalDateTime.now();
         this.status = TransactionStatus.ACTIVE;
-        this.operations = new ArrayList<>();
-        this.lock = new ReentrantReadWriteLock();
     }
 
     public void addOperation(TransactionOperation operation) {
-        lock.writeLock().lock();
-        try {
+        OperationNode head;
+        do {
             if (status != TransactionStatus.ACTIVE) {
                 throw new IllegalStateException("Cannot add operation to non-active transaction");
             }
-            operations.add(operation);
-        } finally {
-            lock.writeLock().unlock();
-        }
+            head = operations;
+        } while (!OPERATIONS.compareAndSet(this, head, new OperationNode(operation, head)));
     }
 
+    /**
+     * @return the operations in the order they were added.
+     */
     public List<TransactionOperation> getOperations() {
-        lock.readLock().lock();
-        try {
-            return new ArrayList<>(operations);
-        } finally {
-            lock.readLock().unlock();
+        OperationNode head = operations;
+        if (head == null) {
+            return Collections.emptyList();
         }
+        TransactionOperation[] result = new TransactionOperation[head.count];
+        for (OperationNode node = head; node != null; node = node.next) {
+            result[node.count - 1] = node.operation;
+        }
+        return Arrays.asList(result);
     }
 
-    public void setStatus(TransactionStatus status) {
-        lock.writeLock().lock();
-        try {
-            this.status = status;
-        } finally {
-            lock.writeLock().unlock();
+    /**
+     * Atomically moves from {@code expected} to {@code next}.
+     *
+     * @return false if the status was no longer {@code expected}.
+     * @throws IllegalStateException if the transition is not legal.
+     */
+    public boolean compareAndSetStatus(TransactionStatus expected, TransactionStatus next) {
+        if (!expected.canTransitionTo(next)) {
+            throw new IllegalStateException("Illegal transaction status transition " + expected + " -> " + next);
         }
+        return STATUS.compareAndSet(this, expected, next);
+    }
+
+    /**
+     * Moves to {@code next} from whatever the current status is.
+     *
+     * @throws IllegalStateException if the current status cannot move to {@code next}.
+     */
+    public void transitionTo(TransactionStatus next) {
+        TransactionStatus current;
+        do {
+            current = status;
+            if (!current.canTransitionTo(next)) {
+                throw new IllegalStateException("Transaction " + transactionId + " cannot move from "
+                        + current + " to " + next);
+            }
+        } while (!STATUS.compareAndSet(this, current, next));
     }
 
     public TransactionStatus getStatus() {
-        lock.readLock().lock();
-        try {
-            return status;
-        } finally {
-            lock.readLock().unlock();
-        }
+        return status;
     }
 
-    public String getTransactionId() {
+    public long getTransactionId() {
         return transactionId;
     }
-    public void setTransactionId(String transactionId) {
-        this.transactionId = transactionId;
-    }
 
     public long getTimestamp() {
         return timestamp;
@@ -102,18 +139,14 @@ public class Transaction {
     }
 
     public int getOperationCount() {
-        lock.readLock().lock();
-        try {
-            return operations.size();
-        } finally {
-            lock.readLock().unlock();
-        }
+        OperationNode head = operations;
+        return head == null ? 0 : head.count;
     }
 
     @Override
     public String toString() {
         return String.format("Transaction[id=%s, timestamp=%d, status=%s, operations=%d]",
-                transactionId, timestamp, status, operations.size());
+                transactionId, timestamp, status, getOperationCount());
     }
 
     @Override
@@ -121,11 +154,23 @@ public class Transaction {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Transaction that = (Transaction) o;
-        return Objects.equals(transactionId, that.transactionId);
+        return transactionId == that.transactionId;
     }
 
     @Override
     public int hashCode() {
-        return transactionId.hashCode();
+        return Long.hashCode(transactionId);
+    }
+
+    private static final class OperationNode {
+        final TransactionOperation operation;
+        final OperationNode next;
+        final int count;
+
+        OperationNode(TransactionOperation operation, OperationNode next) {
+            this.operation = operation;
+            this.next = next;
+            this.count = next == null ? 1 : next.count + 1;
+        }
     }
 }
@@ -1,61 +1,216 @@
 package org.example.springproject.repository;
 
+import org.example.springproject.exceptions.OptimisticLockException;
 import org.example.springproject.transaction.DistributedTransaction;
+import org.example.springproject.transaction.TransactionContext;
+import org.example.springproject.util.TransactionIdGenerator;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.example.springproject.config.mapper.EntityRowMappers.PRODUCT_MAPPER;
+import static org.example.springproject.config.mapper.EntityRowMappers.STOCK_BUCKET_MAPPER;
 import static org.example.springproject.util.AppConstants.*;
 
 @Repository
 public class ProductRepository {
 
     private final DistributedTransaction tm;
+    /** Attempts at a versioned stock update before the conflict fails the transaction. */
+    private static final int STATEMENT_ATTEMPTS = 3;
 
-    public ProductRepository(DistributedTransaction tm) {
+    private final TransactionIdGenerator idGenerator;
+    /**
+     * Stock bucket ids per product, read once: buckets are provisioned offline (see
+     * schema-inventory.sql) and never deleted, so a product's list only changes on restart.
+     */
+    private final Map<Integer, List<Integer>> stockBuckets = new ConcurrentHashMap<>();
+
+    public ProductRepository(DistributedTransaction tm, TransactionIdGenerator idGenerator) {
         this.tm = tm;
+        this.idGenerator = idGenerator;
     }
 
-    public Map<String, Object> findByIdForUpdate(String tx, Integer productId) {
+    public Map<String, Object> findByIdForUpdate(TransactionContext tx, Integer productId) {
         String sql = "SELECT product_id, name, price, stock, version FROM products WHERE product_id = ?";
         List<Map<String, Object>> result = tm.executeSelectForUpdate(tx, sql, PRODUCT_MAPPER, TABLE_PRODUCTS, productId, productId);
         return result.isEmpty() ? null : result.get(0);
     }
 
-    public void decreaseStock(String tx, Map<String, Object> product, int quantity) {
+    /**
+     * Product name and price without locking the row, so it does not conflict with escrowed
+     * stock deltas; a shared lock would, and would serialize every order for the product.
+     * Stock and version are not read: they are only meaningful under a lock.
+     * <p>
+     * The read is not isolated from {@link #markDiscontinued}, which rewrites {@code name}
+     * under an exclusive lock: it sees the name before or after a discontinuation, and the
+     * latter may still be compensated if the discontinuing transaction fails on another
+     * participant. Callers tolerate this because they only use the row's existence and the
+     * price, which no transaction writes; whether the product can still be sold is decided by
+     * the stock take, which a discontinuation zeroes under its exclusive lock.
+     */
+    public Map<String, Object> findCatalogEntry(TransactionContext tx, Integer productId) {
+        String sql = "SELECT product_id, name, price FROM products WHERE product_id = ?";
+        List<Map<String, Object>> result = tm.executeUnlockedSelect(tx, sql, PRODUCT_MAPPER, TABLE_PRODUCTS, productId);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * Takes {@code quantity} from stock as an escrowed delta, without reading or locking the
+     * exact value, so concurrent orders for the product do not serialize. Concurrent takes of
+     * one row are combined into a single statement.
+     * <p>
+     * A product with stock buckets is served from the bucket {@code affinity} picks, then from
+     * the others in turn, and from {@code products.stock} last, so each row sees about 1/K of the
+     * product's orders. The whole quantity is taken from one row: an order no single row can
+     * cover is refused even if the rows together could.
+     *
+     * @return false if the stock could not cover it.
+     */
+    public boolean takeStock(TransactionContext tx, Integer productId, int quantity, int affinity) {
+        List<Integer> buckets = findStockBuckets(tx, productId);
+        int first = buckets.isEmpty() ? 0 : Math.floorMod(affinity, buckets.size());
+        for (int i = 0; i < buckets.size(); i++) {
+            Integer bucketId = buckets.get((first + i) % buckets.size());
+            if (tm.executeCombinedDecrement(tx, TABLE_STOCK_BUCKETS, COL_STOCK, bucketId, quantity, 0)) {
+                return true;
+            }
+        }
+        return tm.executeCombinedDecrement(tx, TABLE_PRODUCTS, COL_STOCK, productId, quantity, 0);
+    }
+
+    /**
+     * Adds {@code quantity} to stock as escrowed deltas, spread evenly over the product's stock
+     * buckets if it has any; see {@link #takeStock}.
+     */
+    public void addStock(TransactionContext tx, Integer productId, int quantity) {
+        List<Integer> buckets = findStockBuckets(tx, productId);
+        if (buckets.isEmpty()) {
+            tm.executeIncrement(tx, TABLE_PRODUCTS, COL_STOCK, productId, quantity, 0);
+            return;
+        }
+        int share = quantity / buckets.size();
+        int remainder = quantity % buckets.size();
+        for (int i = 0; i < buckets.size(); i++) {
+            int delta = share + (i < remainder ? 1 : 0);
+            if (delta != 0) {
+                tm.executeIncrement(tx, TABLE_STOCK_BUCKETS, COL_STOCK, buckets.get(i), delta, 0);
+            }
+        }
+    }
+
+    /**
+     * Total stock of a product, {@code products.stock} plus its buckets, read without locks:
+     * the value may be stale by the orders in flight.
+     */
+    public Integer findTotalStock(TransactionContext tx, Integer productId) {
+        String sql = "SELECT p.stock + COALESCE((SELECT SUM(b.stock) FROM stock_buckets b WHERE b.product_id = p.product_id), 0)"
+                + " FROM products p WHERE p.product_id = ?";
+        List<Integer> result = tm.executeUnlockedSelect(tx, sql, (rs, i) -> rs.getInt(1), TABLE_PRODUCTS, productId);
+        return result.isEmpty() ? null : result.get(0);
+    }
+
+    /**
+     * The product's stock bucket ids, empty if its stock is not partitioned. Read without locks.
+     */
+    public List<Integer> findStockBuckets(TransactionContext tx, Integer productId) {
+        List<Integer> buckets = stockBuckets.get(productId);
+        if (buckets == null) {
+            String sql = "SELECT bucket_id FROM stock_buckets WHERE product_id = ? ORDER BY bucket_id";
+            buckets = List.copyOf(tm.executeUnlockedSelect(tx, sql, (rs, i) -> rs.getInt(1), TABLE_STOCK_BUCKETS, productId));
+            stockBuckets.putIfAbsent(productId, buckets);
+        }
+        return buckets;
+    }
+
+    /**
+     * Takes {@code quantity} from a product read with {@link #findByIdForUpdate}. Without stock
+     * buckets the row's stock is checked and updated in place; with buckets the quantity is
+     * taken like an order's, see {@link #takeStock}.
+     *
+     * @return false if the stock could not cover it.
+     */
+    public boolean decreaseStock(TransactionContext tx, Map<String, Object> product, int quantity, int affinity) {
+        Integer id = (Integer) product.get("product_id");
+        if (!findStockBuckets(tx, id).isEmpty()) {
+            return takeStock(tx, id, quantity, affinity);
+        }
+        if (((Number) product.get("stock")).intValue() < quantity) {
+            return false;
+        }
         updateStock(tx, product, quantity, true);
+        return true;
     }
 
-    public void increaseStock(String tx, Map<String, Object> product, int quantity) {
+    /**
+     * Returns {@code quantity} to a product read with {@link #findByIdForUpdate}: to the row
+     * itself, or spread over its stock buckets if it has any.
+     */
+    public void increaseStock(TransactionContext tx, Map<String, Object> product, int quantity) {
+        Integer id = (Integer) product.get("product_id");
+        if (!findStockBuckets(tx, id).isEmpty()) {
+            addStock(tx, id, quantity);
+            return;
+        }
         updateStock(tx, product, quantity, false);
     }
 
-    private void updateStock(String tx, Map<String, Object> product, int quantity, boolean isDecrease) {
+    /**
+     * Applies a stock change under the product's version. On a version conflict the row is
+     * re-read and the change re-applied within the transaction; see
+     * {@link DistributedTransaction#retryStatement}. {@code product} is refreshed to the row as
+     * written, so later versioned updates through it do not conflict with this one.
+     */
+    private void updateStock(TransactionContext tx, Map<String, Object> product, int quantity, boolean isDecrease) {
         Integer id = (Integer) product.get("product_id");
-        Integer version = (Integer) product.get("version");
         String operator = isDecrease ? "-" : "+";
 
         String sql = String.format("UPDATE products SET stock = stock %s ?, version = version + 1 WHERE product_id = ? AND version = ?", operator);
 
-        int updated = tm.executeUpdate(tx, sql, TABLE_PRODUCTS, COL_PRODUCT_ID, id, product, quantity, id, version);
+        tm.retryStatement(tx, TABLE_PRODUCTS, STATEMENT_ATTEMPTS, attempt -> {
+            Map<String, Object> current = attempt == 0 ? product : findByIdForUpdate(tx, id);
+            if (current == null) throw new RuntimeException("Product not found");
+            Integer version = (Integer) current.get("version");
 
-        if (updated == 0) throw new RuntimeException("Optimistic lock conflict or product modified concurrently");
+            int updated = tm.executeUpdate(tx, sql, TABLE_PRODUCTS, COL_PRODUCT_ID, id, current, quantity, id, version);
+
+            if (updated == 0) throw new OptimisticLockException("Product " + id + " modified concurrently");
+            if (current != product) {
+                product.putAll(current);
+            }
+            product.put("version", version + 1);
+            if (product.get("stock") instanceof Number stock) {
+                product.put("stock", stock.intValue() + (isDecrease ? -quantity : quantity));
+            }
+            return null;
+        });
     }
 
-    public void markDiscontinued(String tx, Map<String, Object> product) {
+    /**
+     * Renames the product and empties its stock, buckets included, so no order can draw on it.
+     */
+    public void markDiscontinued(TransactionContext tx, Map<String, Object> product) {
         Integer id = (Integer) product.get("product_id");
         String sql = "UPDATE products SET stock = 0, name = CONCAT('DISCONTINUED - ', name), version = version + 1 WHERE product_id = ?";
         tm.executeUpdate(tx, sql, TABLE_PRODUCTS, COL_PRODUCT_ID, id, product, id);
+
+        String select = "SELECT bucket_id, product_id, stock FROM stock_buckets WHERE bucket_id = ?";
+        String empty = "UPDATE stock_buckets SET stock = 0 WHERE bucket_id = ?";
+        for (Integer bucketId : findStockBuckets(tx, id)) {
+            List<Map<String, Object>> bucket = tm.executeSelectForUpdate(tx, select, STOCK_BUCKET_MAPPER, TABLE_STOCK_BUCKETS, bucketId, bucketId);
+            if (!bucket.isEmpty()) {
+                tm.executeUpdate(tx, empty, TABLE_STOCK_BUCKETS, COL_BUCKET_ID, bucketId, bucket.get(0), bucketId);
+            }
+        }
     }
 
-    public void logInventoryTransaction(String tx, Integer productId, int qtyChange) {
+    public void logInventoryTransaction(TransactionContext tx, Integer productId, int qtyChange) {
         String sql = "INSERT INTO inventory_transactions (transaction_id, product_id, quantity_change, timestamp) VALUES (?, ?, ?, ?)";
         tm.executeInsert(tx, sql, TABLE_INVENTORY_TX,
                 Map.of("product_id", productId, "quantity_change", qtyChange),
-                UUID.randomUUID().toString(), productId, qtyChange, LocalDateTime.now());
+                Long.toString(idGenerator.nextId()), productId, qtyChange, LocalDateTime.now());
     }
 }
\ No newline at end of file
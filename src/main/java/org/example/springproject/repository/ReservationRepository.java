@@ -0,0 +1,52 @@
+package org.example.springproject.repository;
+
+import org.example.springproject.transaction.DistributedTransaction;
+import org.example.springproject.transaction.TransactionContext;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.example.springproject.config.mapper.EntityRowMappers.RESERVATION_MAPPER;
+import static org.example.springproject.util.AppConstants.*;
+
+@Repository
+public class ReservationRepository {
+
+    private final DistributedTransaction tm;
+
+    public ReservationRepository(DistributedTransaction tm) {
+        this.tm = tm;
+    }
+
+    public Integer createReservation(TransactionContext tx, Integer customerId, Integer productId, int qty, LocalDateTime expiresAt) {
+        String sql = "INSERT INTO stock_reservations (customer_id, product_id, quantity, status, expires_at) VALUES (?, ?, ?, ?, ?)";
+
+        Map<String, Object> data = Map.of("customer_id", customerId, "product_id", productId, "quantity", qty, "status", STATUS_RESERVED, "expires_at", expiresAt);
+
+        return tm.executeInsertAndGetId(tx, sql, TABLE_STOCK_RESERVATIONS, COL_RESERVATION_ID, data,
+                customerId, productId, qty, STATUS_RESERVED, expiresAt);
+    }
+
+    public Map<String, Object> findReservationForUpdate(TransactionContext tx, Integer reservationId) {
+        String sql = "SELECT * FROM stock_reservations WHERE reservation_id = ?";
+        List<Map<String, Object>> res = tm.executeSelectForUpdate(tx, sql, RESERVATION_MAPPER, TABLE_STOCK_RESERVATIONS, reservationId, reservationId);
+        return res.isEmpty() ? null : res.get(0);
+    }
+
+    /**
+     * Ids of up to {@code limit} reservations still held past {@code now}, read without locks;
+     * the caller locks and re-checks each one.
+     */
+    public List<Integer> findExpiredReservationIds(TransactionContext tx, LocalDateTime now, int limit) {
+        String sql = "SELECT reservation_id FROM stock_reservations WHERE status = ? AND expires_at < ? ORDER BY expires_at LIMIT ?";
+        return tm.executeUnlockedSelect(tx, sql, (rs, i) -> rs.getInt(1), TABLE_STOCK_RESERVATIONS, STATUS_RESERVED, now, limit);
+    }
+
+    public void updateReservationStatus(TransactionContext tx, Map<String, Object> reservation, String newStatus) {
+        Integer id = (Integer) reservation.get("reservation_id");
+        String sql = "UPDATE stock_reservations SET status = ? WHERE reservation_id = ?";
+        tm.executeUpdate(tx, sql, TABLE_STOCK_RESERVATIONS, COL_RESERVATION_ID, id, reservation, newStatus, id);
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.springproject.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Returns the stock of expired reservations in the background. Each run expires batches until
+ * a batch comes back short, so a backlog is drained without one long transaction.
+ */
+@Component
+public class ReservationSweeper {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReservationSweeper.class);
+
+    private final StoreService storeService;
+    private final boolean enabled;
+    private final long intervalMs;
+    private final int batchSize;
+
+    private ScheduledExecutorService executor;
+
+    public ReservationSweeper(
+            StoreService storeService,
+            @Value("${reservation.sweeper.enabled:true}") boolean enabled,
+            @Value("${reservation.sweeper.interval-ms:5000}") long intervalMs,
+            @Value("${reservation.sweeper.batch-size:100}") int batchSize) {
+        this.storeService = storeService;
+        this.enabled = enabled;
+        this.intervalMs = intervalMs;
+        this.batchSize = batchSize;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            LOGGER.info("Reservation sweeper disabled");
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reservation-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(this::sweep, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    void sweep() {
+        try {
+            int expired;
+            int total = 0;
+            do {
+                expired = storeService.expireReservations(batchSize);
+                total += expired;
+            } while (expired == batchSize);
+            if (total > 0) {
+                LOGGER.info("Expired {} stock reservations", total);
+            }
+        } catch (RuntimeException e) {
+            // Thrown out of a scheduled task it would cancel every later run.
+            LOGGER.warn("Reservation sweep failed; retrying in {} ms", intervalMs, e);
+        }
+    }
+}
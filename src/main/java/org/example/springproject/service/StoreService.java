@@ -1,262 +1,503 @@
 package org.example.springproject.service;
 
+import org.example.springproject.exceptions.DeadlockException;
 import org.example.springproject.repository.OrderRepository;
 import org.example.springproject.repository.ProductRepository;
+import org.example.springproject.repository.ReservationRepository;
 import org.example.springproject.transaction.DistributedTransaction;
-import org.example.springproject.util.TransactionRetryTemplate;
+import org.example.springproject.transaction.LockSet;
+import org.example.springproject.transaction.TransactionContext;
+import org.example.springproject.transaction.retry.RetryEngine;
+import org.example.springproject.transaction.retry.RetryPolicy;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import static org.example.springproject.util.AppConstants.*;
 
+/**
+ * Store operations, each one distributed transaction retried by the {@link RetryEngine}. Every
+ * operation the API exposes also has an {@code ...Async} variant that runs its attempts on the
+ * executor of its workload class (checkout, order changes, catalog) and returns at once; no
+ * thread is held while a retry backs off.
+ */
 @Service
 public class StoreService {
 
+    /** A customer is waiting on the order: give up quickly rather than queue behind a hot product. */
+    private static final RetryPolicy PLACE_ORDER = new RetryPolicy("placeOrder", 4, 10, 200);
+    /** Cancellations, returns and changes to an order must go through; keep trying longer. */
+    private static final RetryPolicy ORDER_CHANGE = new RetryPolicy("orderChange", 6, 20, 1000);
+
     private final DistributedTransaction tm;
     private final ProductRepository productRepo;
     private final OrderRepository orderRepo;
-    private final TransactionRetryTemplate retryTemplate;
+    private final ReservationRepository reservationRepo;
+    private final RetryEngine retryEngine;
+    private final long reservationTtlSeconds;
+    private final Executor checkoutExecutor;
+    private final Executor orderChangeExecutor;
+    private final Executor catalogExecutor;
 
     public StoreService(DistributedTransaction tm,
-                        TransactionRetryTemplate retryTemplate,
+                        RetryEngine retryEngine,
                         ProductRepository productRepo,
-                        OrderRepository orderRepo) {
+                        OrderRepository orderRepo,
+                        ReservationRepository reservationRepo,
+                        @Value("${reservation.ttl-seconds:600}") long reservationTtlSeconds,
+                        @Qualifier("checkoutExecutor") Executor checkoutExecutor,
+                        @Qualifier("orderChangeExecutor") Executor orderChangeExecutor,
+                        @Qualifier("catalogExecutor") Executor catalogExecutor) {
         this.tm = tm;
-        this.retryTemplate = retryTemplate;
+        this.retryEngine = retryEngine;
         this.productRepo = productRepo;
         this.orderRepo = orderRepo;
+        this.reservationRepo = reservationRepo;
+        this.reservationTtlSeconds = reservationTtlSeconds;
+        this.checkoutExecutor = checkoutExecutor;
+        this.orderChangeExecutor = orderChangeExecutor;
+        this.catalogExecutor = catalogExecutor;
     }
 
     public Integer placeOrder(Integer customerId, Integer productId, Integer quantity) {
-        java.util.concurrent.atomic.AtomicInteger resultId = new java.util.concurrent.atomic.AtomicInteger();
-        retryTemplate.execute(() -> {
-            String tx = tm.beginTransaction();
-            try {
-                Map<String, Object> product = productRepo.findByIdForUpdate(tx, productId);
-                validateProductAvailability(product, quantity);
-
-                productRepo.decreaseStock(tx, product, quantity);
-
-                double price = getDouble(product.get("price"));
-                int total = (int) (price * quantity);
-
-                Integer orderId = orderRepo.createOrder(tx, customerId, productId, quantity, total);
-                orderRepo.createPayment(tx, orderId, total);
-
-                tm.commit(tx);
-                resultId.set(orderId);
-            } catch (Exception e) {
-                tm.rollback(tx);
-                throw e;
+        return retryEngine.execute(PLACE_ORDER, () -> placeOrderOnce(customerId, productId, quantity), "Failed to place order");
+    }
+
+    public CompletableFuture<Integer> placeOrderAsync(Integer customerId, Integer productId, Integer quantity) {
+        return retryEngine.executeAsync(PLACE_ORDER, () -> placeOrderOnce(customerId, productId, quantity), "Failed to place order", checkoutExecutor);
+    }
+
+    private Integer placeOrderOnce(Integer customerId, Integer productId, Integer quantity) {
+        TransactionContext tx = tm.beginTransaction();
+        try {
+            Map<String, Object> product = productRepo.findCatalogEntry(tx, productId);
+            if (product == null) throw new RuntimeException("Product not found");
+            if (!productRepo.takeStock(tx, productId, quantity, Objects.hashCode(customerId))) throw new RuntimeException("Insufficient stock");
+
+            double price = getDouble(product.get("price"));
+            int total = (int) (price * quantity);
+
+            Integer orderId = orderRepo.createOrder(tx, customerId, productId, quantity, total);
+            orderRepo.createPayment(tx, orderId, total);
+
+            tm.commit(tx);
+            return orderId;
+        } catch (Exception e) {
+            tm.rollback(tx);
+            throw e;
+        }
+    }
+
+    /**
+     * First step of a two-step checkout: takes the stock and records a reservation that expires
+     * after the configured TTL. Only the inventory database is involved, and the stock row is
+     * held just for this short transaction.
+     */
+    public Integer reserveStock(Integer customerId, Integer productId, Integer quantity) {
+        return retryEngine.execute(PLACE_ORDER, () -> reserveStockOnce(customerId, productId, quantity), "Failed to reserve stock");
+    }
+
+    public CompletableFuture<Integer> reserveStockAsync(Integer customerId, Integer productId, Integer quantity) {
+        return retryEngine.executeAsync(PLACE_ORDER, () -> reserveStockOnce(customerId, productId, quantity), "Failed to reserve stock", checkoutExecutor);
+    }
+
+    private Integer reserveStockOnce(Integer customerId, Integer productId, Integer quantity) {
+        TransactionContext tx = tm.beginTransaction();
+        try {
+            if (productRepo.findCatalogEntry(tx, productId) == null) throw new RuntimeException("Product not found");
+            if (!productRepo.takeStock(tx, productId, quantity, Objects.hashCode(customerId))) throw new RuntimeException("Insufficient stock");
+
+            LocalDateTime expiresAt = LocalDateTime.now().plusSeconds(reservationTtlSeconds);
+            Integer reservationId = reservationRepo.createReservation(tx, customerId, productId, quantity, expiresAt);
+
+            tm.commit(tx);
+            return reservationId;
+        } catch (Exception e) {
+            tm.rollback(tx);
+            throw e;
+        }
+    }
+
+    /**
+     * Second step of a two-step checkout: turns an unexpired reservation into an order and its
+     * payment. The stock was already taken by {@link #reserveStock}, so no product row is locked.
+     */
+    public Integer confirmReservation(Integer reservationId) {
+        return retryEngine.execute(PLACE_ORDER, () -> confirmReservationOnce(reservationId), "Failed to confirm reservation");
+    }
+
+    public CompletableFuture<Integer> confirmReservationAsync(Integer reservationId) {
+        return retryEngine.executeAsync(PLACE_ORDER, () -> confirmReservationOnce(reservationId), "Failed to confirm reservation", checkoutExecutor);
+    }
+
+    private Integer confirmReservationOnce(Integer reservationId) {
+        TransactionContext tx = tm.beginTransaction();
+        try {
+            Map<String, Object> reservation = reservationRepo.findReservationForUpdate(tx, reservationId);
+            if (reservation == null) throw new RuntimeException("Reservation not found");
+            if (!STATUS_RESERVED.equals(reservation.get("status"))) throw new RuntimeException("Reservation is no longer active");
+            if (((LocalDateTime) reservation.get("expires_at")).isBefore(LocalDateTime.now())) throw new RuntimeException("Reservation expired");
+
+            Integer productId = getInt(reservation.get("product_id"));
+            int quantity = getInt(reservation.get("quantity"));
+            Map<String, Object> product = productRepo.findCatalogEntry(tx, productId);
+            if (product == null) throw new RuntimeException("Product not found");
+
+            double price = getDouble(product.get("price"));
+            int total = (int) (price * quantity);
+
+            reservationRepo.updateReservationStatus(tx, reservation, STATUS_CONFIRMED);
+            Integer orderId = orderRepo.createOrder(tx, (Integer) reservation.get("customer_id"), productId, quantity, total);
+            orderRepo.createPayment(tx, orderId, total);
+
+            tm.commit(tx);
+            return orderId;
+        } catch (Exception e) {
+            tm.rollback(tx);
+            throw e;
+        }
+    }
+
+    /**
+     * Expires up to {@code batchSize} reservations past their TTL in one transaction and returns
+     * their stock.
+     *
+     * @return the number of reservations expired.
+     */
+    public int expireReservations(int batchSize) {
+        return retryEngine.execute(retryEngine.getDefaultPolicy(), () -> expireReservationsOnce(batchSize), "Failed to expire reservations");
+    }
+
+    private int expireReservationsOnce(int batchSize) {
+        int expired = 0;
+        TransactionContext tx = tm.beginTransaction();
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            for (Integer reservationId : reservationRepo.findExpiredReservationIds(tx, now, batchSize)) {
+                // Re-checked under the lock: a confirm may have won the race.
+                Map<String, Object> reservation = reservationRepo.findReservationForUpdate(tx, reservationId);
+                if (reservation == null || !STATUS_RESERVED.equals(reservation.get("status"))
+                        || !((LocalDateTime) reservation.get("expires_at")).isBefore(now)) {
+                    continue;
+                }
+                reservationRepo.updateReservationStatus(tx, reservation, STATUS_EXPIRED);
+                productRepo.addStock(tx, getInt(reservation.get("product_id")), getInt(reservation.get("quantity")));
+                expired++;
             }
-        }, "Failed to place order");
-        return resultId.get();
+
+            tm.commit(tx);
+            return expired;
+        } catch (Exception e) {
+            tm.rollback(tx);
+            throw e;
+        }
+    }
+
+    public Integer getStock(Integer productId) {
+        return retryEngine.execute(retryEngine.getDefaultPolicy(), () -> getStockOnce(productId), "Failed to read stock");
+    }
+
+    public CompletableFuture<Integer> getStockAsync(Integer productId) {
+        return retryEngine.executeAsync(retryEngine.getDefaultPolicy(), () -> getStockOnce(productId), "Failed to read stock", catalogExecutor);
+    }
+
+    private Integer getStockOnce(Integer productId) {
+        TransactionContext tx = tm.beginTransaction();
+        try {
+            Integer total = productRepo.findTotalStock(tx, productId);
+            if (total == null) throw new RuntimeException("Product not found");
+
+            tm.commit(tx);
+            return total;
+        } catch (Exception e) {
+            tm.rollback(tx);
+            throw e;
+        }
     }
 
     public void restockFromSupplier(Integer productId, Integer quantity) {
-        retryTemplate.execute(() -> {
-            String tx = tm.beginTransaction();
-            try {
-                productRepo.logInventoryTransaction(tx, productId, quantity);
-
-                Map<String, Object> product = productRepo.findByIdForUpdate(tx, productId);
-                if (product == null) throw new RuntimeException("Product not found");
-
-                productRepo.increaseStock(tx, product, quantity);
-                tm.commit(tx);
-            } catch (Exception e) {
-                tm.rollback(tx);
-                throw e;
-            }
-        }, "Failed to restock inventory");
+        retryEngine.execute(retryEngine.getDefaultPolicy(), () -> restockFromSupplierOnce(productId, quantity), "Failed to restock inventory");
+    }
+
+    public CompletableFuture<Void> restockFromSupplierAsync(Integer productId, Integer quantity) {
+        return retryEngine.executeAsync(retryEngine.getDefaultPolicy(), () -> restockFromSupplierOnce(productId, quantity), "Failed to restock inventory", catalogExecutor);
+    }
+
+    private void restockFromSupplierOnce(Integer productId, Integer quantity) {
+        TransactionContext tx = tm.beginTransaction();
+        try {
+            productRepo.logInventoryTransaction(tx, productId, quantity);
+
+            if (productRepo.findCatalogEntry(tx, productId) == null) throw new RuntimeException("Product not found");
+
+            productRepo.addStock(tx, productId, quantity);
+            tm.commit(tx);
+        } catch (Exception e) {
+            tm.rollback(tx);
+            throw e;
+        }
     }
 
     public void cancelOrder(Integer orderId) {
-        retryTemplate.execute(() -> {
-            String tx = tm.beginTransaction();
-            try {
-                Map<String, Object> order = orderRepo.findOrderForUpdate(tx, orderId);
-                validateOrderExists(order);
-                if (STATUS_CANCELLED.equals(order.get("status"))) {
-                    throw new RuntimeException("Order already cancelled");
-                }
+        retryEngine.execute(ORDER_CHANGE, () -> cancelOrderOnce(orderId), "Failed to cancel order");
+    }
 
-                orderRepo.updateOrderStatus(tx, order, STATUS_CANCELLED);
+    public CompletableFuture<Void> cancelOrderAsync(Integer orderId) {
+        return retryEngine.executeAsync(ORDER_CHANGE, () -> cancelOrderOnce(orderId), "Failed to cancel order", orderChangeExecutor);
+    }
 
-                Map<String, Object> payment = orderRepo.findPaymentForUpdate(tx, orderId);
-                if (payment != null) {
-                    orderRepo.updatePaymentStatus(tx, payment, STATUS_REFUNDED);
-                }
+    private void cancelOrderOnce(Integer orderId) {
+        TransactionContext tx = tm.beginTransaction();
+        try {
+            Map<String, Object> order = lockOrderFlow(tx, orderId);
+            validateOrderExists(order);
+            if (STATUS_CANCELLED.equals(order.get("status"))) {
+                throw new RuntimeException("Order already cancelled");
+            }
 
-                Map<String, Object> product = productRepo.findByIdForUpdate(tx, getInt(order.get("product_id")));
-                if (product != null) {
-                    productRepo.increaseStock(tx, product, getInt(order.get("quantity")));
-                }
+            orderRepo.updateOrderStatus(tx, order, STATUS_CANCELLED);
 
-                tm.commit(tx);
-            } catch (Exception e) {
-                tm.rollback(tx);
-                throw e;
+            Map<String, Object> payment = orderRepo.findPaymentForUpdate(tx, orderId);
+            if (payment != null) {
+                orderRepo.updatePaymentStatus(tx, payment, STATUS_REFUNDED);
+            }
+
+            Map<String, Object> product = productRepo.findByIdForUpdate(tx, getInt(order.get("product_id")));
+            if (product != null) {
+                productRepo.increaseStock(tx, product, getInt(order.get("quantity")));
             }
-        }, "Failed to cancel order");
+
+            tm.commit(tx);
+        } catch (Exception e) {
+            tm.rollback(tx);
+            throw e;
+        }
     }
 
     public void modifyOrderQuantity(Integer orderId, Integer newQuantity) {
-        retryTemplate.execute(() -> {
-            String tx = tm.beginTransaction();
-            try {
-                Map<String, Object> order = orderRepo.findOrderForUpdate(tx, orderId);
-                validateOrderExists(order);
-                if (!STATUS_PENDING.equals(order.get("status"))) {
-                    throw new RuntimeException("Cannot modify non-PENDING order");
-                }
+        retryEngine.execute(ORDER_CHANGE, () -> modifyOrderQuantityOnce(orderId, newQuantity), "Failed to modify order quantity");
+    }
 
-                int oldQuantity = getInt(order.get("quantity"));
-                int diff = newQuantity - oldQuantity;
+    public CompletableFuture<Void> modifyOrderQuantityAsync(Integer orderId, Integer newQuantity) {
+        return retryEngine.executeAsync(ORDER_CHANGE, () -> modifyOrderQuantityOnce(orderId, newQuantity), "Failed to modify order quantity", orderChangeExecutor);
+    }
 
-                Map<String, Object> product = productRepo.findByIdForUpdate(tx, getInt(order.get("product_id")));
-                double price = getDouble(product.get("price"));
-                int newTotal = (int) (price * newQuantity);
+    private void modifyOrderQuantityOnce(Integer orderId, Integer newQuantity) {
+        TransactionContext tx = tm.beginTransaction();
+        try {
+            Map<String, Object> order = lockOrderFlow(tx, orderId);
+            validateOrderExists(order);
+            if (!STATUS_PENDING.equals(order.get("status"))) {
+                throw new RuntimeException("Cannot modify non-PENDING order");
+            }
 
-                if (diff != 0) {
-                    if (diff > 0) {
-                        validateProductAvailability(product, diff);
-                        productRepo.decreaseStock(tx, product, diff);
-                    } else {
-                        productRepo.increaseStock(tx, product, Math.abs(diff));
-                    }
-                }
+            int oldQuantity = getInt(order.get("quantity"));
+            int diff = newQuantity - oldQuantity;
+
+            Map<String, Object> product = productRepo.findByIdForUpdate(tx, getInt(order.get("product_id")));
+            double price = getDouble(product.get("price"));
+            int newTotal = (int) (price * newQuantity);
 
-                orderRepo.updateOrderQuantity(tx, order, newQuantity, newTotal);
-                Map<String, Object> payment = orderRepo.findPaymentForUpdate(tx, orderId);
-                if (payment != null) {
-                    orderRepo.updatePaymentAmount(tx, payment, newTotal);
+            if (diff != 0) {
+                if (diff > 0) {
+                    if (!productRepo.decreaseStock(tx, product, diff, Objects.hashCode(order.get("customer_id")))) {
+                        throw new RuntimeException("Insufficient stock");
+                    }
+                } else {
+                    productRepo.increaseStock(tx, product, Math.abs(diff));
                 }
+            }
 
-                tm.commit(tx);
-            } catch (Exception e) {
-                tm.rollback(tx);
-                throw e;
+            orderRepo.updateOrderQuantity(tx, order, newQuantity, newTotal);
+            Map<String, Object> payment = orderRepo.findPaymentForUpdate(tx, orderId);
+            if (payment != null) {
+                orderRepo.updatePaymentAmount(tx, payment, newTotal);
             }
-        }, "Failed to modify order quantity");
+
+            tm.commit(tx);
+        } catch (Exception e) {
+            tm.rollback(tx);
+            throw e;
+        }
     }
 
     public void shipOrder(Integer orderId) {
-        retryTemplate.execute(() -> {
-            String tx = tm.beginTransaction();
-            try {
-                Map<String, Object> order = orderRepo.findOrderForUpdate(tx, orderId);
-                validateOrderExists(order);
-                if (!STATUS_PENDING.equals(order.get("status"))) {
-                    throw new RuntimeException("Order must be PENDING to ship");
-                }
+        retryEngine.execute(retryEngine.getDefaultPolicy(), () -> shipOrderOnce(orderId), "Failed to ship order");
+    }
 
-                orderRepo.updateOrderStatus(tx, order, STATUS_SHIPPED);
+    public CompletableFuture<Void> shipOrderAsync(Integer orderId) {
+        return retryEngine.executeAsync(retryEngine.getDefaultPolicy(), () -> shipOrderOnce(orderId), "Failed to ship order", orderChangeExecutor);
+    }
 
-                int totalAmount = getInt(order.get("total_amount"));
-                Map<String, Object> payment = orderRepo.findPaymentForUpdate(tx, orderId);
-                orderRepo.updatePaymentAmount(tx, payment, totalAmount);
+    private void shipOrderOnce(Integer orderId) {
+        TransactionContext tx = tm.beginTransaction();
+        try {
+            Map<String, Object> order = orderRepo.findOrderForUpdate(tx, orderId);
+            validateOrderExists(order);
+            if (!STATUS_PENDING.equals(order.get("status"))) {
+                throw new RuntimeException("Order must be PENDING to ship");
+            }
 
-                if (payment != null) orderRepo.updatePaymentStatus(tx, payment, STATUS_CAPTURED);
+            orderRepo.updateOrderStatus(tx, order, STATUS_SHIPPED);
 
-                productRepo.logInventoryTransaction(tx, getInt(order.get("product_id")), -getInt(order.get("quantity")));
+            int totalAmount = getInt(order.get("total_amount"));
+            Map<String, Object> payment = orderRepo.findPaymentForUpdate(tx, orderId);
+            orderRepo.updatePaymentAmount(tx, payment, totalAmount);
 
-                tm.commit(tx);
-            } catch (Exception e) {
-                tm.rollback(tx);
-                throw e;
-            }
-        }, "Failed to ship order");
+            if (payment != null) orderRepo.updatePaymentStatus(tx, payment, STATUS_CAPTURED);
+
+            productRepo.logInventoryTransaction(tx, getInt(order.get("product_id")), -getInt(order.get("quantity")));
+
+            tm.commit(tx);
+        } catch (Exception e) {
+            tm.rollback(tx);
+            throw e;
+        }
     }
 
     public void returnOrder(Integer orderId) {
-        retryTemplate.execute(() -> {
-            String tx = tm.beginTransaction();
-            try {
-                Map<String, Object> order = orderRepo.findOrderForUpdate(tx, orderId);
-                validateOrderExists(order);
-                if (!STATUS_SHIPPED.equals(order.get("status"))) {
-                    throw new RuntimeException("Only SHIPPED orders can be returned");
-                }
+        retryEngine.execute(ORDER_CHANGE, () -> returnOrderOnce(orderId), "Failed to return order");
+    }
 
-                orderRepo.updateOrderStatus(tx, order, STATUS_RETURNED);
+    public CompletableFuture<Void> returnOrderAsync(Integer orderId) {
+        return retryEngine.executeAsync(ORDER_CHANGE, () -> returnOrderOnce(orderId), "Failed to return order", orderChangeExecutor);
+    }
 
-                Map<String, Object> payment = orderRepo.findPaymentForUpdate(tx, orderId);
-                if (payment != null) orderRepo.updatePaymentStatus(tx, payment, STATUS_REFUNDED);
+    private void returnOrderOnce(Integer orderId) {
+        TransactionContext tx = tm.beginTransaction();
+        try {
+            Map<String, Object> order = lockOrderFlow(tx, orderId);
+            validateOrderExists(order);
+            if (!STATUS_SHIPPED.equals(order.get("status"))) {
+                throw new RuntimeException("Only SHIPPED orders can be returned");
+            }
 
-                Map<String, Object> product = productRepo.findByIdForUpdate(tx, getInt(order.get("product_id")));
-                productRepo.increaseStock(tx, product, getInt(order.get("quantity")));
+            orderRepo.updateOrderStatus(tx, order, STATUS_RETURNED);
 
-                tm.commit(tx);
-            } catch (Exception e) {
-                tm.rollback(tx);
-                throw e;
-            }
-        }, "Failed to return order");
+            Map<String, Object> payment = orderRepo.findPaymentForUpdate(tx, orderId);
+            if (payment != null) orderRepo.updatePaymentStatus(tx, payment, STATUS_REFUNDED);
+
+            Map<String, Object> product = productRepo.findByIdForUpdate(tx, getInt(order.get("product_id")));
+            productRepo.increaseStock(tx, product, getInt(order.get("quantity")));
+
+            tm.commit(tx);
+        } catch (Exception e) {
+            tm.rollback(tx);
+            throw e;
+        }
     }
 
     public void exchangeProduct(Integer orderId, Integer newProductId) {
-        retryTemplate.execute(() -> {
-            String tx = tm.beginTransaction();
-            try {
-                Map<String, Object> order = orderRepo.findOrderForUpdate(tx, orderId);
-                validateOrderExists(order);
-                int oldProductId = getInt(order.get("product_id"));
+        retryEngine.execute(ORDER_CHANGE, () -> exchangeProductOnce(orderId, newProductId), "Failed to exchange product");
+    }
 
-                if (oldProductId == newProductId) throw new RuntimeException("Cannot exchange for same product");
+    public CompletableFuture<Void> exchangeProductAsync(Integer orderId, Integer newProductId) {
+        return retryEngine.executeAsync(ORDER_CHANGE, () -> exchangeProductOnce(orderId, newProductId), "Failed to exchange product", orderChangeExecutor);
+    }
 
-                Map<String, Object> oldProduct = productRepo.findByIdForUpdate(tx, oldProductId);
-                Map<String, Object> newProduct = productRepo.findByIdForUpdate(tx, newProductId);
+    private void exchangeProductOnce(Integer orderId, Integer newProductId) {
+        TransactionContext tx = tm.beginTransaction();
+        try {
+            Map<String, Object> order = lockOrderFlow(tx, orderId, newProductId);
+            validateOrderExists(order);
+            int oldProductId = getInt(order.get("product_id"));
 
-                if (newProduct == null) throw new RuntimeException("New product not found");
+            if (oldProductId == newProductId) throw new RuntimeException("Cannot exchange for same product");
 
-                int qty = getInt(order.get("quantity"));
-                validateProductAvailability(newProduct, qty);
+            Map<String, Object> oldProduct = productRepo.findByIdForUpdate(tx, oldProductId);
+            Map<String, Object> newProduct = productRepo.findByIdForUpdate(tx, newProductId);
 
-                productRepo.increaseStock(tx, oldProduct, qty);
-                productRepo.decreaseStock(tx, newProduct, qty);
+            if (newProduct == null) throw new RuntimeException("New product not found");
 
-                double price = getDouble(newProduct.get("price"));
-                int newTotal = (int) (price * qty);
+            int qty = getInt(order.get("quantity"));
+            if (!productRepo.decreaseStock(tx, newProduct, qty, Objects.hashCode(order.get("customer_id")))) {
+                throw new RuntimeException("Insufficient stock");
+            }
+            productRepo.increaseStock(tx, oldProduct, qty);
 
-                Map<String, Object> payment = orderRepo.findPaymentForUpdate(tx, orderId);
-                orderRepo.updateOrderDetails(tx, order, newProductId, qty, newTotal);
-                orderRepo.updatePaymentAmount(tx, payment, newTotal);
+            double price = getDouble(newProduct.get("price"));
+            int newTotal = (int) (price * qty);
 
-                tm.commit(tx);
-            } catch (Exception e) {
-                tm.rollback(tx);
-                throw e;
-            }
-        }, "Failed to exchange product");
+            Map<String, Object> payment = orderRepo.findPaymentForUpdate(tx, orderId);
+            orderRepo.updateOrderDetails(tx, order, newProductId, qty, newTotal);
+            orderRepo.updatePaymentAmount(tx, payment, newTotal);
+
+            tm.commit(tx);
+        } catch (Exception e) {
+            tm.rollback(tx);
+            throw e;
+        }
     }
 
     public void discontinueProduct(Integer productId) {
-        retryTemplate.execute(() -> {
-            String tx = tm.beginTransaction();
-            try {
-                Map<String, Object> product = productRepo.findByIdForUpdate(tx, productId);
-                if (product == null) throw new RuntimeException("Product not found");
-
-                productRepo.markDiscontinued(tx, product);
-                productRepo.logInventoryTransaction(tx, productId, 0);
-
-                tm.commit(tx);
-            } catch (Exception e) {
-                tm.rollback(tx);
-                throw e;
-            }
-        }, "Failed to discontinue product");
+        retryEngine.execute(retryEngine.getDefaultPolicy(), () -> discontinueProductOnce(productId), "Failed to discontinue product");
     }
 
-    private void validateOrderExists(Map<String, Object> order) {
-        if (order == null) throw new RuntimeException("Order not found");
+    public CompletableFuture<Void> discontinueProductAsync(Integer productId) {
+        return retryEngine.executeAsync(retryEngine.getDefaultPolicy(), () -> discontinueProductOnce(productId), "Failed to discontinue product", catalogExecutor);
+    }
+
+    private void discontinueProductOnce(Integer productId) {
+        TransactionContext tx = tm.beginTransaction();
+        try {
+            Map<String, Object> product = productRepo.findByIdForUpdate(tx, productId);
+            if (product == null) throw new RuntimeException("Product not found");
+
+            productRepo.markDiscontinued(tx, product);
+            productRepo.logInventoryTransaction(tx, productId, 0);
+
+            tm.commit(tx);
+        } catch (Exception e) {
+            tm.rollback(tx);
+            throw e;
+        }
+    }
+
+    /**
+     * Declares and takes every lock of a flow on an order: the order, its payment, its product
+     * and {@code otherProducts}, and the stock buckets of those products for the escrowed deltas
+     * the flow may apply to them, so such flows cannot deadlock with each other. The lock set must
+     * be known before any lock is taken, so the order's product is first read without a lock;
+     * if an exchange changed it before the locks were granted, the transaction is retried.
+     *
+     * @return the order, read under its lock.
+     */
+    private Map<String, Object> lockOrderFlow(TransactionContext tx, Integer orderId, Integer... otherProducts) {
+        Map<String, Object> preview = orderRepo.findOrder(tx, orderId);
+        validateOrderExists(preview);
+        int productId = getInt(preview.get("product_id"));
+
+        LockSet locks = LockSet.create()
+                .write(TABLE_ORDERS, orderId)
+                .writeByKey(TABLE_PAYMENTS, COL_ORDER_ID, orderId);
+        declareProduct(tx, locks, productId);
+        for (Integer otherProduct : otherProducts) {
+            declareProduct(tx, locks, otherProduct);
+        }
+        tm.declareLocks(tx, locks);
+
+        Map<String, Object> order = orderRepo.findOrderForUpdate(tx, orderId);
+        validateOrderExists(order);
+        if (getInt(order.get("product_id")) != productId) {
+            throw new DeadlockException("Order " + orderId + " changed product before its locks were granted");
+        }
+        return order;
     }
 
-    private void validateProductAvailability(Map<String, Object> product, int requiredQty) {
-        if (product == null) throw new RuntimeException("Product not found");
-        if (getInt(product.get("stock")) < requiredQty) throw new RuntimeException("Insufficient stock");
+    private void declareProduct(TransactionContext tx, LockSet locks, Integer productId) {
+        locks.write(TABLE_PRODUCTS, productId);
+        for (Integer bucketId : productRepo.findStockBuckets(tx, productId)) {
+            locks.delta(TABLE_STOCK_BUCKETS, bucketId);
+        }
+    }
+
+    private void validateOrderExists(Map<String, Object> order) {
+        if (order == null) throw new RuntimeException("Order not found");
     }
 
     private int getInt(Object value) {
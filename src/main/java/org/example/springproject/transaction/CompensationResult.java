@@ -0,0 +1,54 @@
+package org.example.springproject.transaction;
+
+/**
+ * Outcome of compensating one participant's operations. Operations that were compensated are
+ * marked rolled back on the operation itself, so a failed participant can be retried by passing
+ * the same operations to {@link RollbackManager#compensate} again.
+ */
+public class CompensationResult {
+
+    private final Participant participant;
+    private final int compensatedOperations;
+    private final int remainingOperations;
+    private final int roundTrips;
+    private final RuntimeException failure;
+
+    CompensationResult(Participant participant, int compensatedOperations, int remainingOperations,
+                       int roundTrips, RuntimeException failure) {
+        this.participant = participant;
+        this.compensatedOperations = compensatedOperations;
+        this.remainingOperations = remainingOperations;
+        this.roundTrips = roundTrips;
+        this.failure = failure;
+    }
+
+    public Participant getParticipant() {
+        return participant;
+    }
+
+    public int getCompensatedOperations() {
+        return compensatedOperations;
+    }
+
+    public int getRemainingOperations() {
+        return remainingOperations;
+    }
+
+    public int getRoundTrips() {
+        return roundTrips;
+    }
+
+    public RuntimeException getFailure() {
+        return failure;
+    }
+
+    public boolean isSuccessful() {
+        return failure == null;
+    }
+
+    @Override
+    public String toString() {
+        return participant + "{compensated=" + compensatedOperations + ", remaining=" + remainingOperations
+                + ", roundTrips=" + roundTrips + (failure != null ? ", failure=" + failure.getMessage() : "") + "}";
+    }
+}
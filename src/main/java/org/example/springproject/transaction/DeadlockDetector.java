@@ -1,83 +1,89 @@
 package org.example.springproject.transaction;
 
 import org.example.springproject.exceptions.DeadlockException;
+import org.example.springproject.util.LongLongHashMap;
 import org.springframework.stereotype.Component;
 
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Implements a Wait-For graph to detect deadlocks using Depth-First Search (DFS).
  * A deadlock occurs if a cycle is found in the graph.
+ * <p>
+ * Every transaction waits for at most one other, so the graph is a map from waiting to holding
+ * transaction id, and the DFS degenerates to following that chain.
  */
 @Component
 public class DeadlockDetector {
 
-    private final ConcurrentMap<String, String> waitForGraph;
+    private static final long NONE = 0L;
+    private static final long VISITING = 1L;
+    private static final long DONE = 2L;
 
-    public DeadlockDetector() {
-        this.waitForGraph = new ConcurrentHashMap<>();
-    }
+    private final LongLongHashMap waitForGraph = new LongLongHashMap();
 
     /**
      * Adds an edge T_waiting -> T_holding to the wait-for graph.
      */
-    public void addWaitFor(String waitingTxId, String holdingTxId) {
-        if (!waitingTxId.equals(holdingTxId)) {
+    public synchronized void addWaitFor(long waitingTxId, long holdingTxId) {
+        if (waitingTxId != holdingTxId) {
             waitForGraph.put(waitingTxId, holdingTxId);
         }
     }
 
+    /**
+     * Removes the outgoing edge of a transaction that is no longer waiting.
+     */
+    public synchronized void removeWaitFor(long waitingTxId) {
+        waitForGraph.remove(waitingTxId);
+    }
+
     /**
      * Removes all edges involving the given transaction ID.
      */
-    public void removeTransaction(String txId) {
+    public synchronized void removeTransaction(long txId) {
         waitForGraph.remove(txId);
-
-        waitForGraph.entrySet().removeIf(entry -> entry.getValue().equals(txId));
+        waitForGraph.removeValue(txId);
     }
 
     /**
      * Detects a cycle in the wait-for graph and throws a DeadlockException if one is found.
      */
-    public void detectDeadlock() throws DeadlockException {
-        Set<String> visited = new HashSet<>();
-        Set<String> recursionStack = new HashSet<>();
-
-        for (String txId : waitForGraph.keySet()) {
-            List<String> cycle = findCycle(txId, visited, recursionStack, new ArrayList<>());
-            if (!cycle.isEmpty()) {
-                throw new DeadlockException("Deadlock detected involving transactions: " + cycle);
+    public synchronized void detectDeadlock() throws DeadlockException {
+        LongLongHashMap state = new LongLongHashMap();
+        List<Long> cycle = new ArrayList<>();
+        waitForGraph.forEachKey(start -> {
+            if (cycle.isEmpty() && state.get(start, NONE) == NONE) {
+                findCycle(start, state, cycle);
             }
+        });
+        if (!cycle.isEmpty()) {
+            throw new DeadlockException("Deadlock detected involving transactions: " + cycle);
         }
     }
 
-    private List<String> findCycle(String currentTx, Set<String> visited, Set<String> recursionStack, List<String> path) {
-        if (recursionStack.contains(currentTx)) {
-            int index = path.indexOf(currentTx);
-            return path.subList(index, path.size());
-        }
-
-        if (visited.contains(currentTx)) {
-            return Collections.emptyList();
-        }
-
-        visited.add(currentTx);
-        recursionStack.add(currentTx);
-        path.add(currentTx);
-
-        String nextTx = waitForGraph.get(currentTx);
-
-        if (nextTx != null) {
-            List<String> cycle = findCycle(nextTx, visited, recursionStack, path);
-            if (!cycle.isEmpty()) {
-                return cycle;
+    private void findCycle(long start, LongLongHashMap state, List<Long> cycle) {
+        List<Long> path = new ArrayList<>();
+        long current = start;
+        while (true) {
+            long seen = state.get(current, NONE);
+            if (seen == VISITING) {
+                cycle.addAll(path.subList(path.indexOf(current), path.size()));
+                break;
             }
+            if (seen == DONE) {
+                break;
+            }
+            state.put(current, VISITING);
+            path.add(current);
+            if (!waitForGraph.containsKey(current)) {
+                break;
+            }
+            current = waitForGraph.get(current, NONE);
+        }
+        for (Long txId : path) {
+            state.put(txId, DONE);
         }
-
-        recursionStack.remove(currentTx);
-        path.remove(path.size() - 1);
-        return Collections.emptyList();
     }
 }
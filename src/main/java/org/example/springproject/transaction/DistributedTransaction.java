@@ -2,20 +2,31 @@ package org.example.springproject.transaction;
 
 import org.example.springproject.config.DatabaseWrapper;
 import org.example.springproject.exceptions.DeadlockException;
+import org.example.springproject.exceptions.OptimisticLockException;
 import org.example.springproject.models.Transaction;
 import org.example.springproject.transaction.scheduler.TwoPhaseLockingScheduler;
+import org.example.springproject.transaction.schema.SchemaRegistry;
+import org.example.springproject.transaction.wal.WriteAheadLog;
 import org.example.springproject.util.OperationLog;
+import org.example.springproject.util.TransactionIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.function.IntFunction;
 
 import org.springframework.jdbc.core.RowMapper;
 
+import static org.example.springproject.util.AppConstants.MDC_TX_ID;
+
 /**
  * The Coordinator for the custom Distributed Transaction system.
  * Implements the Two-Phase Commit (2PC) protocol (Atomicity & Durability).
@@ -23,7 +34,7 @@ import org.springframework.jdbc.core.RowMapper;
 @Component
 public class DistributedTransaction {
 
-    private final Map<String, Transaction> activeTransactions = new ConcurrentHashMap<>();
+    private static final Logger LOGGER = LoggerFactory.getLogger(DistributedTransaction.class);
 
     @Autowired
     private DatabaseWrapper databaseWrapper;
@@ -37,20 +48,32 @@ public class DistributedTransaction {
     @Autowired
     private OperationLog operationLog;
 
+    @Autowired
+    private WriteAheadLog writeAheadLog;
+
+    @Autowired
+    private SchemaRegistry schemaRegistry;
+
+    @Autowired
+    private TransactionIdGenerator idGenerator;
+
+    @Value("${transaction.lock.declared-wait-ms:5000}")
+    private long declaredLockWaitMs;
+
     /**
      * Starts a new distributed transaction.
      *
-     * @return The transaction ID.
+     * @return The transaction handle to pass to every subsequent call.
      */
-    public String beginTransaction() {
-        Transaction tx = new Transaction();
+    public TransactionContext beginTransaction() {
+        Transaction tx = new Transaction(idGenerator.nextId());
+        MDC.put(MDC_TX_ID, Long.toString(tx.getTransactionId()));
         try {
-            System.out.println(">>> DEBUG: Beginning transaction: " + tx.getTransactionId());
-            databaseWrapper.beginTransaction(tx);
-            activeTransactions.put(tx.getTransactionId(), tx);
-            return tx.getTransactionId();
+            LOGGER.debug("Beginning transaction");
+            return databaseWrapper.beginTransaction(tx);
         } catch (SQLException e) {
-            System.err.println(">>> ERROR: Failed to start transaction: " + e.getMessage());
+            LOGGER.error("Failed to start transaction: {}", e.getMessage());
+            MDC.remove(MDC_TX_ID);
             throw new RuntimeException("Could not start transaction.", e);
         }
     }
@@ -58,129 +81,222 @@ public class DistributedTransaction {
     /**
      * Commits the distributed transaction using the Two-Phase Commit (2PC) protocol.
      */
-    public void commit(String txId) {
-        System.out.println(">>> DEBUG: Attempting to commit transaction: " + txId);
-        Transaction tx = activeTransactions.get(txId);
-        if (tx == null || tx.getStatus() != Transaction.TransactionStatus.ACTIVE) {
-            System.err.println(">>> ERROR: Cannot commit non-active transaction: " + txId);
+    public void commit(TransactionContext context) {
+        MDC.put(MDC_TX_ID, Long.toString(context.getTransactionId()));
+        try {
+            doCommit(context);
+        } finally {
+            MDC.remove(MDC_TX_ID);
+        }
+    }
+
+    private void doCommit(TransactionContext context) {
+        LOGGER.debug("Attempting to commit transaction");
+        long txId = context.getTransactionId();
+        Transaction tx = context.getTransaction();
+        // Claiming PREPARING is the commit's ownership token: a second commit or a concurrent
+        // rollback of the same transaction loses this CAS instead of racing through 2PC.
+        // A finished transaction also fails it, since its status is no longer ACTIVE.
+        if (!tx.compareAndSetStatus(Transaction.TransactionStatus.ACTIVE, Transaction.TransactionStatus.PREPARING)) {
+            LOGGER.error("Cannot commit non-active transaction");
             throw new IllegalArgumentException("Cannot commit non-active transaction: " + txId);
         }
 
-        tx.setStatus(Transaction.TransactionStatus.PREPARING);
-        List<String> affectedDbs = operationLog.getAffectedDatabases(txId);
-        System.out.println(">>> DEBUG: Affected databases for " + txId + ": " + affectedDbs);
+        try {
+            runTwoPhaseCommit(context);
+        } catch (RuntimeException e) {
+            // Anything that escapes before a decision was recorded leaves the transaction in
+            // PREPARING; abort it here since a later rollback() would treat it as in flight.
+            if (tx.compareAndSetStatus(Transaction.TransactionStatus.PREPARING, Transaction.TransactionStatus.ABORTED)) {
+                try {
+                    abortUncommitted(context, context.getEnlistedParticipants());
+                    rollbackManager.rollback(context);
+                    writeAheadLog.logEnd(txId, false,
+                            !context.getCommittedParticipants().isEmpty() || context.hasAutonomousWork());
+                } finally {
+                    release(context, false);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void runTwoPhaseCommit(TransactionContext context) {
+        long txId = context.getTransactionId();
+        Transaction tx = context.getTransaction();
+        // Escrowed deltas run last, so the database row locks they take are held only for 2PC.
+        databaseWrapper.applyDeferredIncrements(context);
+        Set<Participant> participants = context.getEnlistedParticipants();
+        Set<Participant> voters = context.getWriteParticipants();
+        LOGGER.debug("Participants: {} (writers: {})", participants, voters);
+
+        // Read-only participants have nothing to make durable: they do not vote and are
+        // released up front so their row locks are dropped before phase 2.
+        for (Participant participant : participants) {
+            if (!voters.contains(participant)) {
+                try {
+                    commitResource(context, participant);
+                } catch (SQLException e) {
+                    LOGGER.warn("Failed to release read-only participant {}", participant, e);
+                }
+            }
+        }
 
         boolean allPrepared = true;
 
-        for (String dbName : affectedDbs) {
-            if (!prepare(txId, dbName)) {
-                System.err.println(">>> ERROR: Prepare failed for database: " + dbName);
+        for (Participant participant : voters) {
+            if (!prepare(context, participant)) {
+                LOGGER.error("Prepare failed for database: {}", participant);
                 allPrepared = false;
                 break;
             }
         }
 
         if (allPrepared) {
-            System.out.println(">>> DEBUG: All databases prepared. Proceeding with commit phase.");
-            for (String dbName : affectedDbs) {
+            LOGGER.debug("All databases prepared. Proceeding with commit phase.");
+            if (!voters.isEmpty()) {
+                // Undo records must be durable before any participant makes the work durable.
+                writeAheadLog.logCommitting(txId);
+            }
+            for (Participant participant : voters) {
                 try {
-                    commitResource(txId, dbName);
+                    commitResource(context, participant);
                 } catch (SQLException e) {
-                    System.err.println("CRITICAL: Failed to commit on " + dbName + ". State is inconsistent.");
-                    e.printStackTrace();
-                    tx.setStatus(Transaction.TransactionStatus.ABORTED);
-                    rollbackManager.rollback(tx);
-                    // Clean up BEFORE throwing
-                    scheduler.onTransactionAbort(tx);
-                    activeTransactions.remove(txId);
-                    databaseWrapper.closeConnections(txId);
-                    throw new RuntimeException("Commit failed on " + dbName + ". State is inconsistent.", e);
+                    LOGGER.error("CRITICAL: Failed to commit on {}. Compensating committed participants.", participant, e);
+                    tx.transitionTo(Transaction.TransactionStatus.ABORTED);
+                    try {
+                        // Participants not yet committed are rolled back natively; only the ones
+                        // that already committed need compensating statements.
+                        abortUncommitted(context, voters);
+                        rollbackManager.rollback(context);
+                        writeAheadLog.logEnd(txId, false, true);
+                    } finally {
+                        // Clean up BEFORE throwing
+                        release(context, false);
+                    }
+                    throw new RuntimeException("Commit failed on " + participant.getDatabaseName() + ". State is inconsistent.", e);
+                }
+                if (context.hasDeltaUndo(participant)) {
+                    // Recovery replays delta undo records only for participants logged here.
+                    writeAheadLog.logParticipantCommitted(txId, participant.getDatabaseName());
                 }
             }
-            tx.setStatus(Transaction.TransactionStatus.COMMITTED);
+            writeAheadLog.logEnd(txId, true, true);
+            tx.transitionTo(Transaction.TransactionStatus.COMMITTED);
             operationLog.logCommit(txId);
-            System.out.println(">>> DEBUG: Transaction committed successfully: " + txId);
+            LOGGER.debug("Transaction committed successfully");
         } else {
-            System.out.println(">>> DEBUG: Prepare failed. Aborting transaction: " + txId);
-            for (String dbName : affectedDbs) {
-                try {
-                    abortResource(txId, dbName);
-                } catch (SQLException e) {
-                    System.err.println("WARNING: Failed to abort on " + dbName + ". Ignoring for now.");
-                }
+            LOGGER.debug("Prepare failed. Aborting transaction");
+            tx.transitionTo(Transaction.TransactionStatus.ABORTED);
+            abortUncommitted(context, voters);
+            try {
+                // Nothing was committed, so the native rollback already undid everything
+                // except autonomous work, whose compensation must not be replayed on recovery.
+                rollbackManager.rollback(context);
+                writeAheadLog.logEnd(txId, false, context.hasAutonomousWork());
+            } finally {
+                release(context, false);
             }
-            tx.setStatus(Transaction.TransactionStatus.ABORTED);
-            rollbackManager.rollback(tx);
+            return;
         }
 
-        scheduler.onTransactionCommit(tx);
-        activeTransactions.remove(txId);
-        databaseWrapper.closeConnections(txId);
-        System.out.println(">>> DEBUG: Transaction cleanup completed for: " + txId);
+        release(context, true);
+        LOGGER.debug("Transaction cleanup completed");
     }
 
     /**
      * Rollbacks the transaction (both DB connections and application log) and cleans up resources.
      */
-    public void rollback(String txId) {
-        System.out.println(">>> DEBUG: Rolling back transaction: " + txId);
-        Transaction tx = activeTransactions.get(txId);
-        if (tx == null) {
-            System.out.println(">>> DEBUG: Transaction not found in active transactions: " + txId);
+    public void rollback(TransactionContext context) {
+        MDC.put(MDC_TX_ID, Long.toString(context.getTransactionId()));
+        try {
+            doRollback(context);
+        } finally {
+            MDC.remove(MDC_TX_ID);
+        }
+    }
+
+    private void doRollback(TransactionContext context) {
+        LOGGER.debug("Rolling back transaction");
+        long txId = context.getTransactionId();
+        Transaction tx = context.getTransaction();
+
+        if (!tx.compareAndSetStatus(Transaction.TransactionStatus.ACTIVE, Transaction.TransactionStatus.ABORTED)) {
+            // A commit owns the transaction (PREPARING) or it has already finished; the commit
+            // path releases it either way.
+            LOGGER.debug("Transaction is {}, not rolling back", tx.getStatus());
             return;
         }
 
-        tx.setStatus(Transaction.TransactionStatus.ABORTED);
+        Set<Participant> participants = context.getEnlistedParticipants();
+        LOGGER.debug("Rolling back participants: {}", participants);
 
-        List<String> affectedDbs = operationLog.getAffectedDatabases(txId);
-        System.out.println(">>> DEBUG: Rolling back affected databases: " + affectedDbs);
+        abortUncommitted(context, participants);
 
-        for (String dbName : affectedDbs) {
+        try {
+            rollbackManager.rollback(context);
+            writeAheadLog.logEnd(txId, false, context.hasAutonomousWork());
+        } finally {
+            release(context, false);
+        }
+        LOGGER.debug("Rollback cleanup completed");
+    }
+
+    /**
+     * Releases everything the coordinator holds for a finished transaction: locks,
+     * the in-memory operation log and both participant connections.
+     */
+    private void release(TransactionContext context, boolean committed) {
+        if (committed) {
+            scheduler.onTransactionCommit(context);
+        } else {
+            scheduler.onTransactionAbort(context);
+        }
+        operationLog.clearLog(context.getTransactionId());
+        databaseWrapper.closeConnections(context);
+    }
+
+    /**
+     * Natively rolls back every participant in {@code participants} that has not committed.
+     * A failed rollback needs no compensation either: the participant's physical connection is
+     * aborted, and the database discards the uncommitted work with the session.
+     */
+    private void abortUncommitted(TransactionContext context, Set<Participant> participants) {
+        for (Participant participant : participants) {
+            if (context.isCommitted(participant)) {
+                continue;
+            }
             try {
-                abortResource(txId, dbName);
-                System.out.println(">>> DEBUG: Successfully rolled back database: " + dbName);
+                abortResource(context, participant);
+                context.markRolledBack(participant);
+                LOGGER.debug("Successfully rolled back database: {}", participant);
             } catch (SQLException e) {
-                System.err.println("WARNING: Failed to abort connection for " + dbName + ". Continuing application-level rollback.");
-                e.printStackTrace();
+                LOGGER.warn("Failed to roll back {}; aborting its connection so the work is discarded.", participant, e);
+                databaseWrapper.abandonConnection(context, participant);
             }
         }
-
-        rollbackManager.rollback(tx);
-
-        scheduler.onTransactionAbort(tx);
-        activeTransactions.remove(txId);
-
-        databaseWrapper.closeConnections(txId);
-        System.out.println(">>> DEBUG: Rollback cleanup completed for: " + txId);
     }
 
     /**
      * Phase 1: Prepare (Vote)
      */
-    private boolean prepare(String txId, String dbName) {
-        System.out.println(">>> DEBUG: Preparing database: " + dbName + " for transaction: " + txId);
-        TransactionContext context = databaseWrapper.getContext(txId);
-        if (context == null) {
-            System.err.println(">>> ERROR: No transaction context found for: " + txId);
-            return false;
-        }
-
-        Connection conn = dbName.equals("inventory") ? context.getInventoryConnection() : context.getOrderConnection();
+    private boolean prepare(TransactionContext context, Participant participant) {
+        LOGGER.debug("Preparing database: {}", participant);
+        Connection conn = context.getConnection(participant);
 
         try {
             if (conn == null) {
-                System.err.println(">>> ERROR: Connection is null for database: " + dbName);
+                LOGGER.error("Connection is null for database: {}", participant);
                 return false;
             }
             if (conn.isClosed()) {
-                System.err.println(">>> ERROR: Connection is already closed for database: " + dbName);
+                LOGGER.error("Connection is already closed for database: {}", participant);
                 return false;
             }
-            System.out.println(">>> DEBUG: Database " + dbName + " prepared successfully");
+            LOGGER.debug("Database {} prepared successfully", participant);
             return true;
         } catch (SQLException e) {
-            System.err.println(">>> ERROR: " + dbName + " failed to prepare: " + e.getMessage());
-            e.printStackTrace();
+            LOGGER.error("{} failed to prepare: {}", participant, e.getMessage(), e);
             return false;
         }
     }
@@ -188,21 +304,17 @@ public class DistributedTransaction {
     /**
      * Phase 2: Commit (Final Decision)
      */
-    private void commitResource(String txId, String dbName) throws SQLException {
-        System.out.println(">>> DEBUG: Committing transaction " + txId + " to database: " + dbName);
-        TransactionContext context = databaseWrapper.getContext(txId);
-        if (context == null) {
-            throw new SQLException("No transaction context found for: " + txId);
-        }
-
-        Connection conn = dbName.equals("inventory") ? context.getInventoryConnection() : context.getOrderConnection();
+    private void commitResource(TransactionContext context, Participant participant) throws SQLException {
+        LOGGER.debug("Committing to database: {}", participant);
+        Connection conn = context.getConnection(participant);
 
         if (conn != null && !conn.isClosed()) {
             conn.commit();
-            System.out.println(">>> DEBUG: Commit successful for " + dbName);
+            context.markCommitted(participant);
+            LOGGER.debug("Commit successful for {}", participant);
         } else {
-            String msg = ">>> CRITICAL: Connection for " + dbName + " was closed/null before commit!";
-            System.err.println(msg);
+            String msg = "Connection for " + participant.getDatabaseName() + " was closed/null before commit!";
+            LOGGER.error("CRITICAL: {}", msg);
             throw new SQLException(msg);
         }
     }
@@ -210,45 +322,117 @@ public class DistributedTransaction {
     /**
      * Phase 2: Abort (Final Decision)
      */
-    private void abortResource(String txId, String dbName) throws SQLException {
-        System.out.println(">>> DEBUG: Aborting database: " + dbName + " for transaction: " + txId);
-        TransactionContext context = databaseWrapper.getContext(txId);
-        if (context == null) {
-            System.err.println(">>> WARNING: No transaction context found for abort: " + txId);
-            return;
-        }
-
-        Connection conn = dbName.equals("inventory") ? context.getInventoryConnection() : context.getOrderConnection();
+    private void abortResource(TransactionContext context, Participant participant) throws SQLException {
+        LOGGER.debug("Aborting database: {}", participant);
+        Connection conn = context.getConnection(participant);
 
         if (conn != null && !conn.isClosed()) {
             conn.rollback();
-            System.out.println(">>> DEBUG: Rollback successful for " + dbName);
+            LOGGER.debug("Rollback successful for {}", participant);
         } else {
-            System.err.println(">>> WARNING: Connection for " + dbName + " was already closed during abort");
+            LOGGER.warn("Connection for {} was already closed during abort", participant);
         }
     }
 
-    public <T> List<T> executeSelectForUpdate(String txId, String sql, RowMapper<T> rowMapper, String tableName, Object primaryKey, Object... params) throws DeadlockException {
-        return databaseWrapper.executeSelectForUpdate(txId, getDatabaseForTable(tableName), tableName, sql, rowMapper, primaryKey, params);
+    /**
+     * Locks the transaction's whole read/write set up front, in one step and canonical order,
+     * waiting (without holding anything) until it is free. Must come before the transaction's
+     * first locking statement. Statements on declared rows then never conflict, so the
+     * transaction cannot deadlock on them.
+     *
+     * @throws DeadlockException if the set stayed unavailable for
+     *                           {@code transaction.lock.declared-wait-ms}.
+     */
+    public void declareLocks(TransactionContext tx, LockSet lockSet) throws DeadlockException {
+        databaseWrapper.declareLocks(tx, lockSet, declaredLockWaitMs);
     }
 
-    public int executeUpdate(String txId, String sql, String tableName, String primaryKeyColumnName, Object primaryKey, Map<String, Object> beforeImage, Object... params) throws DeadlockException {
-        return databaseWrapper.executeUpdate(txId, getDatabaseForTable(tableName), tableName, sql, primaryKey, beforeImage, null, params);
+    /**
+     * Runs one statement (or a read followed by the write it feeds) under a savepoint on the
+     * participant owning {@code tableName}. If it throws {@link OptimisticLockException}, the
+     * participant rolls back to the savepoint and {@code statement} runs again with the next
+     * attempt number, so it can re-read and re-apply. The transaction's earlier work and its
+     * locks are kept throughout.
+     *
+     * @param statement receives the attempt number, starting at 0.
+     * @throws OptimisticLockException if the last of {@code maxAttempts} attempts conflicted too.
+     */
+    public <T> T retryStatement(TransactionContext tx, String tableName, int maxAttempts, IntFunction<T> statement) {
+        String database = getDatabaseForTable(tableName);
+        for (int attempt = 0; ; attempt++) {
+            StatementSavepoint savepoint = databaseWrapper.setSavepoint(tx, database);
+            try {
+                T result = statement.apply(attempt);
+                databaseWrapper.releaseSavepoint(tx, savepoint);
+                return result;
+            } catch (OptimisticLockException e) {
+                databaseWrapper.rollbackToSavepoint(tx, savepoint);
+                if (attempt + 1 >= maxAttempts) {
+                    throw e;
+                }
+                LOGGER.debug("Statement on {} conflicted ({}); re-applying, attempt {}", tableName, e.getMessage(), attempt + 2);
+            }
+        }
+    }
+
+    public <T> List<T> executeSelectForUpdate(TransactionContext tx, String sql, RowMapper<T> rowMapper, String tableName, Object primaryKey, Object... params) throws DeadlockException {
+        return databaseWrapper.executeSelectForUpdate(tx, getDatabaseForTable(tableName), tableName, sql, rowMapper, primaryKey, params);
+    }
+
+    /**
+     * Unlocked SELECT for catalog columns whose callers tolerate reading unisolated data; see
+     * {@link DatabaseWrapper#executeUnlockedSelect}.
+     */
+    public <T> List<T> executeUnlockedSelect(TransactionContext tx, String sql, RowMapper<T> rowMapper, String tableName, Object... params) throws DeadlockException {
+        return databaseWrapper.executeUnlockedSelect(tx, getDatabaseForTable(tableName), sql, rowMapper, params);
+    }
+
+    /**
+     * Locking SELECT of the rows of {@code tableName} whose {@code keyColumn} equals {@code keyValue};
+     * only that predicate is locked. The column must be registered with {@link #registerSecondaryKey}.
+     */
+    public <T> List<T> executeSelectForUpdateByKey(TransactionContext tx, String sql, RowMapper<T> rowMapper, String tableName, String keyColumn, Object keyValue, Object... params) throws DeadlockException {
+        return databaseWrapper.executeSelectForUpdateByKey(tx, getDatabaseForTable(tableName), tableName, sql, rowMapper, keyColumn, keyValue, params);
+    }
+
+    /**
+     * Registers a column rows of {@code tableName} are looked up by, so writes to the table lock
+     * the matching predicate. Repositories call this once, before their first transaction.
+     */
+    public void registerSecondaryKey(String tableName, String column) {
+        databaseWrapper.registerSecondaryKey(tableName, column);
+    }
+
+    public int executeUpdate(TransactionContext tx, String sql, String tableName, String primaryKeyColumnName, Object primaryKey, Map<String, Object> beforeImage, Object... params) throws DeadlockException {
+        return databaseWrapper.executeUpdate(tx, getDatabaseForTable(tableName), tableName, sql, primaryKey, beforeImage, null, params);
+    }
+
+    /**
+     * Adds {@code delta} to {@code column} of one row under an escrow lock; see
+     * {@link DatabaseWrapper#executeIncrement}. Returns false, leaving the row untouched, if the
+     * decrement could take the column below {@code floor}.
+     */
+    public boolean executeIncrement(TransactionContext tx, String tableName, String column, Object primaryKey, long delta, long floor) throws DeadlockException {
+        return databaseWrapper.executeIncrement(tx, getDatabaseForTable(tableName), tableName, column, primaryKey, delta, floor);
+    }
+
+    /**
+     * Takes {@code amount} from {@code column} of one row, combined with concurrent decrements of
+     * that row into one statement; see {@link DatabaseWrapper#executeCombinedDecrement}.
+     */
+    public boolean executeCombinedDecrement(TransactionContext tx, String tableName, String column, Object primaryKey, long amount, long floor) throws DeadlockException {
+        return databaseWrapper.executeCombinedDecrement(tx, getDatabaseForTable(tableName), tableName, column, primaryKey, amount, floor);
     }
 
-    public Integer executeInsert(String txId, String sql, String tableName, Map<String, Object> data, Object... params) throws DeadlockException {
-        return databaseWrapper.executeInsert(txId, getDatabaseForTable(tableName), tableName, sql, data, params);
+    public Integer executeInsert(TransactionContext tx, String sql, String tableName, Map<String, Object> data, Object... params) throws DeadlockException {
+        return databaseWrapper.executeInsert(tx, getDatabaseForTable(tableName), tableName, sql, data, params);
     }
 
-    public Integer executeInsertAndGetId(String txId, String sql, String tableName, String primaryKeyName, Map<String, Object> data, Object... params) throws DeadlockException {
-        return databaseWrapper.executeInsert(txId, getDatabaseForTable(tableName), tableName, sql, data, params);
+    public Integer executeInsertAndGetId(TransactionContext tx, String sql, String tableName, String primaryKeyName, Map<String, Object> data, Object... params) throws DeadlockException {
+        return databaseWrapper.executeInsert(tx, getDatabaseForTable(tableName), tableName, sql, data, params);
     }
 
     private String getDatabaseForTable(String tableName) {
-        return switch (tableName.toLowerCase()) {
-            case "products", "suppliers", "inventory_transactions", "transaction_log_inventory" -> "inventory";
-            case "customers", "orders", "payments", "transaction_log_order" -> "order";
-            default -> throw new IllegalArgumentException("Unknown table name: " + tableName);
-        };
+        return schemaRegistry.participantOf(tableName).getDatabaseName();
     }
-}
\ No newline at end of file
+}
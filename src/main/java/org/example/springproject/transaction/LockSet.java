@@ -0,0 +1,64 @@
+package org.example.springproject.transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Read and write set a transaction declares up front for conservative locking; see
+ * {@code DistributedTransaction.declareLocks}. Rows are named by table and primary key, or by a
+ * registered secondary key when the primary key is not known yet.
+ */
+public final class LockSet {
+
+    /**
+     * How a declared resource will be used. {@code DELTA} is for escrowed increments only: it
+     * takes an ESCROW lock, which other deltas of the row share.
+     */
+    public enum Access {
+        READ, WRITE, DELTA
+    }
+
+    /**
+     * One declared resource. {@code column} is null for a primary-key row.
+     */
+    public record Entry(String tableName, String column, Object value, Access access) {
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    public static LockSet create() {
+        return new LockSet();
+    }
+
+    public LockSet read(String tableName, Object primaryKey) {
+        entries.add(new Entry(tableName, null, primaryKey, Access.READ));
+        return this;
+    }
+
+    public LockSet write(String tableName, Object primaryKey) {
+        entries.add(new Entry(tableName, null, primaryKey, Access.WRITE));
+        return this;
+    }
+
+    /**
+     * Declares the row for {@code executeIncrement} / {@code executeCombinedDecrement} only.
+     */
+    public LockSet delta(String tableName, Object primaryKey) {
+        entries.add(new Entry(tableName, null, primaryKey, Access.DELTA));
+        return this;
+    }
+
+    /**
+     * Declares the rows whose {@code column} equals {@code value} for writing, as looked up by
+     * {@code executeSelectForUpdateByKey}.
+     */
+    public LockSet writeByKey(String tableName, String column, Object value) {
+        entries.add(new Entry(tableName, column, value, Access.WRITE));
+        return this;
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+}
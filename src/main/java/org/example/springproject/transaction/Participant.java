@@ -0,0 +1,32 @@
+package org.example.springproject.transaction;
+
+import static org.example.springproject.util.AppConstants.DB_INVENTORY;
+import static org.example.springproject.util.AppConstants.DB_ORDER;
+
+/**
+ * The resource managers (databases) that can be enlisted in a distributed transaction.
+ */
+public enum Participant {
+    INVENTORY(DB_INVENTORY),
+    ORDER(DB_ORDER);
+
+    private final String databaseName;
+
+    Participant(String databaseName) {
+        this.databaseName = databaseName;
+    }
+
+    public String getDatabaseName() {
+        return databaseName;
+    }
+
+    public static Participant fromDatabase(String databaseName) {
+        if (DB_INVENTORY.equals(databaseName)) {
+            return INVENTORY;
+        }
+        if (DB_ORDER.equals(databaseName)) {
+            return ORDER;
+        }
+        throw new IllegalArgumentException("Unknown database: " + databaseName);
+    }
+}
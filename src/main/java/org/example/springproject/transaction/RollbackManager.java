@@ -1,14 +1,28 @@
 package org.example.springproject.transaction;
 
 import org.example.springproject.models.Transaction;
+import org.example.springproject.transaction.schema.ColumnImage;
+import org.example.springproject.transaction.schema.SchemaRegistry;
+import org.example.springproject.transaction.schema.TableSchema;
 import org.example.springproject.util.OperationLog;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Component;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 /**
  * Manages rollback of transactions using a log-based approach (Undo/Compensation).
@@ -17,167 +31,366 @@ import java.util.Map;
 @Component
 public class RollbackManager {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(RollbackManager.class);
+
     @Autowired
     private VersionManager versionManager;
     @Autowired
     private final OperationLog operationLog;
     private final Map<String, JdbcTemplate> jdbcTemplates;
 
+    private final SchemaRegistry schemaRegistry;
+    private final Executor compensationExecutor;
+
     @Autowired
     public RollbackManager(VersionManager versionManager, OperationLog operationLog,
-                           @Qualifier("jdbcTemplates") Map<String, JdbcTemplate> templates) {
+                           @Qualifier("jdbcTemplates") Map<String, JdbcTemplate> templates,
+                           SchemaRegistry schemaRegistry,
+                           @Qualifier("compensationExecutor") Executor compensationExecutor) {
         this.versionManager = versionManager;
         this.operationLog = operationLog;
         this.jdbcTemplates = templates;
+        this.schemaRegistry = schemaRegistry;
+        this.compensationExecutor = compensationExecutor;
     }
 
     /**
-     * Rollback a transaction by undoing all its executed operations in reverse order.
+     * Finishes an aborted transaction at the application level. Only operations on the
+     * context's committed participants are compensated: work on any other participant was never
+     * committed and has already been discarded by the database's native rollback (replaying it
+     * through autocommit connections would also block on the row locks the transaction's own
+     * connections still hold). Autonomous operations committed on their own and are always
+     * compensated.
      */
-    public void rollback(Transaction transaction) {
-        String transactionId = transaction.getTransactionId();
-        System.out.println("Initiating application-level rollback for transaction: " + transactionId);
+    public void rollback(TransactionContext context) {
+        long transactionId = context.getTransactionId();
+        Set<Participant> committedParticipants = context.getCommittedParticipants();
+        LOGGER.debug("Initiating application-level rollback for transaction: {} (compensating {})",
+                transactionId, committedParticipants);
 
         try {
-            List<TransactionOperation> operations = operationLog.getOperationsInReverseOrder(transactionId);
-
-            for (TransactionOperation operation : operations) {
-                if (operation.isExecuted() && !operation.isRolledBack()) {
-                    undoOperation(operation);
+            if (!committedParticipants.isEmpty() || context.hasAutonomousWork()) {
+                List<CompensationResult> results =
+                        compensate(operationLog.getOperationsInReverseOrder(context.getOperationLog()), committedParticipants);
+                for (CompensationResult result : results) {
+                    if (!result.isSuccessful()) {
+                        throw result.getFailure();
+                    }
                 }
+                LOGGER.debug("Compensation results: {}", results);
             }
             if (versionManager != null) {
-                versionManager.invalidateVersions(transactionId);
+                versionManager.invalidateVersions(context);
             }
 
             operationLog.logAbort(transactionId, "Transaction rolled back due to failure or deadlock.");
-            transaction.setStatus(Transaction.TransactionStatus.ROLLED_BACK);
+            context.getTransaction().transitionTo(Transaction.TransactionStatus.ROLLED_BACK);
 
         } catch (Exception e) {
-            System.err.println("CRITICAL: Failed to complete application-level rollback for transaction: " + transactionId);
-            e.printStackTrace();
+            LOGGER.error("CRITICAL: Failed to complete application-level rollback for transaction: {}", transactionId, e);
             throw new RuntimeException("Failed to rollback transaction: " + transactionId, e);
         }
     }
 
     /**
-     * Undo a single operation based on its type (Compensation mechanism).
+     * Applies compensating statements for the given operations, which must already be in
+     * reverse execution order. Also used by WAL recovery, where the operations are rebuilt
+     * from undo records rather than taken from the in-memory log.
+     *
+     * @return one result per participant that had something to compensate.
      */
-    private void undoOperation(TransactionOperation operation) {
-        if (operation.getType() == TransactionOperation.OperationType.SELECT
-                || operation.getType() == TransactionOperation.OperationType.SELECT_FOR_UPDATE) {
-            operation.setRolledBack(true);
-            return;
+    public List<CompensationResult> compensate(List<TransactionOperation> operationsInReverseOrder) {
+        return compensate(operationsInReverseOrder, EnumSet.allOf(Participant.class));
+    }
+
+    /**
+     * Groups the operations per participant (keeping reverse order within each) and compensates
+     * the participants concurrently: all but one on the compensation executor, the last on the
+     * calling thread.
+     */
+    private List<CompensationResult> compensate(List<TransactionOperation> operationsInReverseOrder,
+                                                Set<Participant> participants) {
+        Map<Participant, List<TransactionOperation>> byParticipant = new EnumMap<>(Participant.class);
+        for (TransactionOperation operation : operationsInReverseOrder) {
+            if (!operation.isExecuted() || operation.isRolledBack()) {
+                continue;
+            }
+            Participant participant = Participant.fromDatabase(operation.getDatabase());
+            if (!participants.contains(participant) && !operation.isAutonomous()) {
+                continue;
+            }
+            if (!operation.modifiesData()) {
+                operation.setRolledBack(true);
+                continue;
+            }
+            byParticipant.computeIfAbsent(participant, k -> new ArrayList<>()).add(operation);
+        }
+        if (byParticipant.isEmpty()) {
+            return Collections.emptyList();
         }
 
-        JdbcTemplate jdbcTemplate = jdbcTemplates.get(operation.getDatabase());
+        List<Map.Entry<Participant, List<TransactionOperation>>> work = new ArrayList<>(byParticipant.entrySet());
+        List<CompletableFuture<CompensationResult>> futures = new ArrayList<>(work.size() - 1);
+        for (Map.Entry<Participant, List<TransactionOperation>> entry : work.subList(0, work.size() - 1)) {
+            futures.add(CompletableFuture.supplyAsync(
+                    () -> compensateParticipant(entry.getKey(), entry.getValue()), compensationExecutor));
+        }
+        Map.Entry<Participant, List<TransactionOperation>> last = work.get(work.size() - 1);
+        CompensationResult lastResult = compensateParticipant(last.getKey(), last.getValue());
+
+        List<CompensationResult> results = new ArrayList<>(work.size());
+        for (CompletableFuture<CompensationResult> future : futures) {
+            results.add(future.join());
+        }
+        results.add(lastResult);
+        return results;
+    }
 
+    private CompensationResult compensateParticipant(Participant participant, List<TransactionOperation> operations) {
+        JdbcTemplate jdbcTemplate = jdbcTemplates.get(participant.getDatabaseName());
         if (jdbcTemplate == null) {
-            System.err.println("Available JDBC Templates: " + jdbcTemplates.keySet());
-            throw new RuntimeException("No JdbcTemplate found for database: " + operation.getDatabase());
+            LOGGER.error("No JdbcTemplate for {}. Available JDBC Templates: {}", participant, jdbcTemplates.keySet());
+            return new CompensationResult(participant, 0, operations.size(), 0,
+                    new RuntimeException("No JdbcTemplate found for database: " + participant.getDatabaseName()));
         }
 
+        List<UndoBatch> batches;
         try {
-            switch (operation.getType()) {
-                case INSERT:
-                    undoInsert(jdbcTemplate, operation);
-                    break;
-                case UPDATE:
-                    undoUpdate(jdbcTemplate, operation);
-                    break;
-                case DELETE:
-                    undoDelete(jdbcTemplate, operation);
+            batches = planBatches(operations);
+        } catch (RuntimeException e) {
+            return new CompensationResult(participant, 0, operations.size(), 0, e);
+        }
+        int compensated = 0;
+        int roundTrips = 0;
+        for (UndoBatch batch : batches) {
+            try {
+                jdbcTemplate.batchUpdate(batch.sql, batch.arguments);
+                roundTrips++;
+            } catch (RuntimeException e) {
+                LOGGER.error("Compensation failed on {} after {} operations: {}", participant, compensated, batch.sql, e);
+                return new CompensationResult(participant, compensated, operations.size() - compensated, roundTrips,
+                        new RuntimeException("Failed to undo operations on " + participant.getDatabaseName(), e));
+            }
+            for (TransactionOperation operation : batch.operations) {
+                operation.setRolledBack(true);
+            }
+            compensated += batch.operations.size();
+            LOGGER.debug("UNDO x{}: {}", batch.operations.size(), batch.sql);
+        }
+        // Operations without enough information to undo are skipped (and logged) by the planner.
+        for (TransactionOperation operation : operations) {
+            if (!operation.isRolledBack()) {
+                operation.setRolledBack(true);
+                compensated++;
+            }
+        }
+        return new CompensationResult(participant, compensated, 0, roundTrips, null);
+    }
+
+    /**
+     * Turns one participant's operations (in reverse order) into JDBC batches of identical
+     * statements. An undo statement may join an earlier batch only if every statement it
+     * overtakes touches a different row and at least one of each overtaken pair is an UPDATE
+     * undo, so row-level and foreign-key ordering of re-inserts and deletes is preserved.
+     */
+    List<UndoBatch> planBatches(List<TransactionOperation> operationsInReverseOrder) {
+        List<UndoBatch> batches = new ArrayList<>();
+        for (TransactionOperation operation : operationsInReverseOrder) {
+            UndoStatement statement = undoStatement(operation);
+            if (statement == null) {
+                continue;
+            }
+            UndoBatch target = null;
+            for (int i = batches.size() - 1; i >= 0; i--) {
+                UndoBatch candidate = batches.get(i);
+                if (candidate.sql.equals(statement.sql)) {
+                    target = candidate;
                     break;
-                default:
+                }
+                if (!candidate.canBeOvertakenBy(operation)) {
                     break;
+                }
             }
-
-            operation.setRolledBack(true);
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to undo operation: " + operation.getOperationId(), e);
+            if (target == null) {
+                target = new UndoBatch(statement.sql);
+                batches.add(target);
+            }
+            target.add(operation, statement.arguments);
         }
+        return batches;
+    }
+
+    /**
+     * Builds the compensating statement for a single operation (Compensation mechanism), or
+     * null if the operation cannot be undone from what was captured.
+     */
+    private UndoStatement undoStatement(TransactionOperation operation) {
+        return switch (operation.getType()) {
+            case INSERT -> undoInsert(operation);
+            case UPDATE -> undoUpdate(operation);
+            case DELETE -> undoDelete(operation);
+            case INCREMENT -> undoIncrement(operation);
+            default -> null;
+        };
     }
 
-    private void undoInsert(JdbcTemplate jdbcTemplate, TransactionOperation operation) {
+    private UndoStatement undoInsert(TransactionOperation operation) {
         Object primaryKey = operation.getPrimaryKeyValue();
         if (primaryKey == null) {
             throw new RuntimeException("Cannot undo INSERT without captured primary key value: " + operation.getSql());
         }
-        String pkName = getPrimaryKeyColumnName(operation.getTableName());
-        String sql = String.format("DELETE FROM %s WHERE %s = ?", operation.getTableName(), pkName);
-        jdbcTemplate.update(sql, primaryKey);
-        System.out.println("UNDO (DELETE): " + sql + " WHERE " + pkName + " = " + primaryKey);
+        return new UndoStatement(tableOf(operation).deleteByPrimaryKeySql(), new Object[]{primaryKey});
     }
 
-    private void undoUpdate(JdbcTemplate jdbcTemplate, TransactionOperation operation) {
+    private UndoStatement undoUpdate(TransactionOperation operation) {
         Map<String, Object> beforeImage = operation.getBeforeImage();
         Object primaryKey = operation.getPrimaryKeyValue();
 
         if (beforeImage == null || beforeImage.isEmpty() || primaryKey == null) {
-            System.err.println("WARNING: Cannot undo UPDATE without full before-image or primary key. Operation: " + operation.getSql());
-            return;
+            LOGGER.warn("Cannot undo UPDATE without full before-image or primary key. Operation: {}", operation.getSql());
+            return null;
         }
 
-        StringBuilder sql = new StringBuilder("UPDATE ").append(operation.getTableName()).append(" SET ");
+        TableSchema table = tableOf(operation);
+        long mask = columnMask(table, beforeImage) & ~(1L << table.getPrimaryKeyIndex());
+        if (mask == 0) {
+            return null;
+        }
+        // Only the columns present in the image are restored; for a column-delta image
+        // these are exactly the columns the statement assigned.
+        Object[] values = new Object[Long.bitCount(mask) + 1];
+        bindColumns(table, beforeImage, mask, values);
+        values[values.length - 1] = primaryKey;
+        return new UndoStatement(table.updateSql(mask), values);
+    }
 
-        List<Object> values = new java.util.ArrayList<>();
-        boolean first = true;
-        String pkName = getPrimaryKeyColumnName(operation.getTableName());
+    /**
+     * Subtracts the deltas again rather than restoring a before-image, since other transactions'
+     * deltas on the same row may have committed in between.
+     */
+    private UndoStatement undoIncrement(TransactionOperation operation) {
+        Map<String, Object> deltas = operation.getAfterImage();
+        Object primaryKey = operation.getPrimaryKeyValue();
 
-        for (Map.Entry<String, Object> entry : beforeImage.entrySet()) {
-            if (!entry.getKey().equalsIgnoreCase(pkName)) {
-                if (!first) sql.append(", ");
-                sql.append(entry.getKey()).append(" = ?");
-                values.add(entry.getValue());
-                first = false;
-            }
+        if (deltas == null || deltas.isEmpty() || primaryKey == null) {
+            LOGGER.warn("Cannot undo INCREMENT without deltas or primary key. Operation: {}", operation.getSql());
+            return null;
         }
 
-        sql.append(" WHERE ").append(pkName).append(" = ?");
-        values.add(primaryKey);
+        TableSchema table = tableOf(operation);
+        long mask = columnMask(table, deltas);
+        Object[] values = new Object[Long.bitCount(mask) + 1];
+        bindColumns(table, deltas, mask, values);
+        for (int i = 0; i < values.length - 1; i++) {
+            values[i] = negate(values[i]);
+        }
+        values[values.length - 1] = primaryKey;
+        return new UndoStatement(table.incrementSql(mask), values);
+    }
 
-        jdbcTemplate.update(sql.toString(), values.toArray());
-        System.out.println("UNDO (UPDATE): " + sql + " with values: " + values);
+    private static Object negate(Object delta) {
+        if (delta instanceof Integer i) {
+            return -i;
+        }
+        if (delta instanceof Long l) {
+            return -l;
+        }
+        if (delta instanceof BigDecimal d) {
+            return d.negate();
+        }
+        if (delta instanceof Double d) {
+            return -d;
+        }
+        throw new IllegalArgumentException("Unsupported delta type: " + delta.getClass().getName());
     }
 
-    private void undoDelete(JdbcTemplate jdbcTemplate, TransactionOperation operation) {
+    private UndoStatement undoDelete(TransactionOperation operation) {
         Map<String, Object> beforeImage = operation.getBeforeImage();
 
         if (beforeImage == null || beforeImage.isEmpty()) {
-            System.err.println("WARNING: Cannot undo DELETE without before-image. Operation: " + operation.getSql());
-            return;
+            LOGGER.warn("Cannot undo DELETE without before-image. Operation: {}", operation.getSql());
+            return null;
         }
 
-        StringBuilder sql = new StringBuilder("INSERT INTO ").append(operation.getTableName()).append(" (");
-        StringBuilder values = new StringBuilder("VALUES (");
+        TableSchema table = tableOf(operation);
+        long mask = columnMask(table, beforeImage);
+        Object[] params = new Object[Long.bitCount(mask)];
+        bindColumns(table, beforeImage, mask, params);
+        return new UndoStatement(table.insertSql(mask), params);
+    }
 
-        List<Object> params = new java.util.ArrayList<>();
-        boolean first = true;
-        for (Map.Entry<String, Object> entry : beforeImage.entrySet()) {
-            if (!first) {
-                sql.append(", ");
-                values.append(", ");
+    private TableSchema tableOf(TransactionOperation operation) {
+        return schemaRegistry.table(Participant.fromDatabase(operation.getDatabase()), operation.getTableName());
+    }
+
+    private static long columnMask(TableSchema table, Map<String, Object> image) {
+        if (image instanceof ColumnImage columns && columns.getTable() == table) {
+            return columns.getMask();
+        }
+        long mask = 0;
+        for (String column : image.keySet()) {
+            int index = table.indexOf(column);
+            if (index < 0) {
+                throw new IllegalArgumentException("Unknown column " + column + " in " + table.getName());
             }
-            sql.append(entry.getKey());
-            values.append("?");
-            params.add(entry.getValue());
-            first = false;
+            mask |= 1L << index;
         }
+        return mask;
+    }
 
-        sql.append(") ").append(values).append(")");
+    /**
+     * Places each image value at its column's position among the mask's columns (ordinal order),
+     * matching the placeholders of the cached statement.
+     */
+    private static void bindColumns(TableSchema table, Map<String, Object> image, long mask, Object[] target) {
+        if (image instanceof ColumnImage columns && columns.getTable() == table) {
+            // Values are stored in ordinal order: copy the ones selected by mask, in order.
+            int rank = 0;
+            int out = 0;
+            for (long bits = columns.getMask(); bits != 0; bits &= bits - 1, rank++) {
+                if ((mask & Long.lowestOneBit(bits)) != 0) {
+                    target[out++] = columns.valueAt(rank);
+                }
+            }
+            return;
+        }
+        for (Map.Entry<String, Object> entry : image.entrySet()) {
+            int index = table.indexOf(entry.getKey());
+            if ((mask & (1L << index)) != 0) {
+                target[Long.bitCount(mask & ((1L << index) - 1))] = entry.getValue();
+            }
+        }
+    }
 
-        jdbcTemplate.update(sql.toString(), params.toArray());
-        System.out.println("UNDO (INSERT): " + sql);
+    private record UndoStatement(String sql, Object[] arguments) {
     }
 
-    private String getPrimaryKeyColumnName(String tableName) {
-        return switch (tableName.toLowerCase()) {
-            case "products" -> "product_id";
-            case "inventory_transactions" -> "transaction_id";
-            case "orders" -> "order_id";
-            case "payments" -> "payment_id";
-            case "customers" -> "customer_id";
-            default -> "id";
-        };
+    static final class UndoBatch {
+        final String sql;
+        final List<Object[]> arguments = new ArrayList<>();
+        final List<TransactionOperation> operations = new ArrayList<>();
+
+        private UndoBatch(String sql) {
+            this.sql = sql;
+        }
+
+        private void add(TransactionOperation operation, Object[] args) {
+            operations.add(operation);
+            arguments.add(args);
+        }
+
+        private boolean canBeOvertakenBy(TransactionOperation operation) {
+            for (TransactionOperation queued : operations) {
+                if (queued.getTableName().equals(operation.getTableName())
+                        && Objects.equals(queued.getPrimaryKeyValue(), operation.getPrimaryKeyValue())) {
+                    return false;
+                }
+                if (queued.getType() != TransactionOperation.OperationType.UPDATE
+                        && operation.getType() != TransactionOperation.OperationType.UPDATE) {
+                    return false;
+                }
+            }
+            return true;
+        }
     }
-}
\ No newline at end of file
+}
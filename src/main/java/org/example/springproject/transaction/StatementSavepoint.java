@@ -0,0 +1,31 @@
+package org.example.springproject.transaction;
+
+import java.sql.Savepoint;
+
+/**
+ * A savepoint on one participant connection, together with the position in the transaction's
+ * operation log it corresponds to. Created and consumed by {@code DatabaseWrapper}.
+ */
+public final class StatementSavepoint {
+    private final Participant participant;
+    private final Savepoint savepoint;
+    private final int logMark;
+
+    public StatementSavepoint(Participant participant, Savepoint savepoint, int logMark) {
+        this.participant = participant;
+        this.savepoint = savepoint;
+        this.logMark = logMark;
+    }
+
+    public Participant getParticipant() {
+        return participant;
+    }
+
+    public Savepoint getSavepoint() {
+        return savepoint;
+    }
+
+    public int getLogMark() {
+        return logMark;
+    }
+}
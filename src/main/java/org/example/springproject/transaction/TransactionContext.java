@@ -1,21 +1,74 @@
 package org.example.springproject.transaction;
 
 import org.example.springproject.models.Transaction;
+import org.example.springproject.transaction.scheduler.TwoPhaseLockingScheduler.LockPhase;
+import org.example.springproject.util.LongLongHashMap;
+import org.example.springproject.util.OperationLog;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
+/**
+ * Handle for one distributed transaction. It is created by {@code DistributedTransaction.beginTransaction},
+ * passed through the service and repositories, and carries all per-transaction state: connections,
+ * operation log buffer, held locks, lock phase and tracked versions. Per-statement work therefore
+ * needs no lookup by transaction id. The numeric id is only used for logging, the WAL and the
+ * deadlock graph.
+ */
 public class TransactionContext {
-    private final String transactionId;
+    private final long transactionId;
     private final Transaction transaction;
+    private final OperationLog.OperationBuffer operationLog;
     private Connection inventoryConnection;
     private Connection orderConnection;
 
-    public TransactionContext(Transaction transaction) {
+    /**
+     * Locks this transaction holds in the scheduler's lock table: encoded resource key to
+     * lock mode ordinal. Guarded by the scheduler's lock-table monitor.
+     */
+    private final LongLongHashMap heldLocks = new LongLongHashMap();
+    /**
+     * Row-level locks (rows and secondary keys) acquired per table key, which drives lock
+     * escalation; negative once the table was de-escalated. Guarded like {@link #heldLocks}.
+     */
+    private final LongLongHashMap rowLockCounts = new LongLongHashMap();
+    /** Rows whose escrow account this transaction joined; created on first use. Guarded like {@link #heldLocks}. */
+    private LongLongHashMap escrowKeys;
+    /** INCREMENT operations applied just before the commit votes; created on first use. */
+    private List<TransactionOperation> deferredIncrements;
+    /** Set once an autonomous (already committed) operation was logged; see {@link TransactionOperation#isAutonomous()}. */
+    private volatile boolean autonomousWork;
+    private volatile LockPhase lockPhase = LockPhase.GROWING;
+
+    private final Set<String> versions = new LinkedHashSet<>();
+
+    /**
+     * Participants are enlisted incrementally as operations complete, so the coordinator
+     * knows its voters (and which of them are read-only) without scanning the operation log.
+     */
+    private final EnumSet<Participant> enlistedParticipants = EnumSet.noneOf(Participant.class);
+    private final EnumSet<Participant> writeParticipants = EnumSet.noneOf(Participant.class);
+
+    /**
+     * Outcome of phase 2 per participant. Only work on a committed participant needs
+     * compensation; anything else is discarded by the database's own rollback.
+     */
+    private final EnumSet<Participant> committedParticipants = EnumSet.noneOf(Participant.class);
+    private final EnumSet<Participant> rolledBackParticipants = EnumSet.noneOf(Participant.class);
+    /** Participants with delta (INCREMENT) undo records in the WAL; their phase-2 commit is logged. */
+    private final EnumSet<Participant> deltaParticipants = EnumSet.noneOf(Participant.class);
+
+    public TransactionContext(Transaction transaction, OperationLog.OperationBuffer operationLog) {
         this.transactionId = transaction.getTransactionId();
         this.transaction = transaction;
+        this.operationLog = operationLog;
     }
 
-    public String getTransactionId() {
+    public long getTransactionId() {
         return transactionId;
     }
 
@@ -23,6 +76,73 @@ public class TransactionContext {
         return transaction;
     }
 
+    public OperationLog.OperationBuffer getOperationLog() {
+        return operationLog;
+    }
+
+    public LongLongHashMap getHeldLocks() {
+        return heldLocks;
+    }
+
+    public LongLongHashMap getRowLockCounts() {
+        return rowLockCounts;
+    }
+
+    /**
+     * Escrow keys joined so far, or null if none; {@code create} allocates the map on first use.
+     */
+    public LongLongHashMap getEscrowKeys(boolean create) {
+        if (escrowKeys == null && create) {
+            escrowKeys = new LongLongHashMap();
+        }
+        return escrowKeys;
+    }
+
+    public synchronized void deferIncrement(TransactionOperation operation) {
+        if (deferredIncrements == null) {
+            deferredIncrements = new ArrayList<>();
+        }
+        deferredIncrements.add(operation);
+    }
+
+    /**
+     * @return the deferred INCREMENT operations in registration order, which are cleared.
+     */
+    public synchronized List<TransactionOperation> drainDeferredIncrements() {
+        List<TransactionOperation> drained = deferredIncrements == null ? List.of() : deferredIncrements;
+        deferredIncrements = null;
+        return drained;
+    }
+
+    public void markAutonomousWork() {
+        autonomousWork = true;
+    }
+
+    public boolean hasAutonomousWork() {
+        return autonomousWork;
+    }
+
+    public LockPhase getLockPhase() {
+        return lockPhase;
+    }
+
+    public void setLockPhase(LockPhase lockPhase) {
+        this.lockPhase = lockPhase;
+    }
+
+    public synchronized void trackVersion(String resourceKey) {
+        versions.add(resourceKey);
+    }
+
+    /**
+     * @return the tracked versions, which are cleared.
+     */
+    public synchronized Set<String> drainVersions() {
+        Set<String> drained = new LinkedHashSet<>(versions);
+        versions.clear();
+        return drained;
+    }
+
     public Connection getInventoryConnection() {
         return inventoryConnection;
     }
@@ -31,6 +151,10 @@ public class TransactionContext {
         return orderConnection;
     }
 
+    public Connection getConnection(Participant participant) {
+        return participant == Participant.INVENTORY ? inventoryConnection : orderConnection;
+    }
+
     public void setInventoryConnection(Connection inventoryConnection) {
         this.inventoryConnection = inventoryConnection;
     }
@@ -38,4 +162,59 @@ public class TransactionContext {
     public void setOrderConnection(Connection orderConnection) {
         this.orderConnection = orderConnection;
     }
-}
\ No newline at end of file
+
+    /**
+     * Records that a completed operation touched its participant.
+     */
+    public synchronized void enlist(TransactionOperation operation) {
+        Participant participant = Participant.fromDatabase(operation.getDatabase());
+        enlistedParticipants.add(participant);
+        if (operation.modifiesData()) {
+            writeParticipants.add(participant);
+        }
+    }
+
+    public synchronized Set<Participant> getEnlistedParticipants() {
+        return EnumSet.copyOf(enlistedParticipants);
+    }
+
+    public synchronized Set<Participant> getWriteParticipants() {
+        return EnumSet.copyOf(writeParticipants);
+    }
+
+    public synchronized boolean isReadOnly(Participant participant) {
+        return !writeParticipants.contains(participant);
+    }
+
+    public synchronized boolean isReadOnly() {
+        return writeParticipants.isEmpty();
+    }
+
+    public synchronized void markCommitted(Participant participant) {
+        committedParticipants.add(participant);
+    }
+
+    public synchronized void markRolledBack(Participant participant) {
+        rolledBackParticipants.add(participant);
+    }
+
+    public synchronized boolean isCommitted(Participant participant) {
+        return committedParticipants.contains(participant);
+    }
+
+    public synchronized Set<Participant> getCommittedParticipants() {
+        return EnumSet.copyOf(committedParticipants);
+    }
+
+    public synchronized Set<Participant> getRolledBackParticipants() {
+        return EnumSet.copyOf(rolledBackParticipants);
+    }
+
+    public synchronized void markDeltaUndo(Participant participant) {
+        deltaParticipants.add(participant);
+    }
+
+    public synchronized boolean hasDeltaUndo(Participant participant) {
+        return deltaParticipants.contains(participant);
+    }
+}
@@ -1,7 +1,7 @@
 package org.example.springproject.transaction;
 
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a single SQL operation within a distributed transaction.
@@ -9,12 +9,19 @@ import java.util.UUID;
  */
 public class TransactionOperation {
 
+    /**
+     * Kinds of statement. New kinds are appended, since WAL records store the ordinal.
+     * {@code INCREMENT} adds a delta to numeric columns; its after-image holds the deltas.
+     */
     public enum OperationType {
-        INSERT, UPDATE, DELETE, SELECT, SELECT_FOR_UPDATE
+        INSERT, UPDATE, DELETE, SELECT, SELECT_FOR_UPDATE, INCREMENT
     }
 
-    private final String operationId;
-    private final String transactionId;
+    /** Operation ids only need to be unique within this process; they are never persisted. */
+    private static final AtomicLong OPERATION_SEQUENCE = new AtomicLong();
+
+    private final long operationId;
+    private final long transactionId;
     private final OperationType type;
     private final String database;
     private final String tableName;
@@ -24,13 +31,18 @@ public class TransactionOperation {
     private final String sql;
     private final Object[] params;
 
+    private static final long[] NO_KEYS = new long[0];
+
+    private long lockKey;
+    private long[] secondaryLockKeys = NO_KEYS;
     private boolean isExecuted = false;
     private boolean isRolledBack = false;
+    private boolean autonomous = false;
 
-    public TransactionOperation(String transactionId, OperationType type, String database, String tableName,
+    public TransactionOperation(long transactionId, OperationType type, String database, String tableName,
                                 Object primaryKeyValue, Map<String, Object> beforeImage, Map<String, Object> afterImage,
                                 String sql, Object... params) {
-        this.operationId = UUID.randomUUID().toString();
+        this.operationId = OPERATION_SEQUENCE.incrementAndGet();
         this.transactionId = transactionId;
         this.type = type;
         this.database = database;
@@ -43,14 +55,24 @@ public class TransactionOperation {
     }
 
     public boolean isWriteOperation() {
-        return type == OperationType.INSERT || type == OperationType.UPDATE || type == OperationType.DELETE || type == OperationType.SELECT_FOR_UPDATE;
+        return type == OperationType.INSERT || type == OperationType.UPDATE || type == OperationType.DELETE
+                || type == OperationType.SELECT_FOR_UPDATE || type == OperationType.INCREMENT;
+    }
+
+    /**
+     * True for statements that change rows (as opposed to {@link #isWriteOperation()}, which
+     * also counts SELECT ... FOR UPDATE because it needs an exclusive lock).
+     */
+    public boolean modifiesData() {
+        return type == OperationType.INSERT || type == OperationType.UPDATE || type == OperationType.DELETE
+                || type == OperationType.INCREMENT;
     }
 
-    public String getOperationId() {
+    public long getOperationId() {
         return operationId;
     }
 
-    public String getTransactionId() {
+    public long getTransactionId() {
         return transactionId;
     }
 
@@ -102,12 +124,40 @@ public class TransactionOperation {
         isRolledBack = rolledBack;
     }
 
-    public String getResourceKey() {
-        if (primaryKeyValue != null) {
-            return String.format("%s.%s.%s", database, tableName, primaryKeyValue);
-        } else {
-            return String.format("%s.%s.*", database, tableName);
-        }
+    /**
+     * Encoded resource this operation locks; see {@code LockKeys}. Set by the database wrapper,
+     * which knows the table schema.
+     */
+    public long getLockKey() {
+        return lockKey;
+    }
+
+    public void setLockKey(long lockKey) {
+        this.lockKey = lockKey;
+    }
+
+    /**
+     * Further resources the operation locks in the same mode as its main key: the secondary-key
+     * predicates a written row falls under, so writers conflict with lookups by those keys.
+     */
+    public long[] getSecondaryLockKeys() {
+        return secondaryLockKeys;
+    }
+
+    public void setSecondaryLockKeys(long[] secondaryLockKeys) {
+        this.secondaryLockKeys = secondaryLockKeys;
+    }
+
+    /**
+     * True if the operation was committed on its own, outside the transaction's participants
+     * (a combined decrement). Such an operation is compensated whenever the transaction aborts.
+     */
+    public boolean isAutonomous() {
+        return autonomous;
+    }
+
+    public void setAutonomous(boolean autonomous) {
+        this.autonomous = autonomous;
     }
 
     public OperationType getOperationType() {
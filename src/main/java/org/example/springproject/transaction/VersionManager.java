@@ -1,10 +1,10 @@
 package org.example.springproject.transaction;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.logging.Logger;
 
 /**
  * Manages version tracking for transactions.
@@ -14,19 +14,15 @@ import java.util.logging.Logger;
 @Component
 public class VersionManager {
 
-    private static final Logger LOGGER = Logger.getLogger(VersionManager.class.getName());
-
-    private final ConcurrentHashMap<String, Set<String>> activeVersions = new ConcurrentHashMap<>();
+    private static final Logger LOGGER = LoggerFactory.getLogger(VersionManager.class);
 
     /**
-     * Registers that a transaction has created a new version of a resource.
-     * Call this from your StoreService or DistributedTransaction if you implement
-     * caching later.
+     * Registers that a transaction has created a new version of a resource. The set lives on the
+     * transaction handle. Call this from your StoreService or DistributedTransaction if you
+     * implement caching later.
      */
-    public void trackVersion(String transactionId, String tableName, Object id) {
-        String resourceKey = tableName + ":" + id;
-        activeVersions.computeIfAbsent(transactionId, k -> ConcurrentHashMap.newKeySet())
-                .add(resourceKey);
+    public void trackVersion(TransactionContext context, String tableName, Object id) {
+        context.trackVersion(tableName + ":" + id);
     }
 
     /**
@@ -36,15 +32,14 @@ public class VersionManager {
      * previous state (including the old version number), this method primarily
      * cleans up internal tracking.
      */
-    public void invalidateVersions(String transactionId) {
-        Set<String> resources = activeVersions.remove(transactionId);
+    public void invalidateVersions(TransactionContext context) {
+        Set<String> resources = context.drainVersions();
 
-        if (resources != null && !resources.isEmpty()) {
-            LOGGER.warning(String.format("Invalidating potential dirty reads for Transaction %s: %s",
-                    transactionId, resources));
+        if (!resources.isEmpty()) {
+            LOGGER.warn("Invalidating potential dirty reads for Transaction {}: {}", context.getTransactionId(), resources);
             // logic to evict these keys from a second-level cache would go here
         } else {
-            LOGGER.info("No active version tracking found for transaction: " + transactionId);
+            LOGGER.debug("No active version tracking found for transaction: {}", context.getTransactionId());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,285 @@
+package org.example.springproject.transaction.combining;
+
+import org.example.springproject.transaction.TransactionOperation;
+import org.example.springproject.transaction.schema.TableSchema;
+import org.example.springproject.transaction.wal.WriteAheadLog;
+import org.example.springproject.util.JDBCUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.example.springproject.util.AppConstants.DB_INVENTORY;
+import static org.example.springproject.util.AppConstants.DB_ORDER;
+
+/**
+ * Flat combining of decrements on hot rows. Concurrent requests for the same row queue up in a
+ * lane; whichever requester takes the lane's lock becomes the combiner and applies everything
+ * queued so far with one {@code SELECT ... FOR UPDATE}, one {@code UPDATE} and one commit on a
+ * connection of its own, while the other requesters wait for their result. That connection comes
+ * from a small reserve ({@code transaction.combining.connections} per database), never from the
+ * pool the requesting transaction already holds a connection of.
+ * <p>
+ * Requests are granted in arrival order as long as the value stays at or above each request's
+ * floor, so every caller still gets its own answer. Granted decrements commit before the
+ * requesting transactions do: they are autonomous operations, compensated if their transaction
+ * aborts. A request only counts as granted once the combined commit succeeded; its undo record
+ * is then forced to the WAL before the requester is woken. A failed batch grants nothing and
+ * logs nothing. A crash between the commit and that force loses the undo records, so recovery
+ * cannot give the stock back: the value errs low, never high.
+ */
+@Component
+public class DecrementCombiner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecrementCombiner.class);
+
+    /** Upper bound on a waiter's sleep, in case the combiner's wake-up is missed. */
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Map<String, DataSource> dataSources;
+    private final WriteAheadLog writeAheadLog;
+    private final JDBCUtils jdbcUtils;
+    private final boolean enabled;
+    private final long windowNanos;
+    private final int maxBatchSize;
+
+    private final ConcurrentHashMap<Counter, Lane> lanes = new ConcurrentHashMap<>();
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong granted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong largestBatch = new AtomicLong();
+
+    /**
+     * @param windowMicros how long a combiner waits for more requests before draining its lane;
+     *                     0 only batches what queued up during the previous round trip.
+     */
+    public DecrementCombiner(
+            @Qualifier("inventoryCombiningDataSource") DataSource inventoryDataSource,
+            @Qualifier("orderCombiningDataSource") DataSource orderDataSource,
+            WriteAheadLog writeAheadLog,
+            JDBCUtils jdbcUtils,
+            @Value("${transaction.combining.enabled:true}") boolean enabled,
+            @Value("${transaction.combining.window-micros:0}") long windowMicros,
+            @Value("${transaction.combining.max-batch-size:256}") int maxBatchSize) {
+        this.dataSources = Map.of(
+                DB_INVENTORY, inventoryDataSource,
+                DB_ORDER, orderDataSource
+        );
+        this.writeAheadLog = writeAheadLog;
+        this.jdbcUtils = jdbcUtils;
+        this.enabled = enabled;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Takes {@code amount} from column {@code columnIndex} of the row {@code operation} names and
+     * commits it, combined with whatever other decrements of that row are queued. The operation
+     * must be an autonomous INCREMENT whose after-image holds the negated amount; its undo record
+     * is written here if the decrement is granted.
+     *
+     * @return false if the decrement would have taken the value below {@code floor}, or the row
+     * does not exist.
+     * @throws SQLException if the combined statement failed; nothing was applied.
+     */
+    public boolean decrement(TableSchema table, int columnIndex, TransactionOperation operation, long amount,
+                             long floor) throws SQLException {
+        requests.incrementAndGet();
+        Counter counter = new Counter(operation.getDatabase(), table.getName(), columnIndex, operation.getPrimaryKeyValue());
+        Request request = new Request(operation, amount, floor);
+        Lane lane = lanes.computeIfAbsent(counter, k -> new Lane());
+        lane.pending.add(request);
+
+        while (request.state == Request.PENDING) {
+            if (lane.lock.tryLock()) {
+                try {
+                    while (request.state == Request.PENDING) {
+                        combine(table, columnIndex, counter, lane);
+                    }
+                    if (lane.pending.isEmpty()) {
+                        // A requester still holding the old lane just combines on its own; the
+                        // database row lock keeps two lanes of one row apart.
+                        lanes.remove(counter, lane);
+                    }
+                } finally {
+                    lane.lock.unlock();
+                }
+                Request next = lane.pending.peek();
+                if (next != null) {
+                    LockSupport.unpark(next.waiter);
+                }
+            } else {
+                LockSupport.parkNanos(lane, PARK_NANOS);
+            }
+        }
+
+        if (request.state == Request.FAILED) {
+            throw request.failure;
+        }
+        return request.state == Request.GRANTED;
+    }
+
+    private void combine(TableSchema table, int columnIndex, Counter counter, Lane lane) {
+        if (windowNanos > 0) {
+            LockSupport.parkNanos(windowNanos);
+        }
+        List<Request> batch = new ArrayList<>();
+        Request next;
+        while (batch.size() < maxBatchSize && (next = lane.pending.poll()) != null) {
+            batch.add(next);
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        batches.incrementAndGet();
+        largestBatch.accumulateAndGet(batch.size(), Math::max);
+
+        SQLException failure = null;
+        try {
+            apply(table, columnIndex, counter, batch);
+        } catch (SQLException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new SQLException("Combined decrement failed: " + e.getMessage(), e);
+        }
+        if (failure != null) {
+            failedBatches.incrementAndGet();
+            LOGGER.error("Combined decrement of {} requests on {}.{} failed", batch.size(), counter.table, counter.primaryKey, failure);
+        }
+        for (Request request : batch) {
+            if (failure != null) {
+                request.failure = failure;
+                request.state = Request.FAILED;
+            } else if (request.state == Request.GRANTED) {
+                granted.incrementAndGet();
+            } else {
+                rejected.incrementAndGet();
+                request.state = Request.REJECTED;
+            }
+            LockSupport.unpark(request.waiter);
+        }
+    }
+
+    /**
+     * Grants what the current value allows and commits the total; leaves granted requests in
+     * state GRANTED, the rest PENDING for the caller to reject. Nothing is marked GRANTED, or
+     * logged, unless the commit succeeded: waiters check their state without being woken.
+     */
+    private void apply(TableSchema table, int columnIndex, Counter counter, List<Request> batch) throws SQLException {
+        String column = table.getColumns().get(columnIndex);
+        String select = "SELECT " + column + " FROM " + table.getName() + " WHERE " + table.getPrimaryKey() + " = ? FOR UPDATE";
+        List<Request> grants = new ArrayList<>();
+        // Auto-commit is left off: the pool restores it, and rolls back, when the connection returns.
+        try (Connection conn = dataSources.get(counter.database).getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                List<Number> values = jdbcUtils.executeQuery(conn, select, (rs, i) -> (Number) rs.getObject(1), counter.primaryKey);
+                if (values.isEmpty() || values.get(0) == null) {
+                    conn.rollback();
+                    return;
+                }
+                long value = values.get(0).longValue();
+                long taken = 0;
+                for (Request request : batch) {
+                    if (value - taken - request.amount >= request.floor) {
+                        taken += request.amount;
+                        grants.add(request);
+                    }
+                }
+                if (taken > 0) {
+                    jdbcUtils.executeUpdate(conn, table.incrementSql(1L << columnIndex), -taken, counter.primaryKey);
+                }
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    conn.rollback();
+                } catch (SQLException ex) {
+                    e.addSuppressed(ex);
+                }
+                throw e;
+            }
+        }
+
+        // Committed: the grants stand even if their undo records cannot be made durable.
+        try {
+            long lsn = 0;
+            for (Request request : grants) {
+                lsn = writeAheadLog.appendUndo(request.operation);
+            }
+            writeAheadLog.sync(lsn);
+        } catch (RuntimeException e) {
+            LOGGER.error("CRITICAL: Undo records of {} committed decrements on {}.{} were not logged; a crash before their"
+                    + " transactions end will not give them back", grants.size(), counter.table, counter.primaryKey, e);
+        }
+        for (Request request : grants) {
+            request.state = Request.GRANTED;
+        }
+    }
+
+    /**
+     * Snapshot of the combiner's counters (for monitoring). {@code requests / batches} is the
+     * average number of decrements applied per statement.
+     */
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled ? 1 : 0);
+        metrics.put("activeLanes", lanes.size());
+        metrics.put("batches", batches.get());
+        metrics.put("requests", requests.get());
+        metrics.put("granted", granted.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("failedBatches", failedBatches.get());
+        metrics.put("largestBatch", largestBatch.get());
+        return metrics;
+    }
+
+    private record Counter(String database, String table, int columnIndex, Object primaryKey) {
+    }
+
+    private static final class Lane {
+        final ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<>();
+        final ReentrantLock lock = new ReentrantLock();
+    }
+
+    private static final class Request {
+        static final int PENDING = 0;
+        static final int GRANTED = 1;
+        static final int REJECTED = 2;
+        static final int FAILED = 3;
+
+        final TransactionOperation operation;
+        final long amount;
+        final long floor;
+        final Thread waiter = Thread.currentThread();
+        volatile int state = PENDING;
+        SQLException failure;
+
+        Request(TransactionOperation operation, long amount, long floor) {
+            this.operation = operation;
+            this.amount = amount;
+            this.floor = floor;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package org.example.springproject.transaction.retry;
+
+import org.example.springproject.exceptions.DeadlockException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Retries transactions that lost a concurrency conflict. Only conflicts are retried (see
+ * {@link #isRetryable}); anything else is rethrown as it is. Retries wait out a jittered backoff
+ * from their {@link RetryPolicy} and draw on a budget shared by all operations: per one-second
+ * window at most {@code budget-ratio} retries per call, but always {@code budget-min-per-second}.
+ * Under a conflict storm the budget turns retries into fast failures instead of letting them
+ * multiply the load that caused the storm.
+ * <p>
+ * {@link #execute} keeps the caller's thread for the whole run, backoff included.
+ * {@link #executeAsync} does not hold any thread while backing off: each retry is handed to the
+ * executor once its delay has passed.
+ */
+@Component
+public class RetryEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RetryEngine.class);
+
+    private static final long BUDGET_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final RetryPolicy defaultPolicy;
+    private final double budgetRatio;
+    private final long budgetMinPerWindow;
+    private final Executor retryExecutor;
+
+    private final Object budgetLock = new Object();
+    private long windowStart = System.nanoTime();
+    private long windowCalls;
+    private long windowRetries;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong attempts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong succeededAfterRetry = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+    private final AtomicLong budgetDenied = new AtomicLong();
+    private final AtomicLong nonRetryable = new AtomicLong();
+    private final AtomicLong interrupted = new AtomicLong();
+    private final AtomicLong backoffMillis = new AtomicLong();
+
+    public RetryEngine(
+            @Value("${transaction.retry.max-attempts:3}") int maxAttempts,
+            @Value("${transaction.retry.base-delay-ms:20}") long baseDelayMillis,
+            @Value("${transaction.retry.max-delay-ms:1000}") long maxDelayMillis,
+            @Value("${transaction.retry.budget-ratio:0.5}") double budgetRatio,
+            @Value("${transaction.retry.budget-min-per-second:20}") long budgetMinPerWindow,
+            @Qualifier("retryExecutor") Executor retryExecutor) {
+        this.defaultPolicy = new RetryPolicy("default", maxAttempts, baseDelayMillis, maxDelayMillis);
+        this.budgetRatio = budgetRatio;
+        this.budgetMinPerWindow = budgetMinPerWindow;
+        this.retryExecutor = retryExecutor;
+    }
+
+    public RetryPolicy getDefaultPolicy() {
+        return defaultPolicy;
+    }
+
+    /**
+     * A conflict another attempt may not run into: a lock conflict or deadlock reported by the
+     * coordinator (including optimistic version conflicts), or a database serialization failure
+     * or deadlock (SQLSTATE class 40) anywhere in the cause chain.
+     */
+    public static boolean isRetryable(Throwable failure) {
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof DeadlockException) {
+                return true;
+            }
+            if (t instanceof SQLException sql && sql.getSQLState() != null && sql.getSQLState().startsWith("40")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void execute(RetryPolicy policy, Runnable action, String failureMessage) {
+        execute(policy, () -> {
+            action.run();
+            return null;
+        }, failureMessage);
+    }
+
+    /**
+     * Runs {@code action} on the calling thread until it succeeds, fails with a non-retryable
+     * exception (rethrown as is), or runs out of attempts or budget. An interrupt during backoff
+     * also ends the run; the thread's interrupt status is kept.
+     *
+     * @throws RuntimeException with {@code failureMessage}, caused by the last conflict, if the
+     *                          action was given up on.
+     */
+    public <T> T execute(RetryPolicy policy, Supplier<T> action, String failureMessage) {
+        onCall();
+        for (int attempt = 1; ; attempt++) {
+            attempts.incrementAndGet();
+            try {
+                T result = action.get();
+                onSuccess(attempt);
+                return result;
+            } catch (RuntimeException e) {
+                long delay = nextDelay(policy, attempt, e, failureMessage);
+                if (delay > 0) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(delay));
+                }
+                if (Thread.currentThread().isInterrupted()) {
+                    interrupted.incrementAndGet();
+                    throw new RuntimeException(failureMessage + " (interrupted)", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Like {@link #execute}, but every attempt runs on {@code executor} and backoff holds no
+     * thread. The future fails with the exception {@link #execute} would have thrown.
+     */
+    public <T> CompletableFuture<T> executeAsync(RetryPolicy policy, Supplier<T> action, String failureMessage,
+                                                 Executor executor) {
+        onCall();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        executor.execute(() -> attemptAsync(policy, action, failureMessage, executor, 1, result));
+        return result;
+    }
+
+    public CompletableFuture<Void> executeAsync(RetryPolicy policy, Runnable action, String failureMessage,
+                                                Executor executor) {
+        return executeAsync(policy, () -> {
+            action.run();
+            return null;
+        }, failureMessage, executor);
+    }
+
+    public <T> CompletableFuture<T> executeAsync(RetryPolicy policy, Supplier<T> action, String failureMessage) {
+        return executeAsync(policy, action, failureMessage, retryExecutor);
+    }
+
+    private <T> void attemptAsync(RetryPolicy policy, Supplier<T> action, String failureMessage, Executor executor,
+                                  int attempt, CompletableFuture<T> result) {
+        attempts.incrementAndGet();
+        T value;
+        try {
+            value = action.get();
+        } catch (RuntimeException e) {
+            long delay;
+            try {
+                delay = nextDelay(policy, attempt, e, failureMessage);
+            } catch (RuntimeException failure) {
+                result.completeExceptionally(failure);
+                return;
+            }
+            // A delayed retry reaches the executor on the delay scheduler's thread, where a
+            // rejection would otherwise be lost and leave the future incomplete.
+            Executor rejecting = task -> {
+                try {
+                    executor.execute(task);
+                } catch (RuntimeException rejected) {
+                    result.completeExceptionally(new CompletionException(failureMessage, rejected));
+                }
+            };
+            Executor delayed = delay > 0 ? CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, rejecting) : rejecting;
+            delayed.execute(() -> attemptAsync(policy, action, failureMessage, executor, attempt + 1, result));
+            return;
+        } catch (Error e) {
+            result.completeExceptionally(e);
+            throw e;
+        }
+        onSuccess(attempt);
+        result.complete(value);
+    }
+
+    /**
+     * Decides what follows a failed attempt.
+     *
+     * @return the backoff in milliseconds before the next attempt.
+     * @throws RuntimeException the failure itself if it is not retryable, or one with
+     *                          {@code failureMessage} if the action is given up on.
+     */
+    private long nextDelay(RetryPolicy policy, int attempt, RuntimeException failure, String failureMessage) {
+        if (!isRetryable(failure)) {
+            nonRetryable.incrementAndGet();
+            throw failure;
+        }
+        if (attempt >= policy.maxAttempts()) {
+            exhausted.incrementAndGet();
+            throw new RuntimeException(failureMessage, failure);
+        }
+        if (!tryAcquireRetry()) {
+            budgetDenied.incrementAndGet();
+            throw new RuntimeException(failureMessage + " (retry budget exhausted)", failure);
+        }
+        retries.incrementAndGet();
+        long delay = policy.backoffMillis(attempt);
+        backoffMillis.addAndGet(delay);
+        LOGGER.debug("{} attempt {} conflicted ({}); retrying in {} ms", policy.name(), attempt, failure.getMessage(), delay);
+        return delay;
+    }
+
+    private void onCall() {
+        calls.incrementAndGet();
+        synchronized (budgetLock) {
+            rollWindow();
+            windowCalls++;
+        }
+    }
+
+    private void onSuccess(int attempt) {
+        if (attempt > 1) {
+            succeededAfterRetry.incrementAndGet();
+        }
+    }
+
+    private boolean tryAcquireRetry() {
+        synchronized (budgetLock) {
+            rollWindow();
+            long allowed = Math.max(budgetMinPerWindow, (long) (windowCalls * budgetRatio));
+            if (windowRetries >= allowed) {
+                return false;
+            }
+            windowRetries++;
+            return true;
+        }
+    }
+
+    private void rollWindow() {
+        long now = System.nanoTime();
+        if (now - windowStart >= BUDGET_WINDOW_NANOS) {
+            windowStart = now;
+            windowCalls = 0;
+            windowRetries = 0;
+        }
+    }
+
+    /**
+     * Snapshot of the engine's counters (for monitoring). {@code attempts / calls} is the average
+     * number of attempts per operation.
+     */
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("calls", calls.get());
+        metrics.put("attempts", attempts.get());
+        metrics.put("retries", retries.get());
+        metrics.put("succeededAfterRetry", succeededAfterRetry.get());
+        metrics.put("exhausted", exhausted.get());
+        metrics.put("budgetDenied", budgetDenied.get());
+        metrics.put("nonRetryable", nonRetryable.get());
+        metrics.put("interrupted", interrupted.get());
+        metrics.put("backoffMillis", backoffMillis.get());
+        return metrics;
+    }
+}
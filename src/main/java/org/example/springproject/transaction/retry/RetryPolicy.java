@@ -0,0 +1,33 @@
+package org.example.springproject.transaction.retry;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How often and how patiently one kind of operation is retried. Backoff uses full jitter: the
+ * delay before retry {@code n} is uniform in {@code [0, min(maxDelay, baseDelay * 2^(n-1))]}, so
+ * transactions that aborted each other do not collide again in lockstep.
+ *
+ * @param maxAttempts attempts including the first one.
+ */
+public record RetryPolicy(String name, int maxAttempts, long baseDelayMillis, long maxDelayMillis) {
+
+    public RetryPolicy {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+        }
+        if (baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Invalid backoff " + baseDelayMillis + ".." + maxDelayMillis + " ms");
+        }
+    }
+
+    /**
+     * @param retry 1 for the first retry.
+     */
+    public long backoffMillis(int retry) {
+        long ceiling = baseDelayMillis << Math.min(retry - 1, 30);
+        if (ceiling <= 0 || ceiling > maxDelayMillis) {
+            ceiling = maxDelayMillis;
+        }
+        return ceiling == 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.springproject.transaction.scheduler;
+
+import org.example.springproject.util.LongLongHashMap;
+
+/**
+ * Escrow bookkeeping for one numeric column of one row while transactions hold {@code ESCROW}
+ * locks on it. Not thread-safe; the scheduler guards it.
+ * <p>
+ * {@code available} is a lower bound on the committed value once every pending delta has
+ * resolved: the committed value minus every reserved decrement. Pending increments are only
+ * counted once they commit. A decrement is granted only if {@code available} stays at or above
+ * the caller's floor, so however the holders finish, the value never drops below it.
+ * <p>
+ * The committed value is not known until a holder first decrements. It is then supplied by
+ * the caller, who read it after acquiring its escrow lock. Since nothing but escrow holders can
+ * change the value while the account exists, the read is the value before their pending deltas,
+ * except for increments that have committed in the database but are not settled here yet. The
+ * read cannot tell those apart, so every unsettled credit is taken off it; each is added back
+ * when its transaction settles.
+ */
+final class EscrowAccount {
+
+    static final long UNKNOWN = Long.MIN_VALUE;
+
+    private long available = UNKNOWN;
+    /** Per participating transaction: decrements reserved, and increments to credit on commit. */
+    private final LongLongHashMap reserved = new LongLongHashMap();
+    private final LongLongHashMap credited = new LongLongHashMap();
+
+    void join(long txId) {
+        if (!reserved.containsKey(txId)) {
+            reserved.put(txId, 0);
+        }
+    }
+
+    boolean isKnown() {
+        return available != UNKNOWN;
+    }
+
+    long available() {
+        return available;
+    }
+
+    /**
+     * Reserves {@code amount} for {@code txId} if the bound allows it.
+     *
+     * @param observed committed value read by the caller, used if the account has none yet.
+     */
+    boolean reserve(long txId, long amount, long floor, long observed) {
+        if (available == UNKNOWN) {
+            available = observed - unsettledCredits();
+        }
+        if (available - amount < floor) {
+            return false;
+        }
+        available -= amount;
+        reserved.put(txId, reserved.get(txId, 0) + amount);
+        return true;
+    }
+
+    private long unsettledCredits() {
+        long total = 0;
+        for (int i = credited.nextSlot(-1); i >= 0; i = credited.nextSlot(i)) {
+            total += credited.valueAt(i);
+        }
+        return total;
+    }
+
+    void credit(long txId, long amount) {
+        credited.put(txId, credited.get(txId, 0) + amount);
+    }
+
+    /**
+     * Resolves {@code txId}'s deltas: committed increments raise the bound, aborted decrements
+     * give their reservation back.
+     *
+     * @return true if no transaction participates any more.
+     */
+    boolean settle(long txId, boolean committed) {
+        if (!reserved.containsKey(txId)) {
+            return reserved.size() == 0;
+        }
+        if (available != UNKNOWN) {
+            available += committed ? credited.get(txId, 0) : reserved.get(txId, 0);
+        }
+        reserved.remove(txId);
+        credited.remove(txId);
+        return reserved.size() == 0;
+    }
+}
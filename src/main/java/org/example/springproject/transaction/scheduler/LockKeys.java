@@ -0,0 +1,90 @@
+package org.example.springproject.transaction.scheduler;
+
+import org.example.springproject.transaction.schema.TableSchema;
+
+/**
+ * Encodes lockable resources as 64-bit keys so the lock table never builds or hashes strings:
+ * <pre>
+ *   | table id (16) | kind (2) | value (46) |
+ * </pre>
+ * The table id comes from {@link TableSchema#getId()}. Kind distinguishes table, row and
+ * secondary-key resources; a secondary key ({@code payments.order_id=42}) stands for every row
+ * of the table with that column value, whether or not the row exists yet. Non-negative integral primary keys below 2^45 are stored as they are; any other
+ * value is hashed into the upper half of the value range. A hash collision can only make two
+ * unrelated rows conflict, never let two conflicting requests through.
+ */
+public final class LockKeys {
+
+    private static final int VALUE_BITS = 46;
+    private static final long VALUE_MASK = (1L << VALUE_BITS) - 1;
+    private static final long HASHED = 1L << (VALUE_BITS - 1);
+    private static final long DIRECT_LIMIT = HASHED;
+
+    private static final long KIND_TABLE = 0L;
+    private static final long KIND_ROW = 1L << VALUE_BITS;
+    private static final long KIND_SECONDARY = 2L << VALUE_BITS;
+    private static final long KIND_MASK = 3L << VALUE_BITS;
+
+    /** Secondary-key values keep the column ordinal in the top 6 bits of the value field. */
+    private static final int SECONDARY_VALUE_BITS = VALUE_BITS - 6;
+    private static final long SECONDARY_VALUE_MASK = (1L << SECONDARY_VALUE_BITS) - 1;
+
+    private LockKeys() {
+    }
+
+    public static long table(TableSchema table) {
+        return (long) table.getId() << (VALUE_BITS + 2) | KIND_TABLE;
+    }
+
+    /**
+     * Key of one row, or of the whole table when {@code primaryKey} is null.
+     */
+    public static long row(TableSchema table, Object primaryKey) {
+        if (primaryKey == null) {
+            return table(table);
+        }
+        return table(table) | KIND_ROW | encodeValue(primaryKey);
+    }
+
+    /**
+     * Key of the predicate {@code column = value} on {@code table}. Values that do not fit the
+     * narrower value field share keys with other values of the same column, which again only
+     * adds conflicts.
+     */
+    public static long secondary(TableSchema table, int columnIndex, Object value) {
+        if (value == null) {
+            return table(table);
+        }
+        return table(table) | KIND_SECONDARY | (long) columnIndex << SECONDARY_VALUE_BITS
+                | (encodeValue(value) & SECONDARY_VALUE_MASK);
+    }
+
+    public static long tableOf(long key) {
+        return key & ~(KIND_MASK | VALUE_MASK);
+    }
+
+    public static boolean isTable(long key) {
+        return (key & (KIND_MASK | VALUE_MASK)) == KIND_TABLE;
+    }
+
+    static long encodeValue(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short) {
+            long v = ((Number) value).longValue();
+            if (v >= 0 && v < DIRECT_LIMIT) {
+                return v;
+            }
+            return HASHED | ((v * 0x9E3779B97F4A7C15L) & (DIRECT_LIMIT - 1));
+        }
+        long h;
+        if (value instanceof CharSequence chars) {
+            // FNV-1a over the characters: 64 bits without materialising anything.
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < chars.length(); i++) {
+                h = (h ^ chars.charAt(i)) * 0x100000001b3L;
+            }
+        } else {
+            h = (long) value.hashCode() * 0x9E3779B97F4A7C15L;
+        }
+        return HASHED | (h & (DIRECT_LIMIT - 1));
+    }
+}
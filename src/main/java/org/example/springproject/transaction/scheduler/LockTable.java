@@ -0,0 +1,227 @@
+package org.example.springproject.transaction.scheduler;
+
+import org.example.springproject.transaction.scheduler.TwoPhaseLockingScheduler.LockType;
+import org.example.springproject.util.LongHashMap;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Open-addressing lock table keyed by {@link LockKeys} values. Not thread-safe; the scheduler
+ * guards it.
+ * <p>
+ * Entries live in parallel primitive arrays. The first holder of a resource (transaction id and
+ * mode) is stored inline, and a {@link Holders} overflow list is allocated only when a second
+ * transaction shares the resource. Acquiring and releasing an uncontended lock therefore
+ * allocates nothing once the table has grown to its working size. Deletion uses backward shift,
+ * so a steady stream of acquire/release leaves no tombstones.
+ */
+final class LockTable {
+
+    private static final int MIN_CAPACITY = 64;
+    private static final LockType[] TYPES = LockType.values();
+
+    private long[] keys;
+    private long[] firstHolder;
+    private byte[] firstMode;
+    private Holders[] others;
+    private boolean[] used;
+    private int size;
+    private int mask;
+
+    LockTable() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        firstHolder = new long[capacity];
+        firstMode = new byte[capacity];
+        others = new Holders[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private int slot(long key) {
+        int i = LongHashMap.mix(key) & mask;
+        while (used[i] && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    /**
+     * True if {@code txId} may hold {@code mode} on {@code key} given every other holder.
+     */
+    boolean isCompatible(long key, long txId, LockType mode) {
+        int i = slot(key);
+        if (!used[i]) {
+            return true;
+        }
+        if (firstHolder[i] != txId && !mode.isCompatibleWith(TYPES[firstMode[i]])) {
+            return false;
+        }
+        Holders more = others[i];
+        if (more != null) {
+            for (int h = 0; h < more.size; h++) {
+                if (more.ids[h] != txId && !mode.isCompatibleWith(TYPES[more.modes[h]])) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Passes every other transaction whose mode conflicts with {@code mode} to {@code action}.
+     */
+    void forEachConflict(long key, long txId, LockType mode, LongConsumer action) {
+        int i = slot(key);
+        if (!used[i]) {
+            return;
+        }
+        if (firstHolder[i] != txId && !mode.isCompatibleWith(TYPES[firstMode[i]])) {
+            action.accept(firstHolder[i]);
+        }
+        Holders more = others[i];
+        if (more != null) {
+            for (int h = 0; h < more.size; h++) {
+                if (more.ids[h] != txId && !mode.isCompatibleWith(TYPES[more.modes[h]])) {
+                    action.accept(more.ids[h]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Records that {@code txId} holds {@code mode} on {@code key}, replacing any mode it held.
+     * The caller has checked compatibility.
+     */
+    void grant(long key, long txId, LockType mode) {
+        int i = slot(key);
+        if (!used[i]) {
+            used[i] = true;
+            keys[i] = key;
+            firstHolder[i] = txId;
+            firstMode[i] = (byte) mode.ordinal();
+            if (++size * 2 > keys.length) {
+                resize(keys.length << 1);
+            }
+            return;
+        }
+        if (firstHolder[i] == txId) {
+            firstMode[i] = (byte) mode.ordinal();
+            return;
+        }
+        Holders more = others[i];
+        if (more == null) {
+            more = new Holders();
+            others[i] = more;
+        }
+        more.put(txId, mode);
+    }
+
+    void release(long key, long txId) {
+        int i = slot(key);
+        if (!used[i]) {
+            return;
+        }
+        Holders more = others[i];
+        if (firstHolder[i] == txId) {
+            if (more == null || more.size == 0) {
+                delete(i);
+                return;
+            }
+            // Promote the last overflow holder into the inline slot.
+            int last = --more.size;
+            firstHolder[i] = more.ids[last];
+            firstMode[i] = more.modes[last];
+        } else if (more != null) {
+            more.remove(txId);
+        }
+        if (more != null && more.size == 0) {
+            others[i] = null;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void delete(int i) {
+        used[i] = false;
+        others[i] = null;
+        size--;
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (used[j]) {
+            int home = LongHashMap.mix(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                firstHolder[gap] = firstHolder[j];
+                firstMode[gap] = firstMode[j];
+                others[gap] = others[j];
+                used[gap] = true;
+                used[j] = false;
+                others[j] = null;
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldHolder = firstHolder;
+        byte[] oldMode = firstMode;
+        Holders[] oldOthers = others;
+        boolean[] oldUsed = used;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int j = slot(oldKeys[i]);
+                used[j] = true;
+                keys[j] = oldKeys[i];
+                firstHolder[j] = oldHolder[i];
+                firstMode[j] = oldMode[i];
+                others[j] = oldOthers[i];
+            }
+        }
+    }
+
+    /**
+     * Additional holders of a shared resource, as parallel arrays.
+     */
+    private static final class Holders {
+        long[] ids = new long[4];
+        byte[] modes = new byte[4];
+        int size;
+
+        void put(long txId, LockType mode) {
+            for (int h = 0; h < size; h++) {
+                if (ids[h] == txId) {
+                    modes[h] = (byte) mode.ordinal();
+                    return;
+                }
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size << 1);
+                modes = Arrays.copyOf(modes, size << 1);
+            }
+            ids[size] = txId;
+            modes[size] = (byte) mode.ordinal();
+            size++;
+        }
+
+        void remove(long txId) {
+            for (int h = 0; h < size; h++) {
+                if (ids[h] == txId) {
+                    size--;
+                    ids[h] = ids[size];
+                    modes[h] = modes[size];
+                    return;
+                }
+            }
+        }
+    }
+}
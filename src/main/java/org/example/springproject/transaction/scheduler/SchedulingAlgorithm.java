@@ -1,6 +1,6 @@
 package org.example.springproject.transaction.scheduler;
 
-import org.example.springproject.models.Transaction;
+import org.example.springproject.transaction.TransactionContext;
 import org.example.springproject.transaction.TransactionOperation;
 import org.springframework.expression.Operation;
 
@@ -17,7 +17,7 @@ public interface SchedulingAlgorithm {
      * @param operation   The operation to be executed
      * @return true if operation can proceed, false if it must wait or be aborted
      */
-    boolean canExecute(Transaction transaction, TransactionOperation operation);
+    boolean canExecute(TransactionContext transaction, TransactionOperation operation);
 
     /**
      * Called when an operation completes successfully
@@ -25,21 +25,21 @@ public interface SchedulingAlgorithm {
      * @param transaction The transaction that executed the operation
      * @param operation   The completed operation
      */
-    void onOperationComplete(Transaction transaction, TransactionOperation operation);
+    void onOperationComplete(TransactionContext transaction, TransactionOperation operation);
 
     /**
      * Called when a transaction commits
      *
      * @param transaction The committing transaction
      */
-    void onTransactionCommit(Transaction transaction);
+    void onTransactionCommit(TransactionContext transaction);
 
     /**
      * Called when a transaction aborts
      *
      * @param transaction The aborting transaction
      */
-    void onTransactionAbort(Transaction transaction);
+    void onTransactionAbort(TransactionContext transaction);
 
     /**
      * Get the name of this scheduling algorithm
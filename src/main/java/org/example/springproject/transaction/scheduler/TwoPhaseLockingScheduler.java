@@ -1,75 +1,335 @@
 package org.example.springproject.transaction.scheduler;
 
-import org.example.springproject.exceptions.DeadlockException;
-import org.example.springproject.models.Transaction;
 import org.example.springproject.transaction.DeadlockDetector;
+import org.example.springproject.transaction.TransactionContext;
 import org.example.springproject.transaction.TransactionOperation;
+import org.example.springproject.util.LongHashMap;
+import org.example.springproject.util.LongLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
-
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Strict two-phase locking over {@link LockKeys} resources. Locks are recorded both in the
+ * shared {@link LockTable} and on the transaction handle, so re-acquisition is answered from
+ * the handle and release visits only the transaction's own keys.
+ * <p>
+ * Locking is multi-granular: a row request first takes the matching intention lock (IS or IX) on
+ * its table, so a table-scoped request (S or X on the table key) conflicts with row-level work
+ * on that table and vice versa, while row requests on different rows still run in parallel.
+ * A row lock is skipped when the transaction's table lock already covers it.
+ * <p>
+ * Lookups by a secondary key lock the predicate ({@link LockKeys#secondary}) like a row, and
+ * every write locks the predicates its row falls under as well (see
+ * {@link TransactionOperation#getSecondaryLockKeys()}), so a transaction that found a row by
+ * that key keeps it, and keeps new matching rows out, without locking the table.
+ * <p>
+ * Once a transaction has acquired {@code transaction.lock.escalation-threshold} row-level locks
+ * on one table, they are escalated to a single table lock (S if it only read rows, X otherwise)
+ * if no other transaction's lock is in the way; otherwise escalation is retried whenever the
+ * transaction adds more row locks there. The replaced row locks are parked on an {@link Escalation} record.
+ * When another transaction then needs an intention lock on that table, the escalation is undone
+ * (the parked rows are granted again and the table lock returns to its intention mode) instead
+ * of making the requester wait, and the table is not escalated again for that transaction.
+ * <p>
+ * {@code INCREMENT} operations lock their row in {@link LockType#ESCROW} mode, which admits any
+ * number of concurrent deltas but no reader or writer of the exact value. Decrements must also be
+ * reserved against the row's {@link EscrowAccount}, so concurrent deltas can never take the
+ * value below the caller's floor.
+ */
 @Component
 public class TwoPhaseLockingScheduler implements SchedulingAlgorithm {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(TwoPhaseLockingScheduler.class);
+    private static final LockType[] TYPES = LockType.values();
+
     private final DeadlockDetector deadlockDetector;
+    private final int escalationThreshold;
 
     public enum LockType {
+        INTENTION_SHARED,
+        INTENTION_EXCLUSIVE,
         SHARED,
-        EXCLUSIVE
-    }
-
-    private static class Lock {
-        private final String transactionId;
-        private final LockType type;
-        private final String resourceKey;
-
-        public Lock(String transactionId, LockType type, String resourceKey) {
-            this.transactionId = transactionId;
-            this.type = type;
-            this.resourceKey = resourceKey;
+        SHARED_INTENTION_EXCLUSIVE,
+        EXCLUSIVE,
+        /**
+         * Row mode for commutative deltas ({@code INCREMENT}): compatible with other deltas,
+         * but not with anything that reads or writes the exact value.
+         */
+        ESCROW;
+
+        /**
+         * Standard multi-granularity compatibility matrix, one bit per mode (in ordinal order),
+         * plus the escrow mode, which only ever meets row modes.
+         */
+        private static final int[] COMPATIBLE = {
+                0b001111, // IS:  IS, IX, S, SIX
+                0b000011, // IX:  IS, IX
+                0b000101, // S:   IS, S
+                0b000001, // SIX: IS
+                0b000000, // X:   nothing
+                0b100000  // E:   E
+        };
+
+        public boolean isCompatibleWith(LockType other) {
+            return (COMPATIBLE[ordinal()] & (1 << other.ordinal())) != 0;
         }
 
-        public String getTransactionId() {
-            return transactionId;
+        /**
+         * The weakest mode at least as strong as both {@code this} and {@code other}.
+         */
+        public LockType combine(LockType other) {
+            if (this == other) {
+                return this;
+            }
+            if (this == EXCLUSIVE || other == EXCLUSIVE || this == ESCROW || other == ESCROW) {
+                // A delta plus a read (or write) of the exact value amounts to a write.
+                return EXCLUSIVE;
+            }
+            if (this == INTENTION_SHARED) {
+                return other;
+            }
+            if (other == INTENTION_SHARED) {
+                return this;
+            }
+            // Any remaining pair of distinct modes from IX, S and SIX combines to SIX.
+            return SHARED_INTENTION_EXCLUSIVE;
         }
 
-        public LockType getType() {
-            return type;
+        /**
+         * True if holding this mode on a table already grants {@code rowMode} on its rows.
+         */
+        boolean coversRows(LockType rowMode) {
+            return this == EXCLUSIVE || (rowMode == SHARED && (this == SHARED || this == SHARED_INTENTION_EXCLUSIVE));
         }
     }
 
-    private final Map<String, List<Lock>> lockTable;
-
-    private final Map<String, LockPhase> transactionPhase;
+    private final LockTable lockTable = new LockTable();
+    /**
+     * Guards the lock table, escrow accounts, escalations and counters. Not a monitor, so that a
+     * virtual thread waiting in {@link #acquireDeclared} unmounts from its carrier.
+     */
+    private final ReentrantLock monitor = new ReentrantLock();
+    /** Signalled when locks are released while declared lock sets are waiting. */
+    private final Condition released = monitor.newCondition();
+    /** Escrow accounts of rows currently under ESCROW locks. */
+    private final LongHashMap<EscrowAccount> escrowAccounts = new LongHashMap<>();
+    /** Active escalations by table key; several readers may hold the same table through escalation. */
+    private final LongHashMap<Escalation> escalations = new LongHashMap<>();
+
+    // Counters, guarded by the monitor.
+    private long escalationCount;
+    private long deferredEscalationCount;
+    private long deEscalationCount;
+    private long escalationConflictCount;
+    private long declaredAcquisitionCount;
+    private long declaredWaitCount;
+    private long declaredTimeoutCount;
+    /** Transactions waiting in {@link #acquireDeclared}; releases only notify while there are any. */
+    private int declaredWaiters;
 
     public enum LockPhase {
         GROWING,
         SHRINKING
     }
 
+    /**
+     * @param escalationThreshold row-level locks per table after which a transaction's locks on
+     *                            that table are escalated; 0 or less disables escalation.
+     */
     @Autowired
-    public TwoPhaseLockingScheduler(DeadlockDetector deadlockDetector) {
+    public TwoPhaseLockingScheduler(DeadlockDetector deadlockDetector,
+                                    @Value("${transaction.lock.escalation-threshold:1000}") int escalationThreshold) {
         this.deadlockDetector = deadlockDetector;
-        this.lockTable = new ConcurrentHashMap<>();
-        this.transactionPhase = new ConcurrentHashMap<>();
+        this.escalationThreshold = escalationThreshold;
     }
 
     @Override
-    public boolean canExecute(Transaction transaction, TransactionOperation operation) {
-        String txId = transaction.getTransactionId();
-        String resourceKey = operation.getResourceKey();
+    public boolean canExecute(TransactionContext transaction, TransactionOperation operation) {
+        if (transaction.getLockPhase() == LockPhase.SHRINKING) {
+            throw new IllegalStateException("2PL Violation: Transaction " + transaction.getTransactionId()
+                    + " attempted to acquire lock in shrinking phase.");
+        }
+
+        long key = operation.getLockKey();
+        boolean write = operation.isWriteOperation();
+
+        monitor.lock();
+        try {
+            long tableKey = LockKeys.tableOf(key);
+            long rowLocksBefore = transaction.getRowLockCounts().get(tableKey, 0);
+            if (LockKeys.isTable(key)) {
+                // An INSERT names no existing row: it only announces row-level writes, and the
+                // new row is locked once its key is known.
+                LockType tableLock = operation.getOperationType() == TransactionOperation.OperationType.INSERT
+                        ? LockType.INTENTION_EXCLUSIVE
+                        : write ? LockType.EXCLUSIVE : LockType.SHARED;
+                if (!tryAcquireLock(transaction, tableLock, key)) {
+                    return false;
+                }
+            } else if (!tryAcquireLock(transaction, write ? LockType.INTENTION_EXCLUSIVE : LockType.INTENTION_SHARED, tableKey)) {
+                return false;
+            }
+
+            boolean increment = operation.getOperationType() == TransactionOperation.OperationType.INCREMENT;
+            LockType rowLock = increment ? LockType.ESCROW : write ? LockType.EXCLUSIVE : LockType.SHARED;
+            if (heldMode(transaction, tableKey).coversRows(rowLock)) {
+                if (!LockKeys.isTable(key) && !escalations.isEmpty()) {
+                    parkUnderEscalation(transaction, tableKey, key, operation.getSecondaryLockKeys(), rowLock);
+                }
+                return true;
+            }
+            if (!LockKeys.isTable(key) && !tryAcquireLock(transaction, rowLock, key)) {
+                return false;
+            }
+            if (increment) {
+                joinEscrow(transaction, key);
+            }
+            // Row and secondary-key locks live side by side under the table's intention lock, so
+            // a write to a row conflicts with a lookup that covers it by a secondary key.
+            for (long secondary : operation.getSecondaryLockKeys()) {
+                if (!tryAcquireLock(transaction, rowLock, secondary)) {
+                    return false;
+                }
+            }
+            if (transaction.getRowLockCounts().get(tableKey, 0) > rowLocksBefore) {
+                maybeEscalate(transaction, tableKey);
+            }
+            return true;
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    /**
+     * Conservative 2PL: acquires the transaction's whole declared lock set at once, before any
+     * other lock. {@code keys} are row, secondary-key or table keys; row-level keys also get the
+     * matching intention lock on their table. Either every lock is granted, in ascending key
+     * order, or none is and the caller waits, holding nothing, until a release makes the whole
+     * set grantable. A transaction that waits holds no locks, so it can neither deadlock nor be
+     * chosen as a victim; locks it takes later outside the set are scheduled as usual.
+     *
+     * @param write         per key, true for an exclusive lock and false for a shared one.
+     * @param timeoutMillis how long to wait for the set to become grantable.
+     * @return false if the wait timed out or was interrupted; nothing is held then.
+     * @throws IllegalStateException if the transaction already holds locks.
+     */
+    public boolean acquireDeclared(TransactionContext transaction, long[] keys, boolean[] write, long timeoutMillis) {
+        LockType[] modes = new LockType[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            modes[i] = write[i] ? LockType.EXCLUSIVE : LockType.SHARED;
+        }
+        return acquireDeclared(transaction, keys, modes, timeoutMillis);
+    }
 
-        transactionPhase.putIfAbsent(txId, LockPhase.GROWING);
-        if (transactionPhase.get(txId) == LockPhase.SHRINKING) {
-            throw new IllegalStateException("2PL Violation: Transaction " + txId + " attempted to acquire lock in shrinking phase.");
+    /**
+     * Like {@link #acquireDeclared(TransactionContext, long[], boolean[], long)}, with a mode per
+     * key: SHARED, EXCLUSIVE, or ESCROW for rows that will only take deltas. A declared ESCROW
+     * lock joins the row's escrow account as a first increment would.
+     */
+    public boolean acquireDeclared(TransactionContext transaction, long[] keys, LockType[] modes, long timeoutMillis) {
+        LongLongHashMap requested = new LongLongHashMap();
+        for (int i = 0; i < keys.length; i++) {
+            long key = keys[i];
+            if (LockKeys.isTable(key)) {
+                if (modes[i] == LockType.ESCROW) {
+                    throw new IllegalArgumentException("ESCROW locks are row locks: " + key);
+                }
+                request(requested, key, modes[i]);
+            } else {
+                request(requested, LockKeys.tableOf(key),
+                        modes[i] == LockType.SHARED ? LockType.INTENTION_SHARED : LockType.INTENTION_EXCLUSIVE);
+                request(requested, key, modes[i]);
+            }
         }
+        long[] ordered = new long[requested.size()];
+        int n = 0;
+        for (int i = requested.nextSlot(-1); i >= 0; i = requested.nextSlot(i)) {
+            ordered[n++] = requested.keyAt(i);
+        }
+        Arrays.sort(ordered);
+
+        long txId = transaction.getTransactionId();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        monitor.lock();
+        try {
+            if (transaction.getLockPhase() == LockPhase.SHRINKING) {
+                throw new IllegalStateException("2PL Violation: Transaction " + txId
+                        + " attempted to acquire lock in shrinking phase.");
+            }
+            if (transaction.getHeldLocks().size() > 0) {
+                throw new IllegalStateException("Transaction " + txId + " must declare its lock set before taking any lock");
+            }
+            boolean waited = false;
+            while (!grantable(txId, requested, ordered)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    declaredTimeoutCount++;
+                    return false;
+                }
+                if (!waited) {
+                    declaredWaitCount++;
+                    waited = true;
+                }
+                declaredWaiters++;
+                try {
+                    released.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } finally {
+                    declaredWaiters--;
+                }
+            }
+            for (long key : ordered) {
+                if (!tryAcquireLock(transaction, TYPES[(int) requested.get(key, 0)], key)) {
+                    throw new IllegalStateException("Declared lock on " + key + " became ungrantable");
+                }
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (modes[i] == LockType.ESCROW) {
+                    joinEscrow(transaction, keys[i]);
+                }
+            }
+            declaredAcquisitionCount++;
+            return true;
+        } finally {
+            monitor.unlock();
+        }
+    }
 
-        LockType requiredLock = operation.isWriteOperation() ? LockType.EXCLUSIVE : LockType.SHARED;
+    private static void request(LongLongHashMap requested, long key, LockType mode) {
+        long ordinal = requested.get(key, -1);
+        requested.put(key, ordinal < 0 ? mode.ordinal() : TYPES[(int) ordinal].combine(mode).ordinal());
+    }
+
+    /**
+     * True if every requested lock is compatible with the current holders. Caller holds the
+     * monitor; escalations in the way are undone as they would be for a single request.
+     */
+    private boolean grantable(long txId, LongLongHashMap requested, long[] ordered) {
+        for (long key : ordered) {
+            LockType mode = TYPES[(int) requested.get(key, 0)];
+            if (!lockTable.isCompatible(key, txId, mode)
+                    && !(LockKeys.isTable(key) && escalations.containsKey(key) && deEscalateConflicting(key, txId, mode))) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        return tryAcquireLock(txId, requiredLock, resourceKey);
+    private static LockType heldMode(TransactionContext transaction, long key) {
+        long ordinal = transaction.getHeldLocks().get(key, -1);
+        return ordinal < 0 ? null : TYPES[(int) ordinal];
     }
 
     @Override
@@ -77,129 +337,427 @@ public class TwoPhaseLockingScheduler implements SchedulingAlgorithm {
         return "Two-Phase Locking (2PL)";
     }
 
-    @Override
-    public void onTransactionCommit(Transaction transaction) {
-        String txId = transaction.getTransactionId();
-        releaseLocks(txId);
-        deadlockDetector.removeTransaction(txId);
-        transactionPhase.remove(txId);
+    /**
+     * True if the transaction's own connection cannot hold a database lock on row {@code key}:
+     * it holds at most an escrow lock on the row and an intention lock on its table. Only then
+     * may the row be changed on another connection on the transaction's behalf.
+     */
+    public boolean mayChangeElsewhere(TransactionContext transaction, long key) {
+        monitor.lock();
+        try {
+            LockType row = heldMode(transaction, key);
+            LockType table = heldMode(transaction, LockKeys.tableOf(key));
+            return (row == null || row == LockType.ESCROW)
+                    && (table == null || table == LockType.INTENTION_SHARED || table == LockType.INTENTION_EXCLUSIVE);
+        } finally {
+            monitor.unlock();
+        }
     }
 
-    @Override
-    public void onTransactionAbort(Transaction transaction) {
-        String txId = transaction.getTransactionId();
-        releaseLocks(txId);
-        deadlockDetector.removeTransaction(txId);
-        transactionPhase.remove(txId);
+    /**
+     * True if a decrement of {@code key} by this transaction needs the committed value to be
+     * read first (the row's escrow account does not know it yet).
+     */
+    public boolean needsEscrowValue(TransactionContext transaction, long key) {
+        monitor.lock();
+        try {
+            EscrowAccount account = participatingAccount(transaction, key);
+            return account != null && !account.isKnown();
+        } finally {
+            monitor.unlock();
+        }
     }
 
-    @Override
-    public void onOperationComplete(Transaction transaction, TransactionOperation operation) {
+    /**
+     * Reserves a decrement of {@code amount} against the row's escrow account. Fails, without
+     * waiting, if the decrement could take the value below {@code floor} should every pending
+     * decrement commit and every pending increment abort. A transaction with exclusive access to
+     * the row keeps no account; its decrement is only checked when it is applied.
+     *
+     * @param observed the committed value, read after the escrow lock was granted; only used if
+     *                 {@link #needsEscrowValue} said so.
+     */
+    public boolean reserveEscrow(TransactionContext transaction, long key, long amount, long floor, long observed) {
+        monitor.lock();
+        try {
+            EscrowAccount account = participatingAccount(transaction, key);
+            return account == null || account.reserve(transaction.getTransactionId(), amount, floor, observed);
+        } finally {
+            monitor.unlock();
+        }
     }
 
     /**
-     * Get current lock table (for debugging/monitoring)
+     * Records an increment, which raises the row's bound only once the transaction commits.
      */
-    public Map<String, List<Lock>> getLockTable() {
-        return new HashMap<>(lockTable);
+    public void creditEscrow(TransactionContext transaction, long key, long amount) {
+        monitor.lock();
+        try {
+            EscrowAccount account = participatingAccount(transaction, key);
+            if (account != null) {
+                account.credit(transaction.getTransactionId(), amount);
+            }
+        } finally {
+            monitor.unlock();
+        }
     }
 
     /**
-     * Release all locks held by a transaction
+     * Lower bound the row's escrow account currently guarantees, or {@link EscrowAccount#UNKNOWN}.
      */
-    private void releaseLocks(String txId) {
-        synchronized (lockTable) {
-            transactionPhase.put(txId, LockPhase.SHRINKING);
+    long getEscrowAvailable(long key) {
+        monitor.lock();
+        try {
+            EscrowAccount account = escrowAccounts.get(key);
+            return account == null ? EscrowAccount.UNKNOWN : account.available();
+        } finally {
+            monitor.unlock();
+        }
+    }
 
-            lockTable.values().forEach(locks ->
-                    locks.removeIf(lock -> lock.getTransactionId().equals(txId))
-            );
+    private EscrowAccount participatingAccount(TransactionContext transaction, long key) {
+        LongLongHashMap joined = transaction.getEscrowKeys(false);
+        return joined != null && joined.containsKey(key) ? escrowAccounts.get(key) : null;
+    }
 
-            lockTable.entrySet().removeIf(entry -> entry.getValue().isEmpty());
+    /**
+     * Makes the transaction a participant of the row's escrow account if it holds the row in
+     * ESCROW mode; under X (or a covering table lock) it is the only writer and needs none.
+     */
+    private void joinEscrow(TransactionContext transaction, long key) {
+        if (heldMode(transaction, key) != LockType.ESCROW) {
+            return;
+        }
+        EscrowAccount account = escrowAccounts.get(key);
+        if (account == null) {
+            account = new EscrowAccount();
+            escrowAccounts.put(key, account);
         }
+        account.join(transaction.getTransactionId());
+        transaction.getEscrowKeys(true).put(key, 0);
     }
 
-    private boolean isCompatible(LockType requestedLock, List<Lock> existingLocks) {
-        if (existingLocks.isEmpty()) {
-            return true;
+    /**
+     * Settles the transaction's escrow accounts; called before its locks are released.
+     */
+    private void settleEscrow(TransactionContext transaction, boolean committed) {
+        LongLongHashMap joined = transaction.getEscrowKeys(false);
+        if (joined == null) {
+            return;
         }
-        for (Lock existingLock : existingLocks) {
-            if (requestedLock == LockType.EXCLUSIVE || existingLock.getType() == LockType.EXCLUSIVE) {
-                return false;
+        long txId = transaction.getTransactionId();
+        for (int i = joined.nextSlot(-1); i >= 0; i = joined.nextSlot(i)) {
+            long key = joined.keyAt(i);
+            EscrowAccount account = escrowAccounts.get(key);
+            if (account != null && account.settle(txId, committed)) {
+                escrowAccounts.remove(key);
             }
         }
-        return true;
+        joined.clear();
+    }
+
+    @Override
+    public void onTransactionCommit(TransactionContext transaction) {
+        releaseLocks(transaction, true);
+        deadlockDetector.removeTransaction(transaction.getTransactionId());
+    }
+
+    @Override
+    public void onTransactionAbort(TransactionContext transaction) {
+        releaseLocks(transaction, false);
+        deadlockDetector.removeTransaction(transaction.getTransactionId());
     }
 
-    private boolean tryUpgradeLock(String txId, String resourceKey) {
-        synchronized (lockTable) {
-            List<Lock> locks = lockTable.get(resourceKey);
+    @Override
+    public void onOperationComplete(TransactionContext transaction, TransactionOperation operation) {
+    }
 
-            boolean otherTransactionHasLock = locks.stream()
-                    .anyMatch(l -> !l.getTransactionId().equals(txId));
+    /**
+     * Snapshot of the scheduler's counters (for monitoring). {@code escalationConflicts} counts
+     * requests that found a table held through escalation in their way.
+     */
+    public Map<String, Number> getMetrics() {
+        monitor.lock();
+        try {
+            Map<String, Number> metrics = new LinkedHashMap<>();
+            metrics.put("lockedResources", lockTable.size());
+            metrics.put("escalationThreshold", escalationThreshold);
+            metrics.put("activeEscalations", escalations.size());
+            metrics.put("escalations", escalationCount);
+            metrics.put("deferredEscalations", deferredEscalationCount);
+            metrics.put("deEscalations", deEscalationCount);
+            metrics.put("escalationConflicts", escalationConflictCount);
+            metrics.put("declaredAcquisitions", declaredAcquisitionCount);
+            metrics.put("declaredWaits", declaredWaitCount);
+            metrics.put("declaredTimeouts", declaredTimeoutCount);
+            return metrics;
+        } finally {
+            monitor.unlock();
+        }
+    }
 
-            if (otherTransactionHasLock) {
-                return false;
-            }
+    /**
+     * Number of resources currently locked (for debugging/monitoring)
+     */
+    public int getLockedResourceCount() {
+        monitor.lock();
+        try {
+            return lockTable.size();
+        } finally {
+            monitor.unlock();
+        }
+    }
 
-            Lock myLock = locks.stream()
-                    .filter(l -> l.getTransactionId().equals(txId))
-                    .findFirst()
-                    .orElse(null);
+    /**
+     * Release all locks held by a transaction. Only the resources recorded on the handle are
+     * visited, not the whole lock table.
+     */
+    private void releaseLocks(TransactionContext transaction, boolean committed) {
+        long txId = transaction.getTransactionId();
+        LongLongHashMap held = transaction.getHeldLocks();
+        monitor.lock();
+        try {
+            transaction.setLockPhase(LockPhase.SHRINKING);
+            settleEscrow(transaction, committed);
+
+            for (int i = held.nextSlot(-1); i >= 0; i = held.nextSlot(i)) {
+                long key = held.keyAt(i);
+                lockTable.release(key, txId);
+                if (LockKeys.isTable(key) && !escalations.isEmpty()) {
+                    unlinkEscalation(key, txId);
+                }
+            }
+            held.clear();
+            transaction.getRowLockCounts().clear();
+            if (declaredWaiters > 0) {
+                released.signalAll();
+            }
+        } finally {
+            monitor.unlock();
+        }
+    }
 
-            if (myLock != null) {
-                locks.remove(myLock);
+    private boolean tryAcquireLock(TransactionContext transaction, LockType lockType, long resourceKey) {
+        long txId = transaction.getTransactionId();
+        LongLongHashMap held = transaction.getHeldLocks();
+        monitor.lock();
+        try {
+            // The handle knows which locks this transaction already holds; an upgrade asks for
+            // the combination of the held and the requested mode.
+            long heldOrdinal = held.get(resourceKey, -1);
+            LockType requested = lockType;
+            if (heldOrdinal >= 0) {
+                LockType current = TYPES[(int) heldOrdinal];
+                requested = current.combine(lockType);
+                if (requested == current) {
+                    return true;
+                }
+            }
+            boolean leavesEscrow = heldOrdinal == LockType.ESCROW.ordinal();
 
-                locks.add(new Lock(txId, LockType.EXCLUSIVE, resourceKey));
+            boolean compatible = lockTable.isCompatible(resourceKey, txId, requested);
+            if (!compatible && LockKeys.isTable(resourceKey) && escalations.containsKey(resourceKey)) {
+                compatible = deEscalateConflicting(resourceKey, txId, requested);
+            }
+            if (compatible) {
+                lockTable.grant(resourceKey, txId, requested);
+                held.put(resourceKey, requested.ordinal());
+                if (leavesEscrow) {
+                    // Now the row's only holder: the exact value is its own, the account is moot.
+                    escrowAccounts.remove(resourceKey);
+                    LongLongHashMap joined = transaction.getEscrowKeys(false);
+                    if (joined != null) {
+                        joined.remove(resourceKey);
+                    }
+                }
+                if (heldOrdinal < 0 && !LockKeys.isTable(resourceKey)) {
+                    LongLongHashMap counts = transaction.getRowLockCounts();
+                    long tableKey = LockKeys.tableOf(resourceKey);
+                    long count = counts.get(tableKey, 0);
+                    if (count >= 0) {
+                        counts.put(tableKey, count + 1);
+                    }
+                }
+                deadlockDetector.removeWaitFor(txId);
                 return true;
             }
 
+            lockTable.forEachConflict(resourceKey, txId, requested,
+                    holder -> deadlockDetector.addWaitFor(txId, holder));
+            deadlockDetector.detectDeadlock();
             return false;
+        } finally {
+            monitor.unlock();
+        }
+    }
+
+    /**
+     * Escalates the transaction's row-level locks on a table to one table lock once their number
+     * reaches the threshold. Caller holds the monitor and has just added row locks.
+     */
+    private void maybeEscalate(TransactionContext transaction, long tableKey) {
+        long count = transaction.getRowLockCounts().get(tableKey, 0);
+        if (escalationThreshold <= 0 || count < escalationThreshold) {
+            return;
+        }
+        long txId = transaction.getTransactionId();
+        LockType previous = heldMode(transaction, tableKey);
+        LockType target = previous == LockType.INTENTION_SHARED ? LockType.SHARED : LockType.EXCLUSIVE;
+        if (!lockTable.isCompatible(tableKey, txId, target)) {
+            deferredEscalationCount++;
+            LOGGER.debug("Escalation of {} row locks on table {} deferred: table is in use", count, tableKey >>> 48);
+            return;
         }
+
+        Escalation escalation = findEscalation(tableKey, txId);
+        if (escalation == null) {
+            escalation = new Escalation(transaction, previous);
+            escalation.next = escalations.get(tableKey);
+            escalations.put(tableKey, escalation);
+        }
+        LongLongHashMap held = transaction.getHeldLocks();
+        LongLongHashMap parked = escalation.rows;
+        int before = parked.size();
+        for (int i = held.nextSlot(-1); i >= 0; i = held.nextSlot(i)) {
+            long key = held.keyAt(i);
+            if (!LockKeys.isTable(key) && LockKeys.tableOf(key) == tableKey) {
+                parked.put(key, held.valueAt(i));
+            }
+        }
+        // Removing during the slot walk would shift entries under it, so remove afterwards.
+        for (int i = parked.nextSlot(-1); i >= 0; i = parked.nextSlot(i)) {
+            long key = parked.keyAt(i);
+            if (held.remove(key)) {
+                lockTable.release(key, txId);
+            }
+        }
+        lockTable.grant(tableKey, txId, target);
+        held.put(tableKey, target.ordinal());
+        escalationCount++;
+        LOGGER.debug("Escalated {} row locks on table {} to {}", parked.size() - before, tableKey >>> 48, target);
     }
 
-    private boolean tryAcquireLock(String txId, LockType lockType, String resourceKey) {
-        synchronized (lockTable) {
-            List<Lock> existingLocks = lockTable.getOrDefault(resourceKey, new ArrayList<>());
+    /**
+     * Records a row the transaction touched under its escalated table lock, which took no row
+     * lock for it, so undoing the escalation grants it back like the rows the escalation replaced.
+     * An increment is recorded as X: under the table lock the transaction joined no escrow
+     * account, so it must remain the row's only writer.
+     */
+    private void parkUnderEscalation(TransactionContext transaction, long tableKey, long key, long[] secondaryKeys,
+                                     LockType rowLock) {
+        Escalation escalation = findEscalation(tableKey, transaction.getTransactionId());
+        if (escalation == null) {
+            return;
+        }
+        LockType mode = rowLock == LockType.ESCROW ? LockType.EXCLUSIVE : rowLock;
+        park(escalation.rows, key, mode);
+        for (long secondary : secondaryKeys) {
+            park(escalation.rows, secondary, mode);
+        }
+    }
 
-            List<Lock> otherLocks = existingLocks.stream()
-                    .filter(lock -> !lock.getTransactionId().equals(txId))
-                    .collect(Collectors.toList());
+    private static void park(LongLongHashMap parked, long key, LockType mode) {
+        long ordinal = parked.get(key, -1);
+        parked.put(key, ordinal < 0 ? mode.ordinal() : TYPES[(int) ordinal].combine(mode).ordinal());
+    }
 
-            Optional<Lock> selfLock = existingLocks.stream()
-                    .filter(lock -> lock.getTransactionId().equals(txId))
-                    .findFirst();
+    /**
+     * Undoes every escalation on {@code tableKey} whose table lock conflicts with {@code requested},
+     * and reports whether the request is compatible afterwards. Only intention requests benefit:
+     * a table-level request conflicts with the restored intention locks just the same.
+     */
+    private boolean deEscalateConflicting(long tableKey, long txId, LockType requested) {
+        escalationConflictCount++;
+        if (requested != LockType.INTENTION_SHARED && requested != LockType.INTENTION_EXCLUSIVE) {
+            return false;
+        }
+        Escalation e = escalations.get(tableKey);
+        while (e != null) {
+            Escalation next = e.next;
+            if (e.owner.getTransactionId() != txId && !requested.isCompatibleWith(heldMode(e.owner, tableKey))) {
+                deEscalate(tableKey, e);
+            }
+            e = next;
+        }
+        return lockTable.isCompatible(tableKey, txId, requested);
+    }
 
-            if (selfLock.isPresent()) {
-                if (selfLock.get().getType() == LockType.EXCLUSIVE) {
-                    return true;
-                }
-                if (selfLock.get().getType() == LockType.SHARED && lockType == LockType.SHARED) {
-                    return true;
-                }
-                if (selfLock.get().getType() == LockType.SHARED && lockType == LockType.EXCLUSIVE) {
-                    return tryUpgradeLock(txId, resourceKey);
-                }
+    private void deEscalate(long tableKey, Escalation escalation) {
+        TransactionContext owner = escalation.owner;
+        long ownerId = owner.getTransactionId();
+        LongLongHashMap held = owner.getHeldLocks();
+        LongLongHashMap parked = escalation.rows;
+        // While the table was escalated nobody else could take a conflicting row lock, so the
+        // parked rows can be granted back unconditionally.
+        for (int i = parked.nextSlot(-1); i >= 0; i = parked.nextSlot(i)) {
+            long key = parked.keyAt(i);
+            long ordinal = parked.valueAt(i);
+            long current = held.get(key, -1);
+            if (current >= 0) {
+                ordinal = TYPES[(int) current].combine(TYPES[(int) ordinal]).ordinal();
             }
+            lockTable.grant(key, ownerId, TYPES[(int) ordinal]);
+            held.put(key, ordinal);
+        }
+        LockType restored = escalation.previousMode.combine(intentionOf(heldMode(owner, tableKey)));
+        lockTable.grant(tableKey, ownerId, restored);
+        held.put(tableKey, restored.ordinal());
+        owner.getRowLockCounts().put(tableKey, -1);
+        unlinkEscalation(tableKey, ownerId);
+        deEscalationCount++;
+        LOGGER.debug("De-escalated table {} of transaction {} back to {} ({} row locks)",
+                tableKey >>> 48, ownerId, restored, parked.size());
+    }
 
-            if (isCompatible(lockType, otherLocks)) {
-                Lock newLock = new Lock(txId, lockType, resourceKey);
-                lockTable.computeIfAbsent(resourceKey, k -> new ArrayList<>()).add(newLock);
-                deadlockDetector.removeTransaction(txId);
-                return true;
-            } else {
-                for (Lock lock : otherLocks) {
-                    deadlockDetector.addWaitFor(txId, lock.getTransactionId());
-                }
+    /**
+     * The intention mode announcing the row-level work {@code mode} stands for.
+     */
+    private static LockType intentionOf(LockType mode) {
+        return mode == LockType.INTENTION_SHARED || mode == LockType.SHARED
+                ? LockType.INTENTION_SHARED
+                : LockType.INTENTION_EXCLUSIVE;
+    }
 
-                try {
-                    deadlockDetector.detectDeadlock();
-                    return false;
-                } catch (DeadlockException e) {
-                    throw e;
+    private Escalation findEscalation(long tableKey, long txId) {
+        for (Escalation e = escalations.get(tableKey); e != null; e = e.next) {
+            if (e.owner.getTransactionId() == txId) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private void unlinkEscalation(long tableKey, long txId) {
+        Escalation head = escalations.get(tableKey);
+        Escalation previous = null;
+        for (Escalation e = head; e != null; previous = e, e = e.next) {
+            if (e.owner.getTransactionId() == txId) {
+                if (previous != null) {
+                    previous.next = e.next;
+                } else if (e.next != null) {
+                    escalations.put(tableKey, e.next);
+                } else {
+                    escalations.remove(tableKey);
                 }
+                return;
             }
         }
     }
-}
 
+    /**
+     * One transaction's escalated table: the mode it held before escalating and the row-level
+     * locks the table lock replaced or covered since (key to mode ordinal), kept so the
+     * escalation can be undone.
+     */
+    private static final class Escalation {
+        final TransactionContext owner;
+        final LockType previousMode;
+        final LongLongHashMap rows = new LongLongHashMap();
+        Escalation next;
+
+        Escalation(TransactionContext owner, LockType previousMode) {
+            this.owner = owner;
+            this.previousMode = previousMode;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.example.springproject.transaction.schema;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Compact, immutable row image holding only a subset of a table's columns: a column bit mask
+ * plus the values of those columns in ordinal order. Compared with keeping the caller's row map
+ * it costs one small array per operation, and the values are already in the bind order of the
+ * table's cached undo statements.
+ * <p>
+ * It is a read-only {@link Map} so code that only needs name/value pairs (WAL, audit) works
+ * unchanged.
+ */
+public final class ColumnImage extends AbstractMap<String, Object> {
+
+    private final TableSchema table;
+    private final long mask;
+    private final Object[] values;
+
+    private ColumnImage(TableSchema table, long mask, Object[] values) {
+        this.table = table;
+        this.mask = mask;
+        this.values = values;
+    }
+
+    /**
+     * Copies the columns in {@code mask} out of {@code row}. Columns the row does not contain
+     * are left out of the image.
+     */
+    public static ColumnImage capture(TableSchema table, Map<String, Object> row, long mask) {
+        long present = 0;
+        for (long bits = mask; bits != 0; bits &= bits - 1) {
+            int index = Long.numberOfTrailingZeros(bits);
+            if (row.containsKey(table.getColumns().get(index))) {
+                present |= 1L << index;
+            }
+        }
+        Object[] values = new Object[Long.bitCount(present)];
+        int i = 0;
+        for (long bits = present; bits != 0; bits &= bits - 1) {
+            values[i++] = row.get(table.getColumns().get(Long.numberOfTrailingZeros(bits)));
+        }
+        return new ColumnImage(table, present, values);
+    }
+
+    /**
+     * Copies every column of {@code row} that belongs to the table.
+     */
+    public static ColumnImage of(TableSchema table, Map<String, Object> row) {
+        long mask = 0;
+        for (String column : row.keySet()) {
+            int index = table.indexOf(column);
+            if (index >= 0) {
+                mask |= 1L << index;
+            }
+        }
+        return capture(table, row, mask);
+    }
+
+    public TableSchema getTable() {
+        return table;
+    }
+
+    public long getMask() {
+        return mask;
+    }
+
+    /**
+     * Value of the {@code rank}-th column of the mask (ordinal order).
+     */
+    public Object valueAt(int rank) {
+        return values[rank];
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String column && rankOf(column) >= 0;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (!(key instanceof String column)) {
+            return null;
+        }
+        int rank = rankOf(column);
+        return rank >= 0 ? values[rank] : null;
+    }
+
+    private int rankOf(String column) {
+        int index = table.indexOf(column);
+        if (index < 0 || (mask & (1L << index)) == 0) {
+            return -1;
+        }
+        return Long.bitCount(mask & ((1L << index) - 1));
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new Iterator<>() {
+                    private long remaining = mask;
+                    private int rank;
+
+                    @Override
+                    public boolean hasNext() {
+                        return remaining != 0;
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (remaining == 0) {
+                            throw new NoSuchElementException();
+                        }
+                        int index = Long.numberOfTrailingZeros(remaining);
+                        remaining &= remaining - 1;
+                        return new SimpleImmutableEntry<>(table.getColumns().get(index), values[rank++]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+}
@@ -0,0 +1,214 @@
+package org.example.springproject.transaction.schema;
+
+import jakarta.annotation.PostConstruct;
+import org.example.springproject.transaction.Participant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Table metadata for every participant, read once from {@link DatabaseMetaData}: which
+ * participant owns a table, its primary key and column order, and its cached undo statements.
+ * <p>
+ * Replaces the hard-coded table switches that used to live in the coordinator, the rollback
+ * manager and {@code SchemaUtils}. If a database is unreachable at startup the registry stays
+ * empty and is loaded again on first use.
+ */
+@Component
+public class SchemaRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchemaRegistry.class);
+
+    private final Map<String, JdbcTemplate> jdbcTemplates;
+
+    private volatile Snapshot snapshot;
+    /** Serializes the first load, which reads JDBC metadata; a lock rather than a monitor so a virtual thread is not pinned meanwhile. */
+    private final ReentrantLock loadLock = new ReentrantLock();
+
+    @Autowired
+    public SchemaRegistry(@Qualifier("jdbcTemplates") Map<String, JdbcTemplate> jdbcTemplates) {
+        this.jdbcTemplates = jdbcTemplates;
+    }
+
+    private SchemaRegistry(Snapshot snapshot) {
+        this.jdbcTemplates = Collections.emptyMap();
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * A registry over fixed table definitions, without database access.
+     */
+    public static SchemaRegistry of(TableSchema... tables) {
+        return new SchemaRegistry(Snapshot.of(List.of(tables)));
+    }
+
+    @PostConstruct
+    public void load() {
+        try {
+            snapshot = readSnapshot();
+            LOGGER.info("Schema registry loaded {} tables", snapshot.tables.values().stream().mapToInt(Map::size).sum());
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.warn("Schema registry could not read database metadata ({}); will retry on first use", e.getMessage());
+        }
+    }
+
+    /**
+     * The participant that owns {@code tableName}.
+     *
+     * @throws IllegalArgumentException if no participant, or more than one, has the table.
+     */
+    public Participant participantOf(String tableName) {
+        Snapshot current = ensureLoaded();
+        Participant participant = current.routing.get(tableName);
+        if (participant == null) {
+            participant = current.routing.get(tableName.toLowerCase(Locale.ROOT));
+        }
+        if (participant == null) {
+            if (current.ambiguous.contains(tableName.toLowerCase(Locale.ROOT))) {
+                throw new IllegalArgumentException("Table exists in more than one participant: " + tableName);
+            }
+            throw new IllegalArgumentException("Unknown table name: " + tableName);
+        }
+        return participant;
+    }
+
+    public TableSchema table(String tableName) {
+        return table(participantOf(tableName), tableName);
+    }
+
+    public TableSchema table(Participant participant, String tableName) {
+        Map<String, TableSchema> tables = ensureLoaded().tables.getOrDefault(participant, Collections.emptyMap());
+        TableSchema table = tables.get(tableName);
+        if (table == null) {
+            table = tables.get(tableName.toLowerCase(Locale.ROOT));
+        }
+        if (table == null) {
+            throw new IllegalArgumentException("Unknown table " + tableName + " in " + participant.getDatabaseName());
+        }
+        return table;
+    }
+
+    private Snapshot ensureLoaded() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        loadLock.lock();
+        try {
+            if (snapshot == null) {
+                try {
+                    snapshot = readSnapshot();
+                } catch (SQLException e) {
+                    throw new IllegalStateException("Schema registry unavailable: " + e.getMessage(), e);
+                }
+            }
+            return snapshot;
+        } finally {
+            loadLock.unlock();
+        }
+    }
+
+    private Snapshot readSnapshot() throws SQLException {
+        List<TableSchema> tables = new ArrayList<>();
+        for (Participant participant : Participant.values()) {
+            JdbcTemplate jdbcTemplate = jdbcTemplates.get(participant.getDatabaseName());
+            DataSource dataSource = jdbcTemplate != null ? jdbcTemplate.getDataSource() : null;
+            if (dataSource == null) {
+                throw new SQLException("No data source for " + participant.getDatabaseName());
+            }
+            try (Connection connection = dataSource.getConnection()) {
+                tables.addAll(readTables(participant, connection.getMetaData(), connection.getSchema()));
+            }
+        }
+        return Snapshot.of(tables);
+    }
+
+    private static List<TableSchema> readTables(Participant participant, DatabaseMetaData metaData, String schema)
+            throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (ResultSet rs = metaData.getTables(null, schema, "%", new String[]{"TABLE"})) {
+            while (rs.next()) {
+                names.add(rs.getString("TABLE_NAME"));
+            }
+        }
+
+        List<TableSchema> tables = new ArrayList<>(names.size());
+        for (String name : names) {
+            String primaryKey = null;
+            try (ResultSet rs = metaData.getPrimaryKeys(null, schema, name)) {
+                // Composite keys are not used by any participant table; the first column is kept.
+                while (rs.next()) {
+                    if (rs.getShort("KEY_SEQ") == 1) {
+                        primaryKey = rs.getString("COLUMN_NAME");
+                    }
+                }
+            }
+            if (primaryKey == null) {
+                LOGGER.debug("Skipping {}.{}: no primary key", participant, name);
+                continue;
+            }
+
+            List<String> columns = new ArrayList<>();
+            boolean generatedKey = false;
+            try (ResultSet rs = metaData.getColumns(null, schema, name, "%")) {
+                while (rs.next()) {
+                    String column = rs.getString("COLUMN_NAME");
+                    columns.add(column);
+                    if (column.equalsIgnoreCase(primaryKey)) {
+                        generatedKey = "YES".equalsIgnoreCase(rs.getString("IS_AUTOINCREMENT"));
+                    }
+                }
+            }
+            tables.add(new TableSchema(participant, name, columns, primaryKey, generatedKey));
+        }
+        return tables;
+    }
+
+    private static final class Snapshot {
+        private final Map<Participant, Map<String, TableSchema>> tables;
+        private final Map<String, Participant> routing;
+        private final Set<String> ambiguous;
+
+        private Snapshot(Map<Participant, Map<String, TableSchema>> tables, Map<String, Participant> routing,
+                         Set<String> ambiguous) {
+            this.tables = tables;
+            this.routing = routing;
+            this.ambiguous = ambiguous;
+        }
+
+        private static Snapshot of(List<TableSchema> tableList) {
+            Map<Participant, Map<String, TableSchema>> tables = new EnumMap<>(Participant.class);
+            Map<String, Participant> routing = new HashMap<>();
+            Set<String> ambiguous = new HashSet<>();
+            for (TableSchema table : tableList) {
+                tables.computeIfAbsent(table.getParticipant(), k -> new HashMap<>()).put(table.getName(), table);
+                Participant previous = routing.putIfAbsent(table.getName(), table.getParticipant());
+                if (previous != null && previous != table.getParticipant()) {
+                    ambiguous.add(table.getName());
+                }
+            }
+            // Tables present in several participants (e.g. two_phase_commit_log) cannot be routed by name.
+            ambiguous.forEach(routing::remove);
+            return new Snapshot(tables, routing, ambiguous);
+        }
+    }
+}
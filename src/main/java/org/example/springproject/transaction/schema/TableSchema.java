@@ -0,0 +1,219 @@
+package org.example.springproject.transaction.schema;
+
+import org.example.springproject.transaction.Participant;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable description of one participant table, plus the parameterized undo statements
+ * derived from it. Column subsets are addressed by a bit mask over the column ordinals, so
+ * the statement for a given set of columns is rendered once and then served from a cache.
+ * Tables are therefore limited to 64 columns.
+ */
+public final class TableSchema {
+
+    private static final AtomicInteger IDS = new AtomicInteger();
+
+    private final int id = IDS.getAndIncrement() & 0xFFFF;
+    private final Participant participant;
+    private final String name;
+    private final List<String> columns;
+    private final Map<String, Integer> columnIndex;
+    private final String primaryKey;
+    private final int primaryKeyIndex;
+    private final boolean generatedKey;
+    private final String deleteByPrimaryKeySql;
+
+    private final Map<Long, String> updateSqlCache = new ConcurrentHashMap<>();
+    private final Map<Long, String> insertSqlCache = new ConcurrentHashMap<>();
+    private final Map<Long, String> incrementSqlCache = new ConcurrentHashMap<>();
+    private final Map<Integer, String> boundedDecrementSqlCache = new ConcurrentHashMap<>();
+    private final Map<String, Long> updatedColumnsCache = new ConcurrentHashMap<>();
+
+    public TableSchema(Participant participant, String name, List<String> columns, String primaryKey, boolean generatedKey) {
+        this.participant = participant;
+        this.name = name.toLowerCase(Locale.ROOT);
+        if (columns.size() > Long.SIZE) {
+            throw new IllegalArgumentException(name + " has more than " + Long.SIZE + " columns");
+        }
+        this.columns = List.copyOf(columns.stream().map(c -> c.toLowerCase(Locale.ROOT)).toList());
+        Map<String, Integer> index = new HashMap<>();
+        for (int i = 0; i < this.columns.size(); i++) {
+            index.put(this.columns.get(i), i);
+        }
+        this.columnIndex = Collections.unmodifiableMap(index);
+        this.primaryKey = primaryKey.toLowerCase(Locale.ROOT);
+        Integer pk = columnIndex.get(this.primaryKey);
+        if (pk == null) {
+            throw new IllegalArgumentException("Primary key " + primaryKey + " is not a column of " + name);
+        }
+        this.primaryKeyIndex = pk;
+        this.generatedKey = generatedKey;
+        this.deleteByPrimaryKeySql = "DELETE FROM " + this.name + " WHERE " + this.primaryKey + " = ?";
+    }
+
+    /**
+     * Small process-local number identifying this table in lock keys. Only 16 bits are kept;
+     * if more schemas than that are ever built, two tables may share an id, which can only
+     * cause spurious lock conflicts, never missed ones.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public Participant getParticipant() {
+        return participant;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Columns in ordinal (table definition) order.
+     */
+    public List<String> getColumns() {
+        return columns;
+    }
+
+    public String getPrimaryKey() {
+        return primaryKey;
+    }
+
+    /**
+     * True if the database assigns the primary key (serial/identity); false for tables whose
+     * key is supplied by the application, such as {@code inventory_transactions}.
+     */
+    public boolean hasGeneratedKey() {
+        return generatedKey;
+    }
+
+    /**
+     * Ordinal of a column, or -1 if the table has no such column. Exact (lower-case) names hit
+     * the map directly; other spellings are normalized first.
+     */
+    public int indexOf(String column) {
+        Integer index = columnIndex.get(column);
+        if (index == null) {
+            index = columnIndex.get(column.toLowerCase(Locale.ROOT));
+        }
+        return index != null ? index : -1;
+    }
+
+    public int getPrimaryKeyIndex() {
+        return primaryKeyIndex;
+    }
+
+    /**
+     * Mask of the columns an UPDATE statement on this table assigns, parsed once per SQL string.
+     * Returns 0 if the statement could not be parsed or names a column the table does not have.
+     */
+    public long updatedColumns(String updateSql) {
+        return updatedColumnsCache.computeIfAbsent(updateSql, sql -> {
+            List<String> assigned = UpdateStatementParser.assignedColumns(sql);
+            if (assigned == null) {
+                return 0L;
+            }
+            long mask = 0;
+            for (String column : assigned) {
+                int index = indexOf(column);
+                if (index < 0) {
+                    return 0L;
+                }
+                mask |= 1L << index;
+            }
+            return mask;
+        });
+    }
+
+    public String deleteByPrimaryKeySql() {
+        return deleteByPrimaryKeySql;
+    }
+
+    /**
+     * {@code UPDATE t SET c1 = ?, c2 = ? WHERE pk = ?} for the columns in {@code mask},
+     * in ordinal order. The primary key must not be part of the mask.
+     */
+    public String updateSql(long mask) {
+        return updateSqlCache.computeIfAbsent(mask, this::renderUpdate);
+    }
+
+    /**
+     * {@code INSERT INTO t (c1, c2) VALUES (?, ?)} for the columns in {@code mask}, in ordinal order.
+     */
+    public String insertSql(long mask) {
+        return insertSqlCache.computeIfAbsent(mask, this::renderInsert);
+    }
+
+    /**
+     * {@code UPDATE t SET c1 = c1 + ?, c2 = c2 + ? WHERE pk = ?} for the columns in {@code mask},
+     * in ordinal order.
+     */
+    public String incrementSql(long mask) {
+        return incrementSqlCache.computeIfAbsent(mask, this::renderIncrement);
+    }
+
+    /**
+     * {@code UPDATE t SET c = c + ? WHERE pk = ? AND c + ? >= ?}: adds a (negative) delta unless
+     * the column would drop below a floor. Parameters are delta, key, delta, floor.
+     */
+    public String boundedDecrementSql(int column) {
+        return boundedDecrementSqlCache.computeIfAbsent(column, c -> renderIncrement(1L << c)
+                + " AND " + columns.get(c) + " + ? >= ?");
+    }
+
+    private String renderIncrement(long mask) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(name).append(" SET ");
+        boolean first = true;
+        for (int i = 0; i < columns.size(); i++) {
+            if ((mask & (1L << i)) != 0) {
+                if (!first) sql.append(", ");
+                sql.append(columns.get(i)).append(" = ").append(columns.get(i)).append(" + ?");
+                first = false;
+            }
+        }
+        return sql.append(" WHERE ").append(primaryKey).append(" = ?").toString();
+    }
+
+    private String renderUpdate(long mask) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(name).append(" SET ");
+        boolean first = true;
+        for (int i = 0; i < columns.size(); i++) {
+            if ((mask & (1L << i)) != 0) {
+                if (!first) sql.append(", ");
+                sql.append(columns.get(i)).append(" = ?");
+                first = false;
+            }
+        }
+        return sql.append(" WHERE ").append(primaryKey).append(" = ?").toString();
+    }
+
+    private String renderInsert(long mask) {
+        StringBuilder sql = new StringBuilder("INSERT INTO ").append(name).append(" (");
+        StringBuilder values = new StringBuilder("VALUES (");
+        boolean first = true;
+        for (int i = 0; i < columns.size(); i++) {
+            if ((mask & (1L << i)) != 0) {
+                if (!first) {
+                    sql.append(", ");
+                    values.append(", ");
+                }
+                sql.append(columns.get(i));
+                values.append("?");
+                first = false;
+            }
+        }
+        return sql.append(") ").append(values).append(")").toString();
+    }
+
+    @Override
+    public String toString() {
+        return participant + "." + name + columns;
+    }
+}
@@ -0,0 +1,78 @@
+package org.example.springproject.transaction.schema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Extracts the assigned column names from the SET clause of an UPDATE statement. Handles
+ * expressions with parentheses and quoted literals ({@code name = CONCAT('a, b', name)});
+ * returns null when the statement is not a simple single-table UPDATE.
+ */
+final class UpdateStatementParser {
+
+    private UpdateStatementParser() {
+    }
+
+    static List<String> assignedColumns(String sql) {
+        int set = indexOfKeyword(sql, "SET", 0);
+        if (set < 0 || !sql.regionMatches(true, 0, "UPDATE", 0, 6)) {
+            return null;
+        }
+        int where = indexOfKeyword(sql, "WHERE", set + 3);
+        String clause = sql.substring(set + 3, where < 0 ? sql.length() : where);
+
+        List<String> columns = new ArrayList<>();
+        int depth = 0;
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i <= clause.length(); i++) {
+            char c = i < clause.length() ? clause.charAt(i) : ',';
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && c == '(') {
+                depth++;
+            } else if (!quoted && c == ')') {
+                depth--;
+            } else if (!quoted && depth == 0 && c == ',') {
+                String assignment = clause.substring(start, i);
+                int eq = assignment.indexOf('=');
+                if (eq < 0) {
+                    return null;
+                }
+                String column = assignment.substring(0, eq).trim();
+                int dot = column.lastIndexOf('.');
+                if (dot >= 0) {
+                    column = column.substring(dot + 1);
+                }
+                columns.add(column.replace("\"", "").toLowerCase(Locale.ROOT));
+                start = i + 1;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Position of {@code keyword} as a whole word outside quotes and parentheses, or -1.
+     */
+    private static int indexOfKeyword(String sql, String keyword, int from) {
+        int depth = 0;
+        boolean quoted = false;
+        for (int i = from; i <= sql.length() - keyword.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && c == '(') {
+                depth++;
+            } else if (!quoted && c == ')') {
+                depth--;
+            } else if (!quoted && depth == 0 && sql.regionMatches(true, i, keyword, 0, keyword.length())
+                    && (i == 0 || !Character.isLetterOrDigit(sql.charAt(i - 1)))
+                    && (i + keyword.length() == sql.length()
+                        || !Character.isLetterOrDigit(sql.charAt(i + keyword.length())))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
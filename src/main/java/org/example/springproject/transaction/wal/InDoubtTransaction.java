@@ -0,0 +1,46 @@
+package org.example.springproject.transaction.wal;
+
+import org.example.springproject.transaction.TransactionOperation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A transaction rebuilt from the write-ahead log, with its undo records in execution order.
+ */
+public class InDoubtTransaction {
+
+    private final long transactionId;
+    private final long firstSegment;
+    private final List<TransactionOperation> operations = new ArrayList<>();
+
+    InDoubtTransaction(long transactionId, long firstSegment) {
+        this.transactionId = transactionId;
+        this.firstSegment = firstSegment;
+    }
+
+    void addOperation(TransactionOperation operation) {
+        operations.add(operation);
+    }
+
+    public long getTransactionId() {
+        return transactionId;
+    }
+
+    /**
+     * Sequence of the oldest segment holding one of the undo records.
+     */
+    public long getFirstSegment() {
+        return firstSegment;
+    }
+
+    /**
+     * Undo records newest first, as compensation must apply them.
+     */
+    public List<TransactionOperation> getOperationsInReverseOrder() {
+        List<TransactionOperation> reversed = new ArrayList<>(operations);
+        Collections.reverse(reversed);
+        return reversed;
+    }
+}
@@ -0,0 +1,241 @@
+package org.example.springproject.transaction.wal;
+
+import org.example.springproject.transaction.TransactionOperation;
+
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary encoding of WAL records.
+ * <pre>
+ * record  := length:int crc:int payload[length]
+ * payload := type:byte txId:long body
+ * UNDO       body := opType:byte database:str table:str key:value before:map after:map
+ * AUTONOMOUS_UNDO body := same as UNDO
+ * COMMITTING body := (empty)
+ * END        body := committed:byte
+ * CHECKPOINT body := oldestLiveSegment:long (transaction id is 0)
+ * </pre>
+ * The CRC covers the segment sequence number followed by the payload, so records left over
+ * in a recycled segment file never validate under the segment's new sequence number.
+ */
+final class WalCodec {
+
+    static final int HEADER_BYTES = 8;
+
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte STRING = 3;
+    private static final byte DECIMAL = 4;
+    private static final byte DOUBLE = 5;
+    private static final byte BOOLEAN = 6;
+    private static final byte TIMESTAMP = 7;
+    private static final byte LOCAL_DATE_TIME = 8;
+    private static final byte LOCAL_DATE = 9;
+
+    private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal.withInitial(() -> ByteBuffer.allocate(4096));
+
+    private WalCodec() {
+    }
+
+    static ByteBuffer encodeUndo(TransactionOperation operation) {
+        ByteBuffer buffer = SCRATCH.get();
+        while (true) {
+            try {
+                buffer.clear();
+                buffer.put((operation.isAutonomous() ? WalRecordType.AUTONOMOUS_UNDO : WalRecordType.UNDO).getCode());
+                buffer.putLong(operation.getTransactionId());
+                buffer.put((byte) operation.getType().ordinal());
+                putString(buffer, operation.getDatabase());
+                putString(buffer, operation.getTableName());
+                putValue(buffer, operation.getPrimaryKeyValue());
+                putMap(buffer, operation.getBeforeImage());
+                putMap(buffer, operation.getAfterImage());
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() << 1);
+                SCRATCH.set(buffer);
+            }
+        }
+    }
+
+    static ByteBuffer encodeControl(WalRecordType type, long transactionId, boolean committed) {
+        ByteBuffer buffer = SCRATCH.get();
+        buffer.clear();
+        buffer.put(type.getCode());
+        buffer.putLong(transactionId);
+        if (type == WalRecordType.END) {
+            buffer.put((byte) (committed ? 1 : 0));
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Checkpoints are written while rolling a segment, i.e. in the middle of another append, so
+     * they must not use the thread's scratch buffer.
+     */
+    static ByteBuffer encodeCheckpoint(long oldestLiveSegment) {
+        ByteBuffer buffer = ByteBuffer.allocate(1 + Long.BYTES + Long.BYTES);
+        buffer.put(WalRecordType.CHECKPOINT.getCode());
+        buffer.putLong(0L);
+        buffer.putLong(oldestLiveSegment);
+        buffer.flip();
+        return buffer;
+    }
+
+    static int crc(long segmentSequence, ByteBuffer payload) {
+        CRC32C crc = new CRC32C();
+        ByteBuffer seq = ByteBuffer.allocate(Long.BYTES).putLong(0, segmentSequence);
+        crc.update(seq);
+        crc.update(payload.duplicate());
+        return (int) crc.getValue();
+    }
+
+    static WalRecordType readType(ByteBuffer payload) {
+        return WalRecordType.fromCode(payload.get());
+    }
+
+    static long readTransactionId(ByteBuffer payload) {
+        return payload.getLong();
+    }
+
+    static ByteBuffer encodeParticipantCommitted(long transactionId, String database) {
+        ByteBuffer buffer = SCRATCH.get();
+        buffer.clear();
+        buffer.put(WalRecordType.PARTICIPANT_COMMITTED.getCode());
+        buffer.putLong(transactionId);
+        putString(buffer, database);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Database of a PARTICIPANT_COMMITTED record; the payload must be positioned after the
+     * transaction id.
+     */
+    static String decodeParticipantCommitted(ByteBuffer payload) {
+        return getString(payload);
+    }
+
+    /**
+     * Decodes the body of an UNDO record; the payload must be positioned after the transaction id.
+     */
+    static TransactionOperation decodeUndo(long transactionId, ByteBuffer payload) {
+        TransactionOperation.OperationType opType = TransactionOperation.OperationType.values()[payload.get()];
+        String database = getString(payload);
+        String table = getString(payload);
+        Object key = getValue(payload);
+        Map<String, Object> before = getMap(payload);
+        Map<String, Object> after = getMap(payload);
+        TransactionOperation operation = new TransactionOperation(transactionId, opType, database, table,
+                key, before, after, null);
+        operation.setExecuted(true);
+        return operation;
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putMap(ByteBuffer buffer, Map<String, Object> map) {
+        if (map == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        buffer.putInt(map.size());
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            putString(buffer, entry.getKey());
+            putValue(buffer, entry.getValue());
+        }
+    }
+
+    private static Map<String, Object> getMap(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        if (size < 0) {
+            return null;
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            map.put(getString(buffer), getValue(buffer));
+        }
+        return map;
+    }
+
+    private static void putValue(ByteBuffer buffer, Object value) {
+        if (value == null) {
+            buffer.put(NULL);
+        } else if (value instanceof Integer i) {
+            buffer.put(INT).putInt(i);
+        } else if (value instanceof Long l) {
+            buffer.put(LONG).putLong(l);
+        } else if (value instanceof BigDecimal d) {
+            buffer.put(DECIMAL);
+            putString(buffer, d.toPlainString());
+        } else if (value instanceof Double d) {
+            buffer.put(DOUBLE).putDouble(d);
+        } else if (value instanceof Boolean b) {
+            buffer.put(BOOLEAN).put((byte) (b ? 1 : 0));
+        } else if (value instanceof Timestamp t) {
+            buffer.put(TIMESTAMP).putLong(t.getTime()).putInt(t.getNanos());
+        } else if (value instanceof LocalDateTime t) {
+            buffer.put(LOCAL_DATE_TIME);
+            putString(buffer, t.toString());
+        } else if (value instanceof LocalDate d) {
+            buffer.put(LOCAL_DATE);
+            putString(buffer, d.toString());
+        } else {
+            buffer.put(STRING);
+            putString(buffer, value.toString());
+        }
+    }
+
+    private static Object getValue(ByteBuffer buffer) {
+        byte tag = buffer.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case INT:
+                return buffer.getInt();
+            case LONG:
+                return buffer.getLong();
+            case DECIMAL:
+                return new BigDecimal(getString(buffer));
+            case DOUBLE:
+                return buffer.getDouble();
+            case BOOLEAN:
+                return buffer.get() != 0;
+            case TIMESTAMP: {
+                Timestamp timestamp = new Timestamp(buffer.getLong());
+                timestamp.setNanos(buffer.getInt());
+                return timestamp;
+            }
+            case LOCAL_DATE_TIME:
+                return LocalDateTime.parse(getString(buffer));
+            case LOCAL_DATE:
+                return LocalDate.parse(getString(buffer));
+            case STRING:
+                return getString(buffer);
+            default:
+                throw new IllegalArgumentException("Unknown WAL value tag: " + tag);
+        }
+    }
+}
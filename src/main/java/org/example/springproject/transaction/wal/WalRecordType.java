@@ -0,0 +1,45 @@
+package org.example.springproject.transaction.wal;
+
+/**
+ * Record kinds written to the write-ahead log.
+ */
+public enum WalRecordType {
+    /** Before/after image of a data-modifying operation. */
+    UNDO((byte) 1),
+    /** Commit decision taken; phase 2 is about to start. Forced before any participant commits. */
+    COMMITTING((byte) 2),
+    /** The transaction is finished (committed everywhere, or fully rolled back / compensated). */
+    END((byte) 3),
+    /** Segments older than the recorded sequence hold no record of an unfinished transaction. */
+    CHECKPOINT((byte) 4),
+    /**
+     * Undo of a delta that was committed on its own connection (a combined decrement) rather
+     * than through the transaction's participants. Compensated unless the transaction ended.
+     */
+    AUTONOMOUS_UNDO((byte) 5),
+    /**
+     * One participant committed in phase 2. Written, and forced, only for participants with
+     * delta undo records: replaying a delta is not idempotent, so recovery replays those only
+     * for participants known to have committed.
+     */
+    PARTICIPANT_COMMITTED((byte) 6);
+
+    private final byte code;
+
+    WalRecordType(byte code) {
+        this.code = code;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public static WalRecordType fromCode(byte code) {
+        for (WalRecordType type : values()) {
+            if (type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown WAL record type: " + code);
+    }
+}
@@ -0,0 +1,60 @@
+package org.example.springproject.transaction.wal;
+
+import jakarta.annotation.PostConstruct;
+import org.example.springproject.transaction.CompensationResult;
+import org.example.springproject.transaction.RollbackManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Startup recovery: compensates transactions that were interrupted in phase 2 of the previous
+ * run, before the application starts accepting requests.
+ */
+@Component
+public class WalRecovery {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WalRecovery.class);
+
+    private final WriteAheadLog writeAheadLog;
+    private final RollbackManager rollbackManager;
+
+    public WalRecovery(WriteAheadLog writeAheadLog, RollbackManager rollbackManager) {
+        this.writeAheadLog = writeAheadLog;
+        this.rollbackManager = rollbackManager;
+    }
+
+    @PostConstruct
+    public void recover() {
+        List<InDoubtTransaction> inDoubt = writeAheadLog.getInDoubtTransactions();
+        if (!writeAheadLog.isEnabled() || inDoubt.isEmpty()) {
+            writeAheadLog.completeRecovery();
+            return;
+        }
+
+        long start = System.nanoTime();
+        int resolved = 0;
+        for (InDoubtTransaction transaction : inDoubt) {
+            try {
+                List<CompensationResult> results = rollbackManager.compensate(transaction.getOperationsInReverseOrder());
+                for (CompensationResult result : results) {
+                    if (!result.isSuccessful()) {
+                        throw result.getFailure();
+                    }
+                }
+                writeAheadLog.logRecovered(transaction.getTransactionId());
+                resolved++;
+                LOGGER.warn("Recovered in-doubt transaction {} by compensation: {}", transaction.getTransactionId(), results);
+            } catch (RuntimeException e) {
+                LOGGER.error("CRITICAL: Failed to recover in-doubt transaction {}; it will be retried on next start",
+                        transaction.getTransactionId(), e);
+            }
+        }
+
+        writeAheadLog.completeRecovery();
+        LOGGER.info("WAL recovery resolved {}/{} in-doubt transactions in {} ms",
+                resolved, inDoubt.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+}
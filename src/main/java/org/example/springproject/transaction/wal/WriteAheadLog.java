@@ -0,0 +1,482 @@
+package org.example.springproject.transaction.wal;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.example.springproject.transaction.TransactionOperation;
+import org.example.springproject.util.ConcurrentLongHashMap;
+import org.example.springproject.util.LongLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Durable, append-only write-ahead log of transaction undo information.
+ * <p>
+ * The log is a sequence of fixed-size, memory-mapped segment files. Undo records are appended
+ * (without forcing) as data-modifying operations complete. Before the coordinator commits any
+ * participant it appends a COMMITTING record and forces the log; after phase 2 it appends and
+ * forces an END record. Concurrent committers share a single {@code force()} (group fsync).
+ * <p>
+ * A transaction whose COMMITTING record is durable but whose END record is not was interrupted
+ * in phase 2, so some participants may hold its committed work: recovery compensates it from
+ * the undo records. Transactions without a COMMITTING record were never committed anywhere and
+ * have already been rolled back by the databases themselves.
+ */
+@Component
+public class WriteAheadLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private final boolean enabled;
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxRecycledSegments;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private Segment current;
+    private long writtenLsn;
+    private volatile long durableLsn;
+
+    /** Unfinished transactions with at least one record, mapped to the segment of their first record. */
+    private final ConcurrentLongHashMap<Long> liveTransactions = new ConcurrentLongHashMap<>();
+    private final Deque<Path> recycledSegments = new ArrayDeque<>();
+    private List<InDoubtTransaction> inDoubtTransactions = Collections.emptyList();
+
+    private final AtomicLong appendedRecords = new AtomicLong();
+    private final AtomicLong appendedBytes = new AtomicLong();
+    private final AtomicLong forces = new AtomicLong();
+    private final AtomicLong syncRequests = new AtomicLong();
+    private final AtomicLong recycledCount = new AtomicLong();
+
+    public WriteAheadLog(
+            @Value("${transaction.wal.enabled:true}") boolean enabled,
+            @Value("${transaction.wal.directory:wal}") String directory,
+            @Value("${transaction.wal.segment-size-bytes:16777216}") int segmentSize,
+            @Value("${transaction.wal.max-recycled-segments:4}") int maxRecycledSegments) {
+        this.enabled = enabled;
+        this.directory = Paths.get(directory);
+        this.segmentSize = segmentSize;
+        this.maxRecycledSegments = maxRecycledSegments;
+    }
+
+    /**
+     * Scans existing segments for in-doubt transactions and opens a fresh segment for appends.
+     */
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            LOGGER.info("Write-ahead log disabled");
+            return;
+        }
+        Files.createDirectories(directory);
+        List<Path> segments = listSegments();
+        inDoubtTransactions = scan(segments);
+        // Pins the segments of every in-doubt transaction until recovery has resolved it.
+        for (InDoubtTransaction transaction : inDoubtTransactions) {
+            liveTransactions.put(transaction.getTransactionId(), transaction.getFirstSegment());
+        }
+
+        long nextSequence = segments.isEmpty() ? 1 : sequenceOf(segments.get(segments.size() - 1)) + 1;
+        current = Segment.create(directory, nextSequence, segmentSize, null);
+        writtenLsn = lsn(current.sequence, 0);
+        durableLsn = writtenLsn;
+        LOGGER.info("Write-ahead log opened at {} (segment {}, {} in-doubt transactions)",
+                directory.toAbsolutePath(), nextSequence, inDoubtTransactions.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        if (!enabled || current == null) {
+            return;
+        }
+        appendLock.lock();
+        try {
+            current.buffer.force();
+            current.channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close WAL segment {}", current.path, e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Appends the undo record of a completed data-modifying operation. Not forced: the record
+     * becomes durable with the transaction's COMMITTING record at the latest.
+     */
+    public long appendUndo(TransactionOperation operation) {
+        if (!enabled) {
+            return 0;
+        }
+        return append(operation.getTransactionId(), WalCodec.encodeUndo(operation));
+    }
+
+    /**
+     * Logs the commit decision and returns once it (and every earlier record) is on disk.
+     */
+    public void logCommitting(long transactionId) {
+        if (!enabled) {
+            return;
+        }
+        sync(append(transactionId, WalCodec.encodeControl(WalRecordType.COMMITTING, transactionId, false)));
+    }
+
+    /**
+     * Logs that {@code database} committed in phase 2 and returns once the record is on disk.
+     * Only needed for participants with delta undo records; see
+     * {@link WalRecordType#PARTICIPANT_COMMITTED}. A crash between the participant's commit and
+     * this force leaves its deltas applied while recovery compensates the rest.
+     */
+    public void logParticipantCommitted(long transactionId, String database) {
+        if (!enabled || !liveTransactions.containsKey(transactionId)) {
+            return;
+        }
+        sync(append(transactionId, WalCodec.encodeParticipantCommitted(transactionId, database)));
+    }
+
+    /**
+     * Marks the transaction finished. Forced when the transaction had logged a commit decision,
+     * since recovery would otherwise compensate work that is already committed everywhere.
+     */
+    public void logEnd(long transactionId, boolean committed, boolean force) {
+        if (!enabled || !liveTransactions.containsKey(transactionId)) {
+            return;
+        }
+        long lsn = append(transactionId, WalCodec.encodeControl(WalRecordType.END, transactionId, committed));
+        liveTransactions.remove(transactionId);
+        if (force) {
+            sync(lsn);
+        }
+    }
+
+    /**
+     * Transactions found interrupted in phase 2, or holding autonomous work, when the log was opened.
+     */
+    public List<InDoubtTransaction> getInDoubtTransactions() {
+        return inDoubtTransactions;
+    }
+
+    /**
+     * Marks one in-doubt transaction compensated, so the next start does not compensate it again.
+     * Forced: replaying an autonomous increment twice would credit the stock twice.
+     */
+    public void logRecovered(long transactionId) {
+        logEnd(transactionId, false, true);
+    }
+
+    /**
+     * Called once recovery has run: the segments written by the previous run are recycled, except
+     * those still holding an in-doubt transaction that could not be resolved. Such a transaction
+     * stays registered as live and is found in doubt again on the next start.
+     */
+    public void completeRecovery() {
+        if (!enabled) {
+            return;
+        }
+        inDoubtTransactions = Collections.emptyList();
+        appendLock.lock();
+        try {
+            checkpoint();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until every record up to {@code lsn} is durable. Callers that arrive while another
+     * thread is forcing the log queue on the flush lock and usually find their record already
+     * covered when they get it, so a burst of commits costs one fsync.
+     */
+    public void sync(long lsn) {
+        if (!enabled) {
+            return;
+        }
+        syncRequests.incrementAndGet();
+        if (durableLsn >= lsn) {
+            return;
+        }
+        flushLock.lock();
+        try {
+            if (durableLsn >= lsn) {
+                return;
+            }
+            MappedByteBuffer buffer;
+            long target;
+            appendLock.lock();
+            try {
+                buffer = current.buffer;
+                target = writtenLsn;
+            } finally {
+                appendLock.unlock();
+            }
+            buffer.force();
+            forces.incrementAndGet();
+            durableLsn = Math.max(durableLsn, target);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled ? 1 : 0);
+        metrics.put("appendedRecords", appendedRecords.get());
+        metrics.put("appendedBytes", appendedBytes.get());
+        metrics.put("syncRequests", syncRequests.get());
+        metrics.put("forces", forces.get());
+        metrics.put("liveTransactions", liveTransactions.size());
+        metrics.put("recycledSegments", recycledCount.get());
+        return metrics;
+    }
+
+    private long append(long transactionId, ByteBuffer payload) {
+        int length = payload.remaining();
+        int recordSize = WalCodec.HEADER_BYTES + length;
+        if (recordSize + Integer.BYTES > segmentSize) {
+            throw new IllegalArgumentException("WAL record of " + recordSize + " bytes exceeds segment size " + segmentSize);
+        }
+
+        appendLock.lock();
+        try {
+            if (current.buffer.remaining() < recordSize + Integer.BYTES) {
+                roll();
+            }
+            liveTransactions.putIfAbsent(transactionId, current.sequence);
+
+            MappedByteBuffer buffer = current.buffer;
+            buffer.putInt(length);
+            buffer.putInt(WalCodec.crc(current.sequence, payload));
+            buffer.put(payload);
+            // Terminator so readers stop here even if the segment was recycled.
+            buffer.putInt(buffer.position(), 0);
+
+            writtenLsn = lsn(current.sequence, buffer.position());
+            appendedRecords.incrementAndGet();
+            appendedBytes.addAndGet(recordSize);
+            return writtenLsn;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Seals the current segment and continues in a new one. Caller holds the append lock.
+     */
+    private void roll() {
+        current.buffer.force();
+        try {
+            current.channel.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close WAL segment {}", current.path, e);
+        }
+        durableLsn = Math.max(durableLsn, writtenLsn);
+        long nextSequence = current.sequence + 1;
+        current = Segment.create(directory, nextSequence, segmentSize, recycledSegments.pollFirst());
+        writtenLsn = lsn(nextSequence, 0);
+        checkpoint();
+    }
+
+    /**
+     * Writes a CHECKPOINT record and recycles every segment older than the oldest segment still
+     * referenced by an unfinished transaction. Caller holds the append lock.
+     */
+    private void checkpoint() {
+        long oldestLive = current.sequence;
+        for (Long sequence : liveTransactions.values()) {
+            oldestLive = Math.min(oldestLive, sequence);
+        }
+
+        ByteBuffer payload = WalCodec.encodeCheckpoint(oldestLive);
+        MappedByteBuffer buffer = current.buffer;
+        if (buffer.remaining() >= WalCodec.HEADER_BYTES + payload.remaining() + Integer.BYTES) {
+            buffer.putInt(payload.remaining());
+            buffer.putInt(WalCodec.crc(current.sequence, payload));
+            buffer.put(payload);
+            buffer.putInt(buffer.position(), 0);
+            writtenLsn = lsn(current.sequence, buffer.position());
+        }
+
+        for (Path segment : listSegments()) {
+            if (sequenceOf(segment) >= oldestLive) {
+                break;
+            }
+            try {
+                if (recycledSegments.size() < maxRecycledSegments) {
+                    Path spare = directory.resolve("spare-" + sequenceOf(segment) + SEGMENT_SUFFIX);
+                    Files.move(segment, spare, StandardCopyOption.REPLACE_EXISTING);
+                    recycledSegments.addLast(spare);
+                } else {
+                    Files.deleteIfExists(segment);
+                }
+                recycledCount.incrementAndGet();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to recycle WAL segment {}", segment, e);
+            }
+        }
+    }
+
+    /**
+     * Two passes over the old segments: the first only reads record headers to find transactions
+     * with a commit decision, or with autonomous work, but no END; the second decodes the undo
+     * records to replay. Without a commit decision only the autonomous records are replayed:
+     * the rest of the transaction's work was never committed. Delta undo records (INCREMENT)
+     * are only replayed for participants logged as committed: the database discarded the delta
+     * of any other, and subtracting it again would not be harmless like restoring an image.
+     */
+    private List<InDoubtTransaction> scan(List<Path> segments) throws IOException {
+        LongLongHashMap committing = new LongLongHashMap();
+        LongLongHashMap autonomous = new LongLongHashMap();
+        Map<Long, Set<String>> committedParticipants = new HashMap<>();
+        readSegments(segments, (sequence, type, transactionId, payload) -> {
+            if (type == WalRecordType.COMMITTING) {
+                committing.put(transactionId, 1L);
+            } else if (type == WalRecordType.PARTICIPANT_COMMITTED) {
+                committedParticipants.computeIfAbsent(transactionId, id -> new HashSet<>())
+                        .add(WalCodec.decodeParticipantCommitted(payload));
+            } else if (type == WalRecordType.AUTONOMOUS_UNDO) {
+                autonomous.put(transactionId, 1L);
+            } else if (type == WalRecordType.END) {
+                committing.remove(transactionId);
+                autonomous.remove(transactionId);
+                committedParticipants.remove(transactionId);
+            }
+        });
+        if (committing.size() == 0 && autonomous.size() == 0) {
+            return Collections.emptyList();
+        }
+
+        Map<Long, InDoubtTransaction> inDoubt = new LinkedHashMap<>();
+        readSegments(segments, (sequence, type, transactionId, payload) -> {
+            boolean replay = type == WalRecordType.UNDO
+                    ? committing.containsKey(transactionId)
+                    : type == WalRecordType.AUTONOMOUS_UNDO
+                    && (committing.containsKey(transactionId) || autonomous.containsKey(transactionId));
+            if (replay) {
+                TransactionOperation operation = WalCodec.decodeUndo(transactionId, payload);
+                operation.setAutonomous(type == WalRecordType.AUTONOMOUS_UNDO);
+                if (!operation.isAutonomous() && operation.getType() == TransactionOperation.OperationType.INCREMENT
+                        && !committedParticipants.getOrDefault(transactionId, Set.of()).contains(operation.getDatabase())) {
+                    return;
+                }
+                inDoubt.computeIfAbsent(transactionId, id -> new InDoubtTransaction(id, sequence)).addOperation(operation);
+            }
+        });
+        return new ArrayList<>(inDoubt.values());
+    }
+
+    private void readSegments(List<Path> segments, RecordVisitor visitor) throws IOException {
+        for (Path segment : segments) {
+            long sequence = sequenceOf(segment);
+            try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (buffer.remaining() >= WalCodec.HEADER_BYTES) {
+                    int length = buffer.getInt();
+                    if (length <= 0 || length > buffer.remaining() - Integer.BYTES) {
+                        break;
+                    }
+                    int crc = buffer.getInt();
+                    ByteBuffer payload = buffer.slice(buffer.position(), length);
+                    if (WalCodec.crc(sequence, payload) != crc) {
+                        LOGGER.warn("WAL segment {} has a torn or stale record at offset {}", segment, buffer.position());
+                        break;
+                    }
+                    buffer.position(buffer.position() + length);
+
+                    WalRecordType type = WalCodec.readType(payload);
+                    visitor.visit(sequence, type, WalCodec.readTransactionId(payload), payload);
+                }
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RecordVisitor {
+        void visit(long sequence, WalRecordType type, long transactionId, ByteBuffer payload);
+    }
+
+    private List<Path> listSegments() {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted()
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list WAL segments in " + directory, e);
+        }
+    }
+
+    private long lsn(long sequence, int offset) {
+        return sequence * segmentSize + offset;
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static final class Segment {
+        private final long sequence;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long sequence, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path directory, long sequence, int size, Path recycled) {
+            Path path = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX));
+            try {
+                if (recycled != null) {
+                    Files.move(recycled, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+                FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                buffer.putInt(0, 0);
+                return new Segment(sequence, path, channel, buffer);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to create WAL segment " + path, e);
+            }
+        }
+    }
+}
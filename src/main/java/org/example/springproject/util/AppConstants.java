@@ -10,6 +10,9 @@ public class AppConstants {
     public static final String STATUS_RETURNED = "RETURNED";
     public static final String STATUS_REFUNDED = "REFUNDED";
     public static final String STATUS_CAPTURED = "CAPTURED";
+    public static final String STATUS_RESERVED = "RESERVED";
+    public static final String STATUS_CONFIRMED = "CONFIRMED";
+    public static final String STATUS_EXPIRED = "EXPIRED";
 
     public static final String PAYMENT_METHOD_CREDIT = "CREDIT_CARD";
 
@@ -18,14 +21,21 @@ public class AppConstants {
     public static final String TABLE_PAYMENTS = "payments";
     public static final String TABLE_INVENTORY_TX = "inventory_transactions";
     public static final String TABLE_CUSTOMERS = "customers";
+    public static final String TABLE_STOCK_BUCKETS = "stock_buckets";
+    public static final String TABLE_STOCK_RESERVATIONS = "stock_reservations";
 
     public static final String COL_PRODUCT_ID = "product_id";
     public static final String COL_ORDER_ID = "order_id";
     public static final String COL_PAYMENT_ID = "payment_id";
+    public static final String COL_RESERVATION_ID = "reservation_id";
+    public static final String COL_BUCKET_ID = "bucket_id";
     public static final String COL_ID = "id";
     public static final String COL_CUSTOMER_ID = "customer_id";
+    public static final String COL_STOCK = "stock";
     public static final String COL_TRANSACTION_ID = "transaction_id";
 
     public static final String DB_INVENTORY = "inventory";
     public static final String DB_ORDER = "order";
+
+    public static final String MDC_TX_ID = "txId";
 }
@@ -0,0 +1,377 @@
+package org.example.springproject.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.example.springproject.transaction.TransactionOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.example.springproject.util.AppConstants.DB_INVENTORY;
+import static org.example.springproject.util.AppConstants.DB_ORDER;
+
+/**
+ * Writes the audit trail ({@code transaction_log_inventory} / {@code transaction_log_order})
+ * off the transaction's critical path.
+ * <p>
+ * {@link #submit(TransactionOperation)} only captures the operation and offers it to a bounded
+ * lock-free queue; it never blocks and never touches the database. A single background thread
+ * drains the queue and writes one multi-row INSERT per database per batch, using autocommit
+ * connections independent of the business transaction.
+ * <p>
+ * When the queue is full the writer is woken immediately and the overflowing record is handled
+ * by the overflow policy: {@code DROP} counts and discards it, {@code SPILL} hands it to a second
+ * queue of the same capacity, which the writer thread appends to the spill file as JSON lines (a
+ * buffered write, no fsync). The submitting thread never serializes, writes files or waits on the
+ * spill lock: a record that finds the spill queue full too is dropped. Batches the database
+ * rejects are spilled by the writer thread directly, so it never retries in a loop against a
+ * failing database.
+ */
+@Component
+public class AuditLogWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuditLogWriter.class);
+
+    private static final String INSERT_PREFIX = "INSERT INTO %s (transaction_id, operation_type, table_name, "
+            + "before_snapshot, after_snapshot, timestamp) VALUES ";
+    private static final String ROW_PLACEHOLDERS = "(?, ?, ?, ?, ?, ?)";
+    private static final int COLUMNS = 6;
+
+    public enum OverflowPolicy {
+        DROP, SPILL
+    }
+
+    private final Map<String, JdbcTemplate> jdbcTemplates;
+    private final boolean enabled;
+    private final int queueCapacity;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final Path spillFile;
+
+    private final ConcurrentLinkedQueue<AuditRecord> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final ConcurrentLinkedQueue<AuditRecord> spillQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger spillQueued = new AtomicInteger();
+    private final Map<String, String> insertSqlCache = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules()
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+
+    /** Held by the writer thread while spilling, and by {@link #stop} when closing the file. */
+    private final ReentrantLock spillLock = new ReentrantLock();
+    private BufferedWriter spillWriter;
+
+    private volatile boolean running;
+    private volatile Thread writerThread;
+
+    public AuditLogWriter(
+            @Qualifier("jdbcTemplates") Map<String, JdbcTemplate> jdbcTemplates,
+            @Value("${audit-log.enabled:true}") boolean enabled,
+            @Value("${audit-log.queue-capacity:65536}") int queueCapacity,
+            @Value("${audit-log.batch-size:256}") int batchSize,
+            @Value("${audit-log.flush-interval-ms:50}") long flushIntervalMs,
+            @Value("${audit-log.overflow-policy:DROP}") OverflowPolicy overflowPolicy,
+            @Value("${audit-log.spill-file:audit-spill.jsonl}") String spillFile) {
+        this.jdbcTemplates = jdbcTemplates;
+        this.enabled = enabled;
+        this.queueCapacity = queueCapacity;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.overflowPolicy = overflowPolicy;
+        this.spillFile = Paths.get(spillFile);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            LOGGER.info("Audit log writer disabled");
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(this::runWriter, "audit-log-writer");
+        thread.setDaemon(true);
+        writerThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Drains whatever is still queued and stops the writer thread.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        Thread thread = writerThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        spillLock.lock();
+        try {
+            closeSpillWriter();
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    /**
+     * Queues an audit row for a data-modifying operation. Never blocks the caller.
+     */
+    public void submit(TransactionOperation operation) {
+        if (!enabled || !operation.modifiesData()) {
+            return;
+        }
+        AuditRecord record = new AuditRecord(operation.getTransactionId(), operation.getDatabase(),
+                operation.getOperationType().name(), operation.getTableName(),
+                operation.getBeforeImage(), operation.getAfterImage(), System.currentTimeMillis());
+        submitted.incrementAndGet();
+
+        int size = queued.incrementAndGet();
+        if (size > queueCapacity) {
+            queued.decrementAndGet();
+            LockSupport.unpark(writerThread);
+            if (overflowPolicy == OverflowPolicy.SPILL && spillQueued.incrementAndGet() <= queueCapacity) {
+                spillQueue.offer(record);
+            } else {
+                if (overflowPolicy == OverflowPolicy.SPILL) {
+                    spillQueued.decrementAndGet();
+                }
+                dropped.incrementAndGet();
+            }
+            return;
+        }
+        queue.offer(record);
+        if (size == batchSize) {
+            LockSupport.unpark(writerThread);
+        }
+    }
+
+    private void runWriter() {
+        List<AuditRecord> batch = new ArrayList<>(batchSize);
+        while (running || queued.get() > 0 || spillQueued.get() > 0) {
+            spillQueued();
+            drainTo(batch);
+            if (batch.isEmpty()) {
+                if (running) {
+                    LockSupport.parkNanos(this, flushIntervalNanos);
+                }
+                flushSpill();
+                continue;
+            }
+            writeBatch(batch);
+            batch.clear();
+        }
+        LOGGER.debug("Audit log writer stopped");
+    }
+
+    /**
+     * Drains up to one batch from the queue. Package-private so tests can drive the writer
+     * without the background thread.
+     */
+    void drainTo(List<AuditRecord> batch) {
+        AuditRecord record;
+        while (batch.size() < batchSize && (record = queue.poll()) != null) {
+            queued.decrementAndGet();
+            batch.add(record);
+        }
+    }
+
+    /**
+     * Appends the records that overflowed the queue to the spill file. Writer thread only;
+     * package-private so tests can drive it.
+     */
+    void spillQueued() {
+        if (spillQueued.get() == 0) {
+            return;
+        }
+        List<AuditRecord> records = new ArrayList<>();
+        AuditRecord record;
+        while ((record = spillQueue.poll()) != null) {
+            spillQueued.decrementAndGet();
+            records.add(record);
+        }
+        overflow(records);
+    }
+
+    void writeBatch(List<AuditRecord> batch) {
+        Map<String, List<AuditRecord>> byDatabase = new LinkedHashMap<>();
+        for (AuditRecord record : batch) {
+            byDatabase.computeIfAbsent(record.database(), k -> new ArrayList<>()).add(record);
+        }
+        for (Map.Entry<String, List<AuditRecord>> entry : byDatabase.entrySet()) {
+            insertRows(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void insertRows(String database, List<AuditRecord> rows) {
+        JdbcTemplate jdbcTemplate = jdbcTemplates.get(database);
+        String table = auditTableFor(database);
+        if (jdbcTemplate == null || table == null) {
+            LOGGER.warn("No audit table for database {}; {} audit rows not written", database, rows.size());
+            overflow(rows);
+            return;
+        }
+
+        Object[] params = new Object[rows.size() * COLUMNS];
+        int i = 0;
+        for (AuditRecord row : rows) {
+            params[i++] = Long.toString(row.transactionId());
+            params[i++] = row.operationType();
+            params[i++] = row.tableName();
+            params[i++] = toJson(row.beforeImage());
+            params[i++] = toJson(row.afterImage());
+            params[i++] = new Timestamp(row.timestampMillis());
+        }
+
+        try {
+            jdbcTemplate.update(insertSql(table, rows.size()), params);
+            written.addAndGet(rows.size());
+            batches.incrementAndGet();
+        } catch (DataAccessException e) {
+            failedBatches.incrementAndGet();
+            LOGGER.warn("Failed to write {} audit rows to {}: {}", rows.size(), table, e.getMessage());
+            overflow(rows);
+        }
+    }
+
+    private String insertSql(String table, int rows) {
+        // Only full batches and a handful of tail sizes are ever built.
+        return insertSqlCache.computeIfAbsent(table + ":" + rows, k -> {
+            StringBuilder sql = new StringBuilder(String.format(INSERT_PREFIX, table));
+            for (int r = 0; r < rows; r++) {
+                if (r > 0) {
+                    sql.append(", ");
+                }
+                sql.append(ROW_PLACEHOLDERS);
+            }
+            return sql.toString();
+        });
+    }
+
+    private static String auditTableFor(String database) {
+        return switch (database) {
+            case DB_INVENTORY -> "transaction_log_inventory";
+            case DB_ORDER -> "transaction_log_order";
+            default -> null;
+        };
+    }
+
+    /**
+     * Drops or spills records the writer could not insert. Writer thread only.
+     */
+    private void overflow(List<AuditRecord> records) {
+        if (overflowPolicy == OverflowPolicy.DROP) {
+            dropped.addAndGet(records.size());
+            return;
+        }
+        spillLock.lock();
+        try {
+            if (spillWriter == null) {
+                spillWriter = Files.newBufferedWriter(spillFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            for (AuditRecord record : records) {
+                spillWriter.write(objectMapper.writeValueAsString(record));
+                spillWriter.newLine();
+            }
+            spilled.addAndGet(records.size());
+        } catch (IOException e) {
+            dropped.addAndGet(records.size());
+            LOGGER.warn("Failed to spill {} audit rows to {}: {}", records.size(), spillFile, e.getMessage());
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    private void flushSpill() {
+        spillLock.lock();
+        try {
+            if (spillWriter != null) {
+                try {
+                    spillWriter.flush();
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to flush audit spill file {}: {}", spillFile, e.getMessage());
+                }
+            }
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    private void closeSpillWriter() {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to close audit spill file {}: {}", spillFile, e.getMessage());
+            }
+            spillWriter = null;
+        }
+    }
+
+    private String toJson(Map<String, Object> image) {
+        if (image == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(image);
+        } catch (JsonProcessingException e) {
+            return image.toString();
+        }
+    }
+
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("queued", queued.get());
+        metrics.put("queueCapacity", queueCapacity);
+        metrics.put("spillQueued", spillQueued.get());
+        metrics.put("submitted", submitted.get());
+        metrics.put("written", written.get());
+        metrics.put("batches", batches.get());
+        metrics.put("failedBatches", failedBatches.get());
+        metrics.put("dropped", dropped.get());
+        metrics.put("spilled", spilled.get());
+        return metrics;
+    }
+
+    record AuditRecord(long transactionId, String database, String operationType, String tableName,
+                       Map<String, Object> beforeImage, Map<String, Object> afterImage, long timestampMillis) {
+    }
+}
@@ -0,0 +1,117 @@
+package org.example.springproject.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongFunction;
+
+/**
+ * Thread-safe {@code long}-keyed map: a fixed number of {@link LongHashMap} stripes, each guarded
+ * by its own monitor. Keys are never boxed and an entry costs two array slots instead of a
+ * {@code ConcurrentHashMap.Node}.
+ */
+public class ConcurrentLongHashMap<V> {
+
+    private static final int DEFAULT_STRIPES = 32;
+
+    private final LongHashMap<V>[] stripes;
+    private final int stripeMask;
+
+    public ConcurrentLongHashMap() {
+        this(DEFAULT_STRIPES);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ConcurrentLongHashMap(int stripes) {
+        int count = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new LongHashMap[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new LongHashMap<>();
+        }
+        this.stripeMask = count - 1;
+    }
+
+    private LongHashMap<V> stripe(long key) {
+        // High bits of the mix pick the stripe; the stripe's own table uses the low bits.
+        return stripes[(LongHashMap.mix(key) >>> 24) & stripeMask];
+    }
+
+    public V get(long key) {
+        LongHashMap<V> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    public V put(long key, V value) {
+        LongHashMap<V> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.put(key, value);
+        }
+    }
+
+    public V putIfAbsent(long key, V value) {
+        LongHashMap<V> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.putIfAbsent(key, value);
+        }
+    }
+
+    /**
+     * Atomic per key; {@code factory} runs under the stripe's monitor and must be cheap.
+     */
+    public V computeIfAbsent(long key, LongFunction<? extends V> factory) {
+        LongHashMap<V> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.computeIfAbsent(key, factory);
+        }
+    }
+
+    public V remove(long key) {
+        LongHashMap<V> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.remove(key);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (LongHashMap<V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Weakly consistent snapshot of the values (each stripe is copied atomically).
+     */
+    public List<V> values() {
+        List<V> result = new ArrayList<>();
+        for (LongHashMap<V> stripe : stripes) {
+            synchronized (stripe) {
+                result.addAll(stripe.values());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Visits every entry, one stripe at a time under that stripe's monitor.
+     */
+    public void forEach(LongHashMap.LongObjConsumer<? super V> action) {
+        for (LongHashMap<V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.forEach(action);
+            }
+        }
+    }
+}
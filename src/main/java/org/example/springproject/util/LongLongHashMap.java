@@ -0,0 +1,156 @@
+package org.example.springproject.util;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Open-addressing {@code long -> long} map (not thread-safe). Same probing scheme as
+ * {@link LongHashMap}; a parallel {@code boolean[]} marks used slots so every key and value,
+ * including 0, is allowed.
+ */
+public class LongLongHashMap {
+
+    private static final int MIN_CAPACITY = 8;
+
+    private long[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int size;
+    private int mask;
+
+    public LongLongHashMap() {
+        keys = new long[MIN_CAPACITY];
+        values = new long[MIN_CAPACITY];
+        used = new boolean[MIN_CAPACITY];
+        mask = MIN_CAPACITY - 1;
+    }
+
+    private int slot(long key) {
+        int i = LongHashMap.mix(key) & mask;
+        while (used[i] && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    public boolean containsKey(long key) {
+        return used[slot(key)];
+    }
+
+    /**
+     * @return the value for {@code key}, or {@code missing} if there is none.
+     */
+    public long get(long key, long missing) {
+        int i = slot(key);
+        return used[i] ? values[i] : missing;
+    }
+
+    public void put(long key, long value) {
+        int i = slot(key);
+        if (!used[i]) {
+            used[i] = true;
+            keys[i] = key;
+            size++;
+        }
+        values[i] = value;
+        if (size * 2 > keys.length) {
+            resize(keys.length << 1);
+        }
+    }
+
+    public boolean remove(long key) {
+        int i = slot(key);
+        if (!used[i]) {
+            return false;
+        }
+        used[i] = false;
+        size--;
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (used[j]) {
+            int home = LongHashMap.mix(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                used[gap] = true;
+                used[j] = false;
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        return true;
+    }
+
+    /**
+     * Removes every entry whose value equals {@code value}.
+     */
+    public void removeValue(long value) {
+        for (int i = 0; i < keys.length; ) {
+            if (used[i] && values[i] == value) {
+                // Removal may shift a later entry into slot i; re-examine it.
+                remove(keys[i]);
+            } else {
+                i++;
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    /**
+     * Allocation-free iteration: {@code for (int i = map.nextSlot(-1); i >= 0; i = map.nextSlot(i))}
+     * visits every entry through {@link #keyAt(int)} and {@link #valueAt(int)}. The map must not
+     * be modified during the loop.
+     *
+     * @return the next used slot after {@code slot}, or -1.
+     */
+    public int nextSlot(int slot) {
+        for (int i = slot + 1; i < keys.length; i++) {
+            if (used[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    public long valueAt(int slot) {
+        return values[slot];
+    }
+
+    public void forEachKey(LongConsumer action) {
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i]) {
+                action.accept(keys[i]);
+            }
+        }
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[capacity];
+        values = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int j = slot(oldKeys[i]);
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+                used[j] = true;
+            }
+        }
+    }
+}
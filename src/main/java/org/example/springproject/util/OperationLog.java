@@ -1,89 +1,243 @@
 package org.example.springproject.util;
 
+import org.example.springproject.exceptions.OperationLogFullException;
 import org.example.springproject.transaction.TransactionOperation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Stores the log of all operations performed by active transactions,
  * including before/after images for rollback (Atomicity).
+ * <p>
+ * Each transaction gets an append-only buffer; entries are dropped as soon as the
+ * coordinator finishes the transaction. The total number of retained operations is
+ * capped so a leak or a runaway transaction cannot exhaust the heap.
+ * Data-modifying operations are also handed to the {@link AuditLogWriter}, which persists
+ * the audit trail asynchronously.
  */
 @Component
 public class OperationLog {
 
-    private final Map<String, List<TransactionOperation>> transactionLogs = new ConcurrentHashMap<>();
+    private static final Logger LOGGER = LoggerFactory.getLogger(OperationLog.class);
+
+    private final ConcurrentLongHashMap<OperationBuffer> transactionLogs = new ConcurrentLongHashMap<>();
+
+    @Autowired(required = false)
+    private AuditLogWriter auditLogWriter;
+
+    private final int maxOperationsPerTransaction;
+    private final long maxRetainedOperations;
+
+    private final AtomicLong retainedOperations = new AtomicLong();
+    private final AtomicLong peakRetainedOperations = new AtomicLong();
+    private final AtomicLong loggedOperations = new AtomicLong();
+    private final AtomicLong rejectedOperations = new AtomicLong();
+    private final AtomicLong clearedTransactions = new AtomicLong();
+
+    public OperationLog(
+            @Value("${operation-log.max-operations-per-transaction:10000}") int maxOperationsPerTransaction,
+            @Value("${operation-log.max-retained-operations:1000000}") long maxRetainedOperations) {
+        this.maxOperationsPerTransaction = maxOperationsPerTransaction;
+        this.maxRetainedOperations = maxRetainedOperations;
+    }
+
+    /**
+     * Creates (or returns) the buffer for a transaction. The coordinator keeps it on the
+     * transaction handle so logging an operation does not look the transaction up again.
+     */
+    public OperationBuffer open(long transactionId) {
+        return transactionLogs.computeIfAbsent(transactionId, OperationBuffer::new);
+    }
 
     /**
      * Add a new operation to the transaction's log.
+     *
+     * @throws OperationLogFullException if the per-transaction or global cap would be exceeded.
      */
     public void logOperation(TransactionOperation operation) {
-        System.out.println(">>> DEBUG [OperationLog]: Logging operation - tx=" + operation.getTransactionId() +
-                " db=" + operation.getDatabase() +
-                " table=" + operation.getTableName() +
-                " type=" + operation.getOperationType());
+        logOperation(open(operation.getTransactionId()), operation);
+    }
+
+    /**
+     * Add a new operation to a buffer obtained from {@link #open(long)}.
+     *
+     * @throws OperationLogFullException if the per-transaction or global cap would be exceeded.
+     */
+    public void logOperation(OperationBuffer buffer, TransactionOperation operation) {
+        if (buffer.size() >= maxOperationsPerTransaction) {
+            rejectedOperations.incrementAndGet();
+            throw new OperationLogFullException("Transaction " + operation.getTransactionId()
+                    + " exceeded " + maxOperationsPerTransaction + " logged operations");
+        }
+        long retained = retainedOperations.incrementAndGet();
+        if (retained > maxRetainedOperations) {
+            retainedOperations.decrementAndGet();
+            rejectedOperations.incrementAndGet();
+            throw new OperationLogFullException("Operation log is full (" + maxRetainedOperations + " retained operations)");
+        }
+        peakRetainedOperations.accumulateAndGet(retained, Math::max);
 
-        transactionLogs.computeIfAbsent(operation.getTransactionId(), k -> new CopyOnWriteArrayList<>()).add(operation);
+        int count = buffer.append(operation);
+        loggedOperations.incrementAndGet();
+        if (auditLogWriter != null) {
+            auditLogWriter.submit(operation);
+        }
 
-        int count = transactionLogs.get(operation.getTransactionId()).size();
-        System.out.println(">>> DEBUG [OperationLog]: Operation logged successfully. Total operations for tx=" +
-                operation.getTransactionId() + ": " + count);
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Logged operation db={} table={} type={} (total={})", operation.getDatabase(),
+                    operation.getTableName(), operation.getOperationType(), count);
+        }
     }
 
     /**
      * Get all operations for a transaction in reverse order for rollback.
+     * The returned list is a read-only reversed view; no elements are copied.
      */
-    public List<TransactionOperation> getOperationsInReverseOrder(String transactionId) {
-        List<TransactionOperation> operations = transactionLogs.getOrDefault(transactionId, Collections.emptyList());
-        List<TransactionOperation> reversed = new CopyOnWriteArrayList<>(operations);
-        Collections.reverse(reversed);
-
-        System.out.println(">>> DEBUG [OperationLog]: Retrieved " + reversed.size() + " operations in reverse order for tx=" + transactionId);
+    public List<TransactionOperation> getOperationsInReverseOrder(long transactionId) {
+        OperationBuffer buffer = transactionLogs.get(transactionId);
+        return buffer == null ? Collections.emptyList() : getOperationsInReverseOrder(buffer);
+    }
 
+    public List<TransactionOperation> getOperationsInReverseOrder(OperationBuffer buffer) {
+        List<TransactionOperation> reversed = buffer.reversedView();
+        LOGGER.trace("Retrieved {} operations in reverse order", reversed.size());
         return reversed;
     }
 
     /**
      * Clear the log after a transaction commits or aborts/rolls back completely.
      */
-    public void clearLog(String transactionId) {
-        List<TransactionOperation> removed = transactionLogs.remove(transactionId);
+    public void clearLog(long transactionId) {
+        OperationBuffer removed = transactionLogs.remove(transactionId);
         if (removed != null) {
-            System.out.println(">>> DEBUG [OperationLog]: Cleared " + removed.size() + " operations for tx=" + transactionId);
+            retainedOperations.addAndGet(-removed.size());
+            clearedTransactions.incrementAndGet();
+            LOGGER.trace("Cleared {} operations for tx={}", removed.size(), transactionId);
         } else {
-            System.out.println(">>> DEBUG [OperationLog]: No operations to clear for tx=" + transactionId);
+            LOGGER.trace("No operations to clear for tx={}", transactionId);
         }
     }
 
-    public void logAbort(String transactionId, String reason) {
-        System.err.println("TRANSACTION ABORT LOG: " + transactionId + " - Reason: " + reason);
+    public void logAbort(long transactionId, String reason) {
+        LOGGER.info("TRANSACTION ABORT LOG: {} - Reason: {}", transactionId, reason);
+    }
+
+    public void logCommit(long transactionId) {
+        LOGGER.debug("TRANSACTION COMMIT LOG: {}", transactionId);
+    }
+
+    public int getActiveTransactionCount() {
+        return transactionLogs.size();
     }
 
-    public void logCommit(String transactionId) {
-        System.out.println("TRANSACTION COMMIT LOG: " + transactionId);
+    public long getRetainedOperationCount() {
+        return retainedOperations.get();
     }
 
     /**
-     * Get the list of databases affected by a transaction
+     * Snapshot of the log's counters (for monitoring).
      */
-    public List<String> getAffectedDatabases(String transactionId) {
-        System.out.println(">>> DEBUG [OperationLog]: Getting affected databases for tx=" + transactionId);
+    public Map<String, Number> getMetrics() {
+        Map<String, Number> metrics = new LinkedHashMap<>();
+        metrics.put("activeTransactions", transactionLogs.size());
+        metrics.put("retainedOperations", retainedOperations.get());
+        metrics.put("peakRetainedOperations", peakRetainedOperations.get());
+        metrics.put("maxRetainedOperations", maxRetainedOperations);
+        metrics.put("loggedOperations", loggedOperations.get());
+        metrics.put("rejectedOperations", rejectedOperations.get());
+        metrics.put("clearedTransactions", clearedTransactions.get());
+        return metrics;
+    }
+
+    /**
+     * Append-only operation buffer for a single transaction. Appends are amortised O(1);
+     * readers take a (array, size) snapshot, which stays valid because published slots
+     * are never overwritten and growth copies into a fresh array.
+     */
+    public static final class OperationBuffer {
+        private static final int INITIAL_CAPACITY = 8;
+
+        private final long transactionId;
+        private TransactionOperation[] elements = new TransactionOperation[INITIAL_CAPACITY];
+        private int size;
+
+        private OperationBuffer(long transactionId) {
+            this.transactionId = transactionId;
+        }
+
+        public long getTransactionId() {
+            return transactionId;
+        }
 
-        List<TransactionOperation> operations = transactionLogs.getOrDefault(transactionId, Collections.emptyList());
-        System.out.println(">>> DEBUG [OperationLog]: Found " + operations.size() + " total operations");
+        synchronized int append(TransactionOperation operation) {
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, size << 1);
+            }
+            elements[size++] = operation;
+            return size;
+        }
 
-        List<String> affectedDbs = operations.stream()
-                .map(TransactionOperation::getDatabase)
-                .distinct()
-                .collect(Collectors.toList());
+        synchronized int size() {
+            return size;
+        }
 
-        System.out.println(">>> DEBUG [OperationLog]: Affected databases: " + affectedDbs);
+        /**
+         * Position to pass to {@link #rollBackTo}: the number of operations appended so far.
+         */
+        public synchronized int mark() {
+            return size;
+        }
 
-        return affectedDbs;
+        /**
+         * Marks the operations on {@code database} appended after {@code mark} as rolled back,
+         * after the participant rolled back to a savepoint taken at that mark. Autonomous
+         * operations committed elsewhere and are kept for compensation.
+         */
+        public synchronized void rollBackTo(int mark, String database) {
+            for (int i = mark; i < size; i++) {
+                TransactionOperation operation = elements[i];
+                if (!operation.isAutonomous() && database.equals(operation.getDatabase())) {
+                    operation.setRolledBack(true);
+                }
+            }
+        }
+
+        synchronized List<TransactionOperation> reversedView() {
+            return new ReversedView(elements, size);
+        }
+    }
+
+    private static final class ReversedView extends AbstractList<TransactionOperation> {
+        private final TransactionOperation[] elements;
+        private final int size;
+
+        private ReversedView(TransactionOperation[] elements, int size) {
+            this.elements = elements;
+            this.size = size;
+        }
+
+        @Override
+        public TransactionOperation get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            return elements[size - 1 - index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
     }
 }
@@ -0,0 +1,63 @@
+package org.example.springproject.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time-ordered 64-bit transaction ids: 41 bits of milliseconds since {@link #EPOCH_MILLIS},
+ * 10 bits of node id and a 12-bit per-millisecond sequence. Ids from one node are strictly
+ * increasing; ids from different nodes never collide as long as node ids are unique.
+ * <p>
+ * Generation is a single CAS on the (timestamp, sequence) pair. When more than 4096 ids are
+ * requested in one millisecond, or the wall clock moves backwards, the generator keeps counting
+ * into the next millisecond instead of spinning.
+ */
+@Component
+public class TransactionIdGenerator {
+
+    /** 2024-01-01T00:00:00Z. */
+    public static final long EPOCH_MILLIS = 1_704_067_200_000L;
+
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    private final long node;
+
+    /** (millis since epoch) << SEQUENCE_BITS | sequence of the last id handed out. */
+    private final AtomicLong last = new AtomicLong();
+
+    public TransactionIdGenerator(@Value("${transaction.id.node-id:0}") int nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.node = (long) nodeId << SEQUENCE_BITS;
+    }
+
+    public long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH_MILLIS) << SEQUENCE_BITS;
+        long previous;
+        long next;
+        do {
+            previous = last.get();
+            next = now > previous ? now : previous + 1;
+        } while (!last.compareAndSet(previous, next));
+
+        long millis = next >>> SEQUENCE_BITS;
+        long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+        return (millis << (NODE_BITS + SEQUENCE_BITS)) | node | sequence;
+    }
+
+    /**
+     * Milliseconds since the Unix epoch at which {@code id} was generated.
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH_MILLIS;
+    }
+
+    public static int nodeOf(long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE_ID);
+    }
+}
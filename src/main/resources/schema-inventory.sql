@@ -9,6 +9,35 @@ CREATE TABLE products (
                           version INT NOT NULL DEFAULT 0
 );
 
+-- Optional partitioned stock: a product with bucket rows has products.stock plus the
+-- buckets' stock on hand, and orders draw from the buckets first. Provision K buckets by
+-- moving stock out of products.stock, e.g.
+--   INSERT INTO stock_buckets (product_id, stock)
+--       SELECT product_id, stock / 4 + CASE WHEN b < stock % 4 THEN 1 ELSE 0 END
+--       FROM products, generate_series(0, 3) b WHERE product_id = 1;
+--   UPDATE products SET stock = 0 WHERE product_id = 1;
+-- Buckets are read once per product, so provisioning takes effect on restart.
+CREATE TABLE stock_buckets (
+                               bucket_id SERIAL PRIMARY KEY,
+                               product_id INT NOT NULL,
+                               stock INT NOT NULL DEFAULT 0
+);
+
+CREATE INDEX idx_stock_buckets_product ON stock_buckets (product_id);
+
+-- Stock held for a checkout between reserve and confirm; expired rows are swept and their
+-- stock returned.
+CREATE TABLE stock_reservations (
+                                    reservation_id SERIAL PRIMARY KEY,
+                                    customer_id INT,
+                                    product_id INT NOT NULL,
+                                    quantity INT NOT NULL,
+                                    status VARCHAR(20) NOT NULL DEFAULT 'RESERVED',
+                                    expires_at TIMESTAMP NOT NULL
+);
+
+CREATE INDEX idx_stock_reservations_expiry ON stock_reservations (status, expires_at);
+
 CREATE TABLE suppliers (
                            supplier_id SERIAL PRIMARY KEY,
                            name VARCHAR(200) NOT NULL,
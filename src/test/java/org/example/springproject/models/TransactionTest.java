@@ -0,0 +1,76 @@
+package org.example.springproject.models;
+
+import org.example.springproject.models.Transaction.TransactionStatus;
+import org.example.springproject.transaction.TransactionOperation;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransactionTest {
+
+	@Test
+	void onlyOneThreadWinsTheCommit() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			for (int round = 0; round < 1_000; round++) {
+				Transaction tx = new Transaction(round);
+				AtomicInteger winners = new AtomicInteger();
+				CountDownLatch start = new CountDownLatch(1);
+				CountDownLatch done = new CountDownLatch(4);
+				for (int t = 0; t < 4; t++) {
+					pool.execute(() -> {
+						try {
+							start.await();
+							if (tx.compareAndSetStatus(TransactionStatus.ACTIVE, TransactionStatus.PREPARING)) {
+								winners.incrementAndGet();
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						} finally {
+							done.countDown();
+						}
+					});
+				}
+				start.countDown();
+				assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+				assertThat(winners.get()).isEqualTo(1);
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	void rejectsIllegalTransitions() {
+		Transaction tx = new Transaction(1);
+		tx.transitionTo(TransactionStatus.PREPARING);
+		tx.transitionTo(TransactionStatus.COMMITTED);
+
+		assertThatThrownBy(() -> tx.transitionTo(TransactionStatus.ABORTED)).isInstanceOf(IllegalStateException.class);
+		assertThatThrownBy(() -> tx.compareAndSetStatus(TransactionStatus.ACTIVE, TransactionStatus.COMMITTED))
+				.isInstanceOf(IllegalStateException.class);
+		assertThat(tx.getStatus()).isEqualTo(TransactionStatus.COMMITTED);
+	}
+
+	@Test
+	void keepsOperationsInInsertionOrder() {
+		Transaction tx = new Transaction(1);
+		for (int i = 0; i < 5; i++) {
+			tx.addOperation(new TransactionOperation(1, TransactionOperation.OperationType.UPDATE,
+					"inventory", "products", i, null, null, "UPDATE products ..."));
+		}
+
+		assertThat(tx.getOperations()).extracting(TransactionOperation::getPrimaryKeyValue).containsExactly(0, 1, 2, 3, 4);
+		assertThat(tx.getOperationCount()).isEqualTo(5);
+
+		tx.transitionTo(TransactionStatus.ABORTED);
+		assertThatThrownBy(() -> tx.addOperation(tx.getOperations().get(0))).isInstanceOf(IllegalStateException.class);
+	}
+}
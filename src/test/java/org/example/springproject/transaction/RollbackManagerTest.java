@@ -0,0 +1,139 @@
+package org.example.springproject.transaction;
+
+import org.example.springproject.transaction.schema.SchemaRegistry;
+import org.example.springproject.transaction.schema.TableSchema;
+import org.example.springproject.util.OperationLog;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RollbackManagerTest {
+
+	private final JdbcTemplate inventory = mock(JdbcTemplate.class);
+	private final JdbcTemplate order = mock(JdbcTemplate.class);
+	private final SchemaRegistry schemaRegistry = SchemaRegistry.of(
+			new TableSchema(Participant.INVENTORY, "products",
+					List.of("product_id", "name", "category", "size", "color", "price", "stock", "version"), "product_id", true),
+			new TableSchema(Participant.INVENTORY, "inventory_transactions",
+					List.of("transaction_id", "product_id", "quantity_change", "timestamp"), "transaction_id", false),
+			new TableSchema(Participant.ORDER, "orders",
+					List.of("order_id", "customer_id", "product_id", "quantity", "total_amount", "status", "created_at", "version"),
+					"order_id", true),
+			new TableSchema(Participant.ORDER, "payments",
+					List.of("payment_id", "order_id", "amount", "payment_method", "status", "processed_at"), "payment_id", true));
+	private final RollbackManager rollbackManager = new RollbackManager(new VersionManager(),
+			new OperationLog(100, 1_000), Map.of("inventory", inventory, "order", order), schemaRegistry, Runnable::run);
+
+	@Test
+	void batchesInterleavedRestockIntoOneStatementPerTable() {
+		List<TransactionOperation> forward = new ArrayList<>();
+		for (int i = 0; i < 50; i++) {
+			forward.add(update("inventory", "products", i, Map.of("stock", i)));
+			forward.add(insert("inventory", "inventory_transactions", 1000 + i));
+		}
+
+		List<RollbackManager.UndoBatch> batches = rollbackManager.planBatches(reversed(forward));
+
+		assertThat(batches).extracting(b -> b.sql).containsExactly(
+				"DELETE FROM inventory_transactions WHERE transaction_id = ?",
+				"UPDATE products SET stock = ? WHERE product_id = ?");
+		assertThat(batches.get(0).operations).hasSize(50);
+		assertThat(batches.get(1).operations.get(0).getPrimaryKeyValue()).isEqualTo(49);
+	}
+
+	@Test
+	void keepsOrderForSameRowAndBetweenInsertsAndDeletes() {
+		List<TransactionOperation> forward = List.of(
+				update("inventory", "products", 1, Map.of("stock", 10)),
+				update("inventory", "products", 1, Map.of("price", 5)),
+				update("inventory", "products", 1, Map.of("stock", 9)),
+				insert("order", "orders", 7),
+				insert("order", "payments", 70),
+				insert("order", "orders", 8));
+
+		List<String> sql = rollbackManager.planBatches(reversed(forward)).stream().map(b -> b.sql).toList();
+
+		assertThat(sql).containsExactly(
+				"DELETE FROM orders WHERE order_id = ?",
+				"DELETE FROM payments WHERE payment_id = ?",
+				"DELETE FROM orders WHERE order_id = ?",
+				"UPDATE products SET stock = ? WHERE product_id = ?",
+				"UPDATE products SET price = ? WHERE product_id = ?",
+				"UPDATE products SET stock = ? WHERE product_id = ?");
+	}
+
+	@Test
+	void undoesIncrementsWithTheNegatedDelta() {
+		TransactionOperation op = new TransactionOperation(1L, TransactionOperation.OperationType.INCREMENT,
+				"inventory", "products", 3, null, Map.of("stock", -5L), "UPDATE ...");
+		op.setExecuted(true);
+
+		List<RollbackManager.UndoBatch> batches = rollbackManager.planBatches(List.of(op));
+
+		assertThat(batches).singleElement().satisfies(batch -> {
+			assertThat(batch.sql).isEqualTo("UPDATE products SET stock = stock + ? WHERE product_id = ?");
+			assertThat(batch.arguments).singleElement().isEqualTo(new Object[]{5L, 3});
+		});
+	}
+
+	@Test
+	void reportsPartialFailurePerParticipantAndRetriesOnlyWhatIsLeft() {
+		when(order.batchUpdate(anyString(), anyList()))
+				.thenThrow(new DataAccessResourceFailureException("down"))
+				.thenReturn(new int[]{1});
+		List<TransactionOperation> undo = reversed(List.of(
+				update("inventory", "products", 1, Map.of("stock", 10)),
+				update("order", "orders", 7, Map.of("status", "PENDING"))));
+
+		List<CompensationResult> first = rollbackManager.compensate(undo);
+
+		assertThat(first).extracting(CompensationResult::getParticipant)
+				.containsExactlyInAnyOrder(Participant.INVENTORY, Participant.ORDER);
+		assertThat(first).filteredOn(r -> r.getParticipant() == Participant.ORDER)
+				.singleElement().satisfies(r -> assertThat(r.getRemainingOperations()).isEqualTo(1));
+		assertThat(first).filteredOn(r -> r.getParticipant() == Participant.INVENTORY)
+				.singleElement().satisfies(r -> assertThat(r.isSuccessful()).isTrue());
+
+		List<CompensationResult> retry = rollbackManager.compensate(undo);
+
+		assertThat(retry).singleElement().satisfies(r -> {
+			assertThat(r.getParticipant()).isEqualTo(Participant.ORDER);
+			assertThat(r.isSuccessful()).isTrue();
+		});
+		verify(inventory, times(1)).batchUpdate(startsWith("UPDATE products"), anyList());
+	}
+
+	private static List<TransactionOperation> reversed(List<TransactionOperation> forward) {
+		List<TransactionOperation> reversed = new ArrayList<>(forward);
+		Collections.reverse(reversed);
+		return reversed;
+	}
+
+	private static TransactionOperation update(String database, String table, int key, Map<String, Object> before) {
+		TransactionOperation op = new TransactionOperation(1L, TransactionOperation.OperationType.UPDATE,
+				database, table, key, before, null, "UPDATE ...");
+		op.setExecuted(true);
+		return op;
+	}
+
+	private static TransactionOperation insert(String database, String table, int key) {
+		TransactionOperation op = new TransactionOperation(1L, TransactionOperation.OperationType.INSERT,
+				database, table, key, null, Map.of("status", "PENDING"), "INSERT ...");
+		op.setExecuted(true);
+		return op;
+	}
+}
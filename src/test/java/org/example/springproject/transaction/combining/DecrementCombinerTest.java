@@ -0,0 +1,195 @@
+package org.example.springproject.transaction.combining;
+
+import org.example.springproject.transaction.Participant;
+import org.example.springproject.transaction.TransactionOperation;
+import org.example.springproject.transaction.schema.TableSchema;
+import org.example.springproject.transaction.wal.WriteAheadLog;
+import org.example.springproject.util.JDBCUtils;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class DecrementCombinerTest {
+
+	private static final TableSchema PRODUCTS = new TableSchema(Participant.INVENTORY, "products",
+			List.of("product_id", "name", "stock"), "product_id", true);
+	private static final int STOCK = PRODUCTS.indexOf("stock");
+
+	@TempDir
+	Path walDirectory;
+
+	private JdbcDataSource dataSource;
+
+	@BeforeEach
+	void createTable() throws SQLException {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:combiner" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+		try (Connection conn = dataSource.getConnection(); Statement statement = conn.createStatement()) {
+			statement.execute("CREATE TABLE products (product_id INT PRIMARY KEY, name VARCHAR(64), stock INT)");
+			statement.execute("INSERT INTO products VALUES (1, 'Classic T-Shirt', 10)");
+		}
+	}
+
+	@Test
+	void grantsInArrivalOrderWhileTheFloorHolds() throws Exception {
+		DecrementCombiner combiner = combiner(0);
+
+		assertThat(combiner.decrement(PRODUCTS, STOCK, decrement(1L, 1, 4), 4, 0)).isTrue();
+		assertThat(combiner.decrement(PRODUCTS, STOCK, decrement(2L, 1, 4), 4, 0)).isTrue();
+		assertThat(combiner.decrement(PRODUCTS, STOCK, decrement(3L, 1, 4), 4, 0)).isFalse();
+		assertThat(combiner.decrement(PRODUCTS, STOCK, decrement(4L, 1, 2), 2, 1)).isFalse();
+		assertThat(combiner.decrement(PRODUCTS, STOCK, decrement(5L, 2, 1), 1, 0)).isFalse();
+
+		assertThat(stock(1)).isEqualTo(2);
+		assertThat(combiner.getMetrics()).containsEntry("granted", 2L).containsEntry("rejected", 3L);
+	}
+
+	@Test
+	void concurrentDecrementsNeverCrossTheFloor() throws Exception {
+		setStock(1, 100);
+		DecrementCombiner combiner = combiner(0);
+		AtomicInteger granted = new AtomicInteger();
+
+		run(64, 4, (client, i) -> {
+			if (combiner.decrement(PRODUCTS, STOCK, decrement(client * 100L + i, 1, 1), 1, 0)) {
+				granted.incrementAndGet();
+			}
+		});
+
+		assertThat(granted).hasValue(100);
+		assertThat(stock(1)).isZero();
+		assertThat(combiner.getMetrics()).containsEntry("requests", 256L).containsEntry("rejected", 156L);
+	}
+
+	@Test
+	void failedBatchGrantsNothingAndLogsNoUndo() throws Exception {
+		try (Connection conn = dataSource.getConnection(); Statement statement = conn.createStatement()) {
+			statement.execute("ALTER TABLE products ADD CONSTRAINT stock_reserve CHECK (stock >= 8)");
+		}
+		WriteAheadLog wal = new WriteAheadLog(true, walDirectory.toString(), 1 << 20, 2);
+		wal.open();
+		DecrementCombiner combiner = new DecrementCombiner(dataSource, dataSource, wal, new JDBCUtils(), true, 0, 256);
+
+		assertThatThrownBy(() -> combiner.decrement(PRODUCTS, STOCK, decrement(1L, 1, 4), 4, 0))
+				.isInstanceOf(SQLException.class);
+		wal.close();
+
+		assertThat(stock(1)).isEqualTo(10);
+		assertThat(combiner.getMetrics()).containsEntry("granted", 0L).containsEntry("failedBatches", 1L);
+		WriteAheadLog reopened = new WriteAheadLog(true, walDirectory.toString(), 1 << 20, 2);
+		reopened.open();
+		assertThat(reopened.getInDoubtTransactions()).isEmpty();
+	}
+
+	/**
+	 * 64 clients taking one unit at a time from a single row, combined versus one
+	 * {@code SELECT ... FOR UPDATE}, {@code UPDATE} and commit per request. Run with
+	 * {@code -Dbenchmark=true}.
+	 */
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void benchmarkHotRow() throws Exception {
+		int clients = 64;
+		int perClient = 500;
+		JDBCUtils jdbcUtils = new JDBCUtils();
+		DecrementCombiner combiner = combiner(0);
+		for (int round = 0; round < 3; round++) {
+			setStock(1, clients * perClient);
+			long start = System.nanoTime();
+			run(clients, perClient, (client, i) -> {
+				try (Connection conn = dataSource.getConnection()) {
+					conn.setAutoCommit(false);
+					jdbcUtils.executeQuery(conn, "SELECT stock FROM products WHERE product_id = ? FOR UPDATE",
+							(rs, n) -> rs.getInt(1), 1);
+					jdbcUtils.executeUpdate(conn, "UPDATE products SET stock = stock + ? WHERE product_id = ?", -1, 1);
+					conn.commit();
+				}
+			});
+			long perRequest = System.nanoTime() - start;
+
+			setStock(1, clients * perClient);
+			start = System.nanoTime();
+			run(clients, perClient, (client, i) ->
+					combiner.decrement(PRODUCTS, STOCK, decrement(client * (long) perClient + i, 1, 1), 1, 0));
+			long combined = System.nanoTime() - start;
+
+			System.out.printf("round %d: per-request %,d ops/s, combined %,d ops/s, %s%n", round,
+					clients * perClient * 1_000_000_000L / perRequest, clients * perClient * 1_000_000_000L / combined,
+					combiner.getMetrics());
+		}
+	}
+
+	private DecrementCombiner combiner(long windowMicros) throws Exception {
+		WriteAheadLog wal = new WriteAheadLog(false, walDirectory.toString(), 1 << 20, 2);
+		wal.open();
+		return new DecrementCombiner(dataSource, dataSource, wal, new JDBCUtils(), true, windowMicros, 256);
+	}
+
+	private static TransactionOperation decrement(long txId, int key, long amount) {
+		TransactionOperation op = new TransactionOperation(txId, TransactionOperation.OperationType.INCREMENT,
+				"inventory", "products", key, null, Map.of("stock", -amount), null);
+		op.setAutonomous(true);
+		return op;
+	}
+
+	private int stock(int productId) throws SQLException {
+		try (Connection conn = dataSource.getConnection(); Statement statement = conn.createStatement();
+			 ResultSet rs = statement.executeQuery("SELECT stock FROM products WHERE product_id = " + productId)) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+
+	private void setStock(int productId, int stock) throws SQLException {
+		try (Connection conn = dataSource.getConnection(); Statement statement = conn.createStatement()) {
+			statement.execute("UPDATE products SET stock = " + stock + " WHERE product_id = " + productId);
+		}
+	}
+
+	private interface ClientStep {
+		void run(int client, int iteration) throws Exception;
+	}
+
+	private static void run(int clients, int iterations, ClientStep step) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(clients);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<?>> futures = new ArrayList<>();
+			for (int c = 0; c < clients; c++) {
+				int client = c;
+				futures.add(executor.submit(() -> {
+					start.await();
+					for (int i = 0; i < iterations; i++) {
+						step.run(client, i);
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package org.example.springproject.transaction.retry;
+
+import org.example.springproject.exceptions.DeadlockException;
+import org.example.springproject.exceptions.OperationLogFullException;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RetryEngineTest {
+
+	private static final RetryPolicy POLICY = new RetryPolicy("test", 4, 1, 4);
+
+	@Test
+	void retriesConflictsOnlyAndGivesUpAfterTheLastAttempt() {
+		RetryEngine engine = engine(0.5, 100);
+		AtomicInteger calls = new AtomicInteger();
+
+		assertThat(engine.execute(POLICY, () -> {
+			if (calls.incrementAndGet() < 3) throw new DeadlockException("conflict");
+			return "done";
+		}, "failed")).isEqualTo("done");
+
+		IllegalStateException bug = new IllegalStateException("bug");
+		assertThatThrownBy(() -> engine.execute(POLICY, () -> {
+			throw bug;
+		}, "failed")).isSameAs(bug);
+
+		assertThatThrownBy(() -> engine.execute(POLICY, () -> {
+			throw new DeadlockException("conflict");
+		}, "failed")).hasMessage("failed").hasCauseInstanceOf(DeadlockException.class);
+
+		assertThat(engine.getMetrics()).containsEntry("calls", 3L).containsEntry("attempts", 8L)
+				.containsEntry("retries", 5L).containsEntry("succeededAfterRetry", 1L)
+				.containsEntry("exhausted", 1L).containsEntry("nonRetryable", 1L);
+	}
+
+	@Test
+	void classifiesSerializationFailuresAsRetryable() {
+		assertThat(RetryEngine.isRetryable(new RuntimeException(new SQLException("serialize", "40001")))).isTrue();
+		assertThat(RetryEngine.isRetryable(new RuntimeException(new SQLException("unique", "23505")))).isFalse();
+		assertThat(RetryEngine.isRetryable(new OperationLogFullException("full"))).isFalse();
+	}
+
+	@Test
+	void budgetTurnsRetriesIntoFastFailures() {
+		RetryEngine engine = engine(0, 2);
+
+		for (int i = 0; i < 3; i++) {
+			assertThatThrownBy(() -> engine.execute(POLICY, () -> {
+				throw new DeadlockException("conflict");
+			}, "failed")).hasCauseInstanceOf(DeadlockException.class);
+		}
+
+		assertThat(engine.getMetrics()).containsEntry("retries", 2L).containsEntry("budgetDenied", 3L);
+	}
+
+	@Test
+	void interruptDuringBackoffStopsRetrying() {
+		RetryEngine engine = engine(0.5, 100);
+		AtomicInteger calls = new AtomicInteger();
+
+		Thread.currentThread().interrupt();
+		try {
+			assertThatThrownBy(() -> engine.execute(POLICY, () -> {
+				calls.incrementAndGet();
+				throw new DeadlockException("conflict");
+			}, "failed")).hasMessage("failed (interrupted)").hasCauseInstanceOf(DeadlockException.class);
+			assertThat(Thread.currentThread().isInterrupted()).isTrue();
+		} finally {
+			Thread.interrupted();
+		}
+		assertThat(calls).hasValue(1);
+		assertThat(engine.getMetrics()).containsEntry("interrupted", 1L);
+	}
+
+	@Test
+	void asyncRetriesCompleteTheFuture() {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			RetryEngine engine = engine(0.5, 100);
+			AtomicInteger calls = new AtomicInteger();
+
+			CompletableFuture<Integer> result = engine.executeAsync(POLICY, () -> {
+				if (calls.incrementAndGet() < 4) throw new DeadlockException("conflict");
+				return calls.get();
+			}, "failed", executor);
+			CompletableFuture<Object> failed = engine.executeAsync(POLICY, () -> {
+				throw new DeadlockException("conflict");
+			}, "failed", executor);
+
+			assertThat(result.join()).isEqualTo(4);
+			assertThatThrownBy(failed::join).isInstanceOf(CompletionException.class).hasRootCauseMessage("conflict");
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	void rejectedDelayedRetryFailsTheFuture() {
+		RetryEngine engine = engine(0.5, 100);
+		AtomicInteger submitted = new AtomicInteger();
+		Executor full = task -> {
+			if (submitted.incrementAndGet() > 1) throw new RejectedExecutionException("full");
+			task.run();
+		};
+
+		CompletableFuture<Object> failed = engine.executeAsync(POLICY, () -> {
+			throw new DeadlockException("conflict");
+		}, "failed", full);
+
+		assertThatThrownBy(() -> failed.get(5, TimeUnit.SECONDS)).hasRootCauseInstanceOf(RejectedExecutionException.class);
+	}
+
+	private static RetryEngine engine(double budgetRatio, long budgetMinPerSecond) {
+		return new RetryEngine(3, 1, 4, budgetRatio, budgetMinPerSecond, Runnable::run);
+	}
+}
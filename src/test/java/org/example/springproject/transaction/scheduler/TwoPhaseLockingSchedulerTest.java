@@ -0,0 +1,404 @@
+package org.example.springproject.transaction.scheduler;
+
+import org.example.springproject.config.ExecutorConfig;
+import org.example.springproject.exceptions.DeadlockException;
+import org.example.springproject.models.Transaction;
+import org.example.springproject.transaction.DeadlockDetector;
+import org.example.springproject.transaction.Participant;
+import org.example.springproject.transaction.TransactionContext;
+import org.example.springproject.transaction.TransactionOperation;
+import org.example.springproject.transaction.TransactionOperation.OperationType;
+import org.example.springproject.transaction.schema.TableSchema;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.core.task.AsyncTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TwoPhaseLockingSchedulerTest {
+
+	private static final TableSchema PRODUCTS = new TableSchema(Participant.INVENTORY, "products",
+			List.of("product_id", "stock"), "product_id", true);
+	private static final TableSchema ORDERS = new TableSchema(Participant.ORDER, "orders",
+			List.of("order_id", "status"), "order_id", true);
+
+	private static final TableSchema PAYMENTS = new TableSchema(Participant.ORDER, "payments",
+			List.of("payment_id", "order_id", "status"), "payment_id", true);
+	private static final int ORDER_ID = PAYMENTS.indexOf("order_id");
+
+	private final TwoPhaseLockingScheduler scheduler = new TwoPhaseLockingScheduler(new DeadlockDetector(), 0);
+
+	@Test
+	void sharedLocksCoexistAndBlockWriters() {
+		TransactionContext t1 = context(1);
+		TransactionContext t2 = context(2);
+
+		assertThat(scheduler.canExecute(t1, op(1, OperationType.SELECT, PRODUCTS, 7))).isTrue();
+		assertThat(scheduler.canExecute(t2, op(2, OperationType.SELECT, PRODUCTS, 7))).isTrue();
+		assertThat(scheduler.canExecute(t2, op(2, OperationType.UPDATE, PRODUCTS, 7))).isFalse();
+		assertThat(scheduler.canExecute(t2, op(2, OperationType.UPDATE, PRODUCTS, 8))).isTrue();
+
+		scheduler.onTransactionCommit(t1);
+		// t1's shared lock is gone, so t2 can upgrade its own.
+		assertThat(scheduler.canExecute(t2, op(2, OperationType.UPDATE, PRODUCTS, 7))).isTrue();
+		// The products table's intention lock plus rows 7 and 8.
+		assertThat(scheduler.getLockedResourceCount()).isEqualTo(3);
+
+		scheduler.onTransactionAbort(t2);
+		assertThat(scheduler.getLockedResourceCount()).isZero();
+	}
+
+	@Test
+	void sameKeyOnDifferentTablesDoesNotConflict() {
+		assertThat(scheduler.canExecute(context(1), op(1, OperationType.UPDATE, PRODUCTS, 1))).isTrue();
+		assertThat(scheduler.canExecute(context(2), op(2, OperationType.UPDATE, ORDERS, 1))).isTrue();
+		assertThat(LockKeys.row(PRODUCTS, 1)).isNotEqualTo(LockKeys.row(ORDERS, 1));
+		assertThat(LockKeys.tableOf(LockKeys.row(PRODUCTS, "tx-42"))).isEqualTo(LockKeys.table(PRODUCTS));
+	}
+
+	@Test
+	void tableLockConflictsWithRowLocksOnThatTable() {
+		TransactionContext rowWriter = context(1);
+		TransactionContext tableReader = context(2);
+		assertThat(scheduler.canExecute(rowWriter, op(1, OperationType.UPDATE, ORDERS, 5))).isTrue();
+
+		// A table-scoped SELECT FOR UPDATE needs X on the table, which the writer's IX blocks.
+		assertThat(scheduler.canExecute(tableReader, op(2, OperationType.SELECT_FOR_UPDATE, ORDERS, null))).isFalse();
+		assertThat(scheduler.canExecute(context(3), op(3, OperationType.UPDATE, ORDERS, 6))).isTrue();
+
+		scheduler.onTransactionCommit(rowWriter);
+		// Transaction 3 still holds IX on orders.
+		assertThat(scheduler.canExecute(tableReader, op(2, OperationType.SELECT_FOR_UPDATE, ORDERS, null))).isFalse();
+	}
+
+	@Test
+	void insertsOnlyTakeAnIntentionLockOnTheTable() {
+		assertThat(scheduler.canExecute(context(1), op(1, OperationType.INSERT, ORDERS, null))).isTrue();
+		assertThat(scheduler.canExecute(context(2), op(2, OperationType.INSERT, ORDERS, null))).isTrue();
+		assertThat(scheduler.canExecute(context(3), op(3, OperationType.SELECT, ORDERS, 9))).isTrue();
+		assertThat(scheduler.canExecute(context(4), op(4, OperationType.SELECT, ORDERS, null))).isFalse();
+	}
+
+	@Test
+	void tableReadPlusRowWriteBecomesSix() {
+		TransactionContext t1 = context(1);
+		assertThat(scheduler.canExecute(t1, op(1, OperationType.SELECT, PRODUCTS, null))).isTrue();
+		assertThat(scheduler.canExecute(t1, op(1, OperationType.UPDATE, PRODUCTS, 3))).isTrue();
+
+		assertThat(t1.getHeldLocks().get(LockKeys.table(PRODUCTS), -1))
+				.isEqualTo(TwoPhaseLockingScheduler.LockType.SHARED_INTENTION_EXCLUSIVE.ordinal());
+		// SIX admits other transactions' IS (row reads) but not IX (row writes).
+		assertThat(scheduler.canExecute(context(2), op(2, OperationType.SELECT, PRODUCTS, 4))).isTrue();
+		assertThat(scheduler.canExecute(context(3), op(3, OperationType.UPDATE, PRODUCTS, 4))).isFalse();
+	}
+
+	@Test
+	void secondaryKeyLookupConflictsOnlyWithWritesUnderThatKey() {
+		TransactionContext reader = context(1);
+		TransactionOperation lookup = op(1, OperationType.SELECT_FOR_UPDATE, PAYMENTS, null);
+		lookup.setLockKey(LockKeys.secondary(PAYMENTS, ORDER_ID, 42));
+		assertThat(scheduler.canExecute(reader, lookup)).isTrue();
+		// Only an intention lock on the table, so other orders' payments stay writable.
+		assertThat(reader.getHeldLocks().get(LockKeys.table(PAYMENTS), -1))
+				.isEqualTo(TwoPhaseLockingScheduler.LockType.INTENTION_EXCLUSIVE.ordinal());
+
+		assertThat(scheduler.canExecute(context(2), paymentWrite(2, OperationType.UPDATE, 7, 42))).isFalse();
+		assertThat(scheduler.canExecute(context(3), paymentWrite(3, OperationType.INSERT, null, 42))).isFalse();
+		assertThat(scheduler.canExecute(context(4), paymentWrite(4, OperationType.UPDATE, 8, 43))).isTrue();
+		assertThat(scheduler.canExecute(context(5), paymentWrite(5, OperationType.INSERT, null, 44))).isTrue();
+
+		// The reader updating the row it found needs nothing new on the predicate.
+		assertThat(scheduler.canExecute(reader, paymentWrite(1, OperationType.UPDATE, 9, 42))).isTrue();
+	}
+
+	@Test
+	void secondaryKeysOfDifferentValuesOrTablesAreDistinct() {
+		assertThat(LockKeys.secondary(PAYMENTS, ORDER_ID, 42)).isNotEqualTo(LockKeys.secondary(PAYMENTS, ORDER_ID, 43));
+		assertThat(LockKeys.secondary(PAYMENTS, ORDER_ID, 42)).isNotEqualTo(LockKeys.row(PAYMENTS, 42));
+		assertThat(LockKeys.tableOf(LockKeys.secondary(PAYMENTS, ORDER_ID, 42))).isEqualTo(LockKeys.table(PAYMENTS));
+		assertThat(LockKeys.isTable(LockKeys.secondary(PAYMENTS, ORDER_ID, 42))).isFalse();
+	}
+
+	@Test
+	void escalatesRowLocksToATableLockAtTheThreshold() {
+		TwoPhaseLockingScheduler escalating = new TwoPhaseLockingScheduler(new DeadlockDetector(), 3);
+		TransactionContext bulk = context(1);
+		for (int row = 1; row <= 3; row++) {
+			assertThat(escalating.canExecute(bulk, op(1, OperationType.UPDATE, PRODUCTS, row))).isTrue();
+		}
+
+		// Three row locks became one X lock on the table.
+		assertThat(escalating.getLockedResourceCount()).isEqualTo(1);
+		assertThat(bulk.getHeldLocks().get(LockKeys.table(PRODUCTS), -1))
+				.isEqualTo(TwoPhaseLockingScheduler.LockType.EXCLUSIVE.ordinal());
+		assertThat(escalating.canExecute(bulk, op(1, OperationType.UPDATE, PRODUCTS, 4))).isTrue();
+		assertThat(escalating.getLockedResourceCount()).isEqualTo(1);
+		assertThat(escalating.getMetrics().get("escalations")).isEqualTo(1L);
+
+		escalating.onTransactionCommit(bulk);
+		assertThat(escalating.getLockedResourceCount()).isZero();
+		assertThat(escalating.getMetrics().get("activeEscalations")).isEqualTo(0);
+	}
+
+	@Test
+	void defersEscalationWhileTheTableIsShared() {
+		TwoPhaseLockingScheduler escalating = new TwoPhaseLockingScheduler(new DeadlockDetector(), 2);
+		TransactionContext other = context(9);
+		assertThat(escalating.canExecute(other, op(9, OperationType.SELECT, PRODUCTS, 100))).isTrue();
+
+		TransactionContext bulk = context(1);
+		assertThat(escalating.canExecute(bulk, op(1, OperationType.UPDATE, PRODUCTS, 1))).isTrue();
+		assertThat(escalating.canExecute(bulk, op(1, OperationType.UPDATE, PRODUCTS, 2))).isTrue();
+
+		// The reader's IS blocks X on the table, so the rows stay individually locked.
+		assertThat(bulk.getHeldLocks().get(LockKeys.table(PRODUCTS), -1))
+				.isEqualTo(TwoPhaseLockingScheduler.LockType.INTENTION_EXCLUSIVE.ordinal());
+		assertThat(escalating.getMetrics().get("deferredEscalations")).isEqualTo(1L);
+		assertThat(escalating.getMetrics().get("escalations")).isEqualTo(0L);
+	}
+
+	@Test
+	void deEscalatesWhenAnotherTransactionNeedsTheTable() {
+		TwoPhaseLockingScheduler escalating = new TwoPhaseLockingScheduler(new DeadlockDetector(), 2);
+		TransactionContext bulk = context(1);
+		assertThat(escalating.canExecute(bulk, op(1, OperationType.UPDATE, PRODUCTS, 1))).isTrue();
+		assertThat(escalating.canExecute(bulk, op(1, OperationType.UPDATE, PRODUCTS, 2))).isTrue();
+		assertThat(escalating.getLockedResourceCount()).isEqualTo(1);
+		// Written under the table lock, without a row lock of its own.
+		assertThat(escalating.canExecute(bulk, op(1, OperationType.UPDATE, PRODUCTS, 3))).isTrue();
+		assertThat(escalating.getLockedResourceCount()).isEqualTo(1);
+
+		// A writer of an untouched row gets in once the table is split back into its rows...
+		TransactionContext other = context(2);
+		assertThat(escalating.canExecute(other, op(2, OperationType.UPDATE, PRODUCTS, 4))).isTrue();
+		// ...while the escalated rows and those written under the table lock are still protected.
+		assertThat(escalating.canExecute(other, op(2, OperationType.UPDATE, PRODUCTS, 1))).isFalse();
+		assertThat(escalating.canExecute(other, op(2, OperationType.UPDATE, PRODUCTS, 3))).isFalse();
+		assertThat(bulk.getHeldLocks().get(LockKeys.table(PRODUCTS), -1))
+				.isEqualTo(TwoPhaseLockingScheduler.LockType.INTENTION_EXCLUSIVE.ordinal());
+
+		// The table is not escalated again for this transaction.
+		assertThat(escalating.canExecute(bulk, op(1, OperationType.UPDATE, PRODUCTS, 5))).isTrue();
+		assertThat(escalating.getMetrics()).containsEntry("escalations", 1L).containsEntry("deEscalations", 1L);
+	}
+
+	@Test
+	void deltasShareTheRowButExactReadsDoNot() {
+		assertThat(scheduler.canExecute(context(1), op(1, OperationType.INCREMENT, PRODUCTS, 7))).isTrue();
+		assertThat(scheduler.canExecute(context(2), op(2, OperationType.INCREMENT, PRODUCTS, 7))).isTrue();
+		assertThat(scheduler.canExecute(context(3), op(3, OperationType.SELECT, PRODUCTS, 7))).isFalse();
+		assertThat(scheduler.canExecute(context(4), op(4, OperationType.UPDATE, PRODUCTS, 7))).isFalse();
+		assertThat(scheduler.canExecute(context(5), op(5, OperationType.SELECT_FOR_UPDATE, PRODUCTS, 8))).isTrue();
+		assertThat(scheduler.canExecute(context(6), op(6, OperationType.INCREMENT, PRODUCTS, 8))).isFalse();
+	}
+
+	@Test
+	void decrementsAreBoundedByTheWorstCase() {
+		long row = LockKeys.row(PRODUCTS, 7);
+		TransactionContext buyer1 = context(1);
+		TransactionContext buyer2 = context(2);
+		TransactionContext restock = context(3);
+		assertThat(scheduler.canExecute(buyer1, op(1, OperationType.INCREMENT, PRODUCTS, 7))).isTrue();
+		assertThat(scheduler.canExecute(buyer2, op(2, OperationType.INCREMENT, PRODUCTS, 7))).isTrue();
+		assertThat(scheduler.canExecute(restock, op(3, OperationType.INCREMENT, PRODUCTS, 7))).isTrue();
+
+		assertThat(scheduler.needsEscrowValue(buyer1, row)).isTrue();
+		assertThat(scheduler.reserveEscrow(buyer1, row, 6, 0, 10)).isTrue();
+		assertThat(scheduler.needsEscrowValue(buyer2, row)).isFalse();
+		// A pending restock does not count until it commits.
+		scheduler.creditEscrow(restock, row, 100);
+		assertThat(scheduler.reserveEscrow(buyer2, row, 6, 0, 10)).isFalse();
+		assertThat(scheduler.reserveEscrow(buyer2, row, 4, 0, 10)).isTrue();
+		assertThat(scheduler.getEscrowAvailable(row)).isZero();
+
+		scheduler.onTransactionAbort(buyer1);
+		assertThat(scheduler.getEscrowAvailable(row)).isEqualTo(6);
+		scheduler.onTransactionCommit(restock);
+		assertThat(scheduler.getEscrowAvailable(row)).isEqualTo(106);
+		scheduler.onTransactionCommit(buyer2);
+		// Nobody holds the row any more: the account is dropped and the next one reads afresh.
+		assertThat(scheduler.getEscrowAvailable(row)).isEqualTo(Long.MIN_VALUE);
+	}
+
+	@Test
+	void creditCommittedBeforeTheValueIsReadIsNotCountedTwice() {
+		long row = LockKeys.row(PRODUCTS, 7);
+		TransactionContext restock = context(1);
+		TransactionContext buyer = context(2);
+		assertThat(scheduler.canExecute(restock, op(1, OperationType.INCREMENT, PRODUCTS, 7))).isTrue();
+		assertThat(scheduler.canExecute(buyer, op(2, OperationType.INCREMENT, PRODUCTS, 7))).isTrue();
+		scheduler.creditEscrow(restock, row, 100);
+
+		// The restock has committed in the database (10 -> 110) but not yet released its locks.
+		assertThat(scheduler.reserveEscrow(buyer, row, 20, 0, 110)).isFalse();
+		assertThat(scheduler.reserveEscrow(buyer, row, 6, 0, 110)).isTrue();
+		scheduler.onTransactionCommit(restock);
+		assertThat(scheduler.getEscrowAvailable(row)).isEqualTo(104);
+	}
+
+	@Test
+	void detectsDeadlockBetweenTwoWriters() {
+		TransactionContext t1 = context(1);
+		TransactionContext t2 = context(2);
+		assertThat(scheduler.canExecute(t1, op(1, OperationType.UPDATE, PRODUCTS, 1))).isTrue();
+		assertThat(scheduler.canExecute(t2, op(2, OperationType.UPDATE, PRODUCTS, 2))).isTrue();
+		assertThat(scheduler.canExecute(t1, op(1, OperationType.UPDATE, PRODUCTS, 2))).isFalse();
+
+		assertThatThrownBy(() -> scheduler.canExecute(t2, op(2, OperationType.UPDATE, PRODUCTS, 1)))
+				.isInstanceOf(DeadlockException.class);
+	}
+
+	@Test
+	void declaredSetsWaitInsteadOfDeadlocking() throws Exception {
+		TransactionContext t1 = context(1);
+		TransactionContext t2 = context(2);
+		long p1 = LockKeys.row(PRODUCTS, 1);
+		long p2 = LockKeys.row(PRODUCTS, 2);
+		assertThat(scheduler.acquireDeclared(t1, new long[] {p1, p2}, new boolean[] {true, true}, 1000)).isTrue();
+
+		CompletableFuture<Boolean> opposite = CompletableFuture.supplyAsync(
+				() -> scheduler.acquireDeclared(t2, new long[] {p2, p1}, new boolean[] {true, true}, 10_000));
+		Thread.sleep(50);
+		assertThat(opposite).isNotDone();
+		// Nothing of t2's set was taken while it waited.
+		assertThat(scheduler.canExecute(context(3), op(3, OperationType.SELECT, PRODUCTS, 3))).isTrue();
+		assertThat(t2.getHeldLocks().size()).isZero();
+		// Declared rows need no further locking.
+		assertThat(scheduler.canExecute(t1, op(1, OperationType.UPDATE, PRODUCTS, 2))).isTrue();
+
+		scheduler.onTransactionCommit(t1);
+		assertThat(opposite.get(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(scheduler.canExecute(t2, op(2, OperationType.UPDATE, PRODUCTS, 1))).isTrue();
+		assertThat(scheduler.getMetrics()).containsEntry("declaredAcquisitions", 2L).containsEntry("declaredWaits", 1L);
+	}
+
+	@Test
+	void declaredDeltasShareTheRowAndJoinItsEscrowAccount() {
+		long row = LockKeys.row(PRODUCTS, 7);
+		TwoPhaseLockingScheduler.LockType[] escrow = {TwoPhaseLockingScheduler.LockType.ESCROW};
+		TransactionContext buyer1 = context(1);
+		TransactionContext buyer2 = context(2);
+		assertThat(scheduler.acquireDeclared(buyer1, new long[] {row}, escrow, 0)).isTrue();
+		assertThat(scheduler.acquireDeclared(buyer2, new long[] {row}, escrow, 0)).isTrue();
+		assertThat(scheduler.acquireDeclared(context(3), new long[] {row}, new boolean[] {true}, 0)).isFalse();
+
+		assertThat(scheduler.needsEscrowValue(buyer1, row)).isTrue();
+		assertThat(scheduler.reserveEscrow(buyer1, row, 6, 0, 10)).isTrue();
+		assertThat(scheduler.reserveEscrow(buyer2, row, 6, 0, 10)).isFalse();
+		// The declared lock covers the deltas themselves.
+		assertThat(scheduler.canExecute(buyer2, op(2, OperationType.INCREMENT, PRODUCTS, 7))).isTrue();
+	}
+
+	@Test
+	void declaredSetMustComeFirstAndTimesOutEmptyHanded() {
+		TransactionContext holder = context(1);
+		TransactionContext late = context(2);
+		assertThat(scheduler.canExecute(holder, op(1, OperationType.SELECT, PRODUCTS, 1))).isTrue();
+		assertThatThrownBy(() -> scheduler.acquireDeclared(holder, new long[] {LockKeys.row(PRODUCTS, 2)}, new boolean[] {true}, 0))
+				.isInstanceOf(IllegalStateException.class);
+
+		long[] keys = {LockKeys.row(PRODUCTS, 2), LockKeys.row(PRODUCTS, 1)};
+		assertThat(scheduler.acquireDeclared(late, keys, new boolean[] {true, true}, 20)).isFalse();
+		assertThat(late.getHeldLocks().size()).isZero();
+		assertThat(scheduler.acquireDeclared(late, keys, new boolean[] {true, false}, 0)).isTrue();
+	}
+
+	/**
+	 * Transactions that declare two of {@code rows} rows and then block for 5 ms as if on JDBC,
+	 * all submitted at once: platform thread pool versus a virtual thread per transaction (Java
+	 * 21+ only). Run with {@code -Dbenchmark=true}.
+	 */
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void benchmarkThreadModels() throws Exception {
+		for (int rows : new int[] {64, 4096}) {
+			for (boolean virtual : new boolean[] {false, true}) {
+				if (virtual && !ExecutorConfig.virtualThreadsSupported()) {
+					System.out.printf("rows %d: virtual threads need Java 21, running on %d%n", rows, Runtime.version().feature());
+					continue;
+				}
+				AsyncTaskExecutor executor = ExecutorConfig.transactionExecutor("bench-", 200, Integer.MAX_VALUE,
+						new ThreadPoolExecutor.AbortPolicy(), virtual);
+				runThreadModel(rows, virtual ? "virtual" : "platform(200)", executor);
+				if (executor instanceof DisposableBean pool) {
+					pool.destroy();
+				} else if (executor instanceof AutoCloseable closeable) {
+					closeable.close();
+				}
+			}
+		}
+	}
+
+	private static void runThreadModel(int rows, String model, AsyncTaskExecutor executor) throws Exception {
+		int transactions = 20_000;
+		TwoPhaseLockingScheduler locks = new TwoPhaseLockingScheduler(new DeadlockDetector(), 0);
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger peak = new AtomicInteger();
+		long[] latencies = new long[transactions];
+		List<CompletableFuture<?>> futures = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int i = 0; i < transactions; i++) {
+			int tx = i;
+			long submitted = System.nanoTime();
+			futures.add(CompletableFuture.runAsync(() -> {
+				peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+				TransactionContext context = context(tx + 1);
+				int first = ThreadLocalRandom.current().nextInt(rows);
+				int second = (first + 1 + ThreadLocalRandom.current().nextInt(rows - 1)) % rows;
+				long[] keys = {LockKeys.row(PRODUCTS, first), LockKeys.row(PRODUCTS, second)};
+				assertThat(locks.acquireDeclared(context, keys, new boolean[] {true, true}, 60_000)).isTrue();
+				try {
+					Thread.sleep(5);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				locks.onTransactionCommit(context);
+				inFlight.decrementAndGet();
+				latencies[tx] = System.nanoTime() - submitted;
+			}, executor));
+		}
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.MINUTES);
+		long elapsed = System.nanoTime() - start;
+		Arrays.sort(latencies);
+		System.out.printf("rows %d, %s: %,d tx/s, peak in flight %d, p50 %.0f ms, p99 %.0f ms%n", rows, model,
+				transactions * 1_000_000_000L / elapsed, peak.get(),
+				latencies[transactions / 2] / 1e6, latencies[transactions * 99 / 100] / 1e6);
+	}
+
+	@Test
+	void rejectsAcquisitionAfterRelease() {
+		TransactionContext t1 = context(1);
+		scheduler.onTransactionCommit(t1);
+
+		assertThatThrownBy(() -> scheduler.canExecute(t1, op(1, OperationType.SELECT, PRODUCTS, 1)))
+				.isInstanceOf(IllegalStateException.class);
+	}
+
+	private static TransactionContext context(long txId) {
+		return new TransactionContext(new Transaction(txId), null);
+	}
+
+	private static TransactionOperation op(long txId, OperationType type, TableSchema table, Object key) {
+		TransactionOperation op = new TransactionOperation(txId, type, table.getParticipant().getDatabaseName(),
+				table.getName(), key, null, null, "");
+		op.setLockKey(LockKeys.row(table, key));
+		return op;
+	}
+
+	private static TransactionOperation paymentWrite(long txId, OperationType type, Integer paymentId, int orderId) {
+		TransactionOperation op = op(txId, type, PAYMENTS, paymentId);
+		op.setSecondaryLockKeys(new long[] {LockKeys.secondary(PAYMENTS, ORDER_ID, orderId)});
+		return op;
+	}
+}
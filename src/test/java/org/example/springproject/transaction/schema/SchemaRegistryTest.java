@@ -0,0 +1,51 @@
+package org.example.springproject.transaction.schema;
+
+import org.example.springproject.transaction.Participant;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SchemaRegistryTest {
+
+	@Test
+	void readsRoutingKeysAndColumnOrderFromMetadata() {
+		JdbcTemplate inventory = h2("registry_inventory");
+		inventory.execute("CREATE TABLE products (product_id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+				+ "name VARCHAR(200), price DECIMAL(10,2), stock INT)");
+		inventory.execute("CREATE TABLE suppliers (supplier_id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, name VARCHAR(200))");
+		inventory.execute("CREATE TABLE inventory_transactions (transaction_id VARCHAR(50) PRIMARY KEY, product_id INT)");
+		inventory.execute("CREATE TABLE two_phase_commit_log (transaction_id VARCHAR(50) PRIMARY KEY, state VARCHAR(20))");
+		JdbcTemplate order = h2("registry_order");
+		order.execute("CREATE TABLE orders (order_id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, status VARCHAR(50))");
+		order.execute("CREATE TABLE two_phase_commit_log (transaction_id VARCHAR(50) PRIMARY KEY, state VARCHAR(20))");
+
+		SchemaRegistry registry = new SchemaRegistry(Map.of("inventory", inventory, "order", order));
+		registry.load();
+
+		assertThat(registry.participantOf("suppliers")).isEqualTo(Participant.INVENTORY);
+		assertThat(registry.participantOf("ORDERS")).isEqualTo(Participant.ORDER);
+		assertThat(registry.table("suppliers").getPrimaryKey()).isEqualTo("supplier_id");
+
+		TableSchema products = registry.table("products");
+		assertThat(products.getColumns()).containsExactly("product_id", "name", "price", "stock");
+		assertThat(products.hasGeneratedKey()).isTrue();
+		assertThat(registry.table("inventory_transactions").hasGeneratedKey()).isFalse();
+
+		long mask = (1L << products.indexOf("stock")) | (1L << products.indexOf("price"));
+		assertThat(products.updateSql(mask)).isEqualTo("UPDATE products SET price = ?, stock = ? WHERE product_id = ?")
+				.isSameAs(products.updateSql(mask));
+
+		assertThatThrownBy(() -> registry.participantOf("two_phase_commit_log"))
+				.isInstanceOf(IllegalArgumentException.class).hasMessageContaining("more than one participant");
+		assertThat(registry.table(Participant.ORDER, "two_phase_commit_log").getPrimaryKey()).isEqualTo("transaction_id");
+	}
+
+	private static JdbcTemplate h2(String name) {
+		return new JdbcTemplate(new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", ""));
+	}
+}
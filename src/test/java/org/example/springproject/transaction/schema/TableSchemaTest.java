@@ -0,0 +1,47 @@
+package org.example.springproject.transaction.schema;
+
+import org.example.springproject.transaction.Participant;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TableSchemaTest {
+
+	private final TableSchema products = new TableSchema(Participant.INVENTORY, "products",
+			List.of("product_id", "name", "category", "size", "color", "price", "stock", "version"), "product_id", true);
+
+	@Test
+	void derivesAssignedColumnsFromSetClause() {
+		assertThat(columns(products.updatedColumns(
+				"UPDATE products SET stock = stock - ?, version = version + 1 WHERE product_id = ? AND version = ?")))
+				.containsExactly("stock", "version");
+		assertThat(columns(products.updatedColumns(
+				"UPDATE products SET stock = 0, name = CONCAT('DISCONTINUED, ', name), version = version + 1 WHERE product_id = ?")))
+				.containsExactly("name", "stock", "version");
+		assertThat(products.updatedColumns("UPDATE products SET missing = 1 WHERE product_id = ?")).isZero();
+		assertThat(products.updatedColumns("DELETE FROM products WHERE product_id = ?")).isZero();
+	}
+
+	@Test
+	void capturesOnlyAssignedColumns() {
+		Map<String, Object> row = new HashMap<>(Map.of("product_id", 1, "name", "Classic T-Shirt",
+				"price", new BigDecimal("29.99"), "stock", 100, "version", 3));
+		long assigned = products.updatedColumns("UPDATE products SET stock = stock - ?, version = version + 1 WHERE product_id = ?");
+
+		ColumnImage image = ColumnImage.capture(products, row, assigned);
+		row.put("stock", 99);
+
+		assertThat(image).containsExactly(Map.entry("stock", 100), Map.entry("version", 3));
+		assertThat(image.get("name")).isNull();
+		assertThat(products.updateSql(image.getMask())).isEqualTo("UPDATE products SET stock = ?, version = ? WHERE product_id = ?");
+	}
+
+	private List<String> columns(long mask) {
+		return products.getColumns().stream().filter(c -> (mask & (1L << products.indexOf(c))) != 0).toList();
+	}
+}
@@ -0,0 +1,226 @@
+package org.example.springproject.transaction.wal;
+
+import org.example.springproject.transaction.RollbackManager;
+import org.example.springproject.transaction.TransactionOperation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class WriteAheadLogTest {
+
+	private static final long IN_DOUBT = 1L;
+	private static final long COMMITTED = 2L;
+	private static final long NEVER_DECIDED = 3L;
+	private static final long LONG_RUNNING = 1_000_000L;
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void recoversOnlyTransactionsInterruptedInPhaseTwo() throws Exception {
+		WriteAheadLog wal = open(1 << 20);
+		LocalDateTime createdAt = LocalDateTime.of(2024, 5, 1, 12, 30);
+
+		wal.appendUndo(update(IN_DOUBT, 1, Map.of("stock", 10, "price", new BigDecimal("29.99"))));
+		wal.appendUndo(insert(IN_DOUBT, 7, createdAt));
+		wal.logCommitting(IN_DOUBT);
+
+		wal.appendUndo(update(COMMITTED, 2, Map.of("stock", 5)));
+		wal.logCommitting(COMMITTED);
+		wal.logEnd(COMMITTED, true, true);
+
+		wal.appendUndo(update(NEVER_DECIDED, 3, Map.of("stock", 1)));
+		wal.close();
+
+		List<InDoubtTransaction> inDoubt = open(1 << 20).getInDoubtTransactions();
+
+		assertThat(inDoubt).extracting(InDoubtTransaction::getTransactionId).containsExactly(IN_DOUBT);
+		List<TransactionOperation> undo = inDoubt.get(0).getOperationsInReverseOrder();
+		assertThat(undo).extracting(TransactionOperation::getType)
+				.containsExactly(TransactionOperation.OperationType.INSERT, TransactionOperation.OperationType.UPDATE);
+		assertThat(undo.get(0).getPrimaryKeyValue()).isEqualTo(7);
+		assertThat(undo.get(0).getAfterImage()).containsEntry("created_at", createdAt);
+		assertThat(undo.get(1).getBeforeImage()).containsEntry("price", new BigDecimal("29.99")).containsEntry("stock", 10);
+		assertThat(undo.get(1).isExecuted()).isTrue();
+	}
+
+	@Test
+	void recoversAutonomousDecrementsOfUndecidedTransactions() throws Exception {
+		WriteAheadLog wal = open(1 << 20);
+		wal.appendUndo(update(NEVER_DECIDED, 3, Map.of("stock", 1)));
+		wal.appendUndo(decrement(NEVER_DECIDED, 4, 2));
+
+		wal.appendUndo(decrement(COMMITTED, 5, 1));
+		wal.logEnd(COMMITTED, false, true);
+		wal.close();
+
+		List<InDoubtTransaction> inDoubt = open(1 << 20).getInDoubtTransactions();
+
+		assertThat(inDoubt).extracting(InDoubtTransaction::getTransactionId).containsExactly(NEVER_DECIDED);
+		List<TransactionOperation> undo = inDoubt.get(0).getOperationsInReverseOrder();
+		assertThat(undo).hasSize(1);
+		assertThat(undo.get(0).isAutonomous()).isTrue();
+		assertThat(undo.get(0).getPrimaryKeyValue()).isEqualTo(4);
+		assertThat(undo.get(0).getAfterImage()).containsEntry("stock", -2L);
+	}
+
+	@Test
+	void replaysDeltaUndoOnlyForParticipantsLoggedAsCommitted() throws Exception {
+		WriteAheadLog wal = open(1 << 20);
+		wal.appendUndo(delta(1L, 1, 5));
+		wal.appendUndo(insert(1L, 7, LocalDateTime.of(2024, 5, 1, 12, 30)));
+		wal.logCommitting(1L);
+
+		wal.appendUndo(delta(2L, 2, 3));
+		wal.logCommitting(2L);
+		wal.logParticipantCommitted(2L, "inventory");
+		wal.close();
+
+		List<InDoubtTransaction> inDoubt = open(1 << 20).getInDoubtTransactions();
+
+		assertThat(inDoubt).extracting(InDoubtTransaction::getTransactionId).containsExactly(1L, 2L);
+		assertThat(inDoubt.get(0).getOperationsInReverseOrder()).extracting(TransactionOperation::getType)
+				.containsExactly(TransactionOperation.OperationType.INSERT);
+		assertThat(inDoubt.get(1).getOperationsInReverseOrder()).extracting(TransactionOperation::getPrimaryKeyValue)
+				.containsExactly(2);
+	}
+
+	@Test
+	void stopsAtTornRecord() throws Exception {
+		WriteAheadLog wal = open(1 << 20);
+		wal.appendUndo(update(1L, 1, Map.of("stock", 10)));
+		wal.logCommitting(1L);
+		wal.appendUndo(update(2L, 2, Map.of("stock", 20)));
+		wal.logCommitting(2L);
+		wal.close();
+
+		Path segment = segments().get(0);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(4);
+			channel.read(header, 0);
+			int firstRecordEnd = 8 + header.getInt(0);
+			channel.read(header.clear(), firstRecordEnd);
+			int secondRecordEnd = firstRecordEnd + 8 + header.getInt(0);
+			// Flip a payload byte of the third record (tx 2's undo).
+			channel.write(ByteBuffer.wrap(new byte[]{(byte) 0x7f}), secondRecordEnd + 12);
+		}
+
+		assertThat(open(1 << 20).getInDoubtTransactions())
+				.extracting(InDoubtTransaction::getTransactionId).containsExactly(1L);
+	}
+
+	@Test
+	void recyclesSegmentsOnceTransactionsEnd() throws Exception {
+		WriteAheadLog wal = open(4096);
+		wal.appendUndo(update(LONG_RUNNING, 0, Map.of("stock", 0)));
+
+		for (int i = 0; i < 500; i++) {
+			long txId = 10 + i;
+			wal.appendUndo(update(txId, i, Map.of("stock", i)));
+			wal.logCommitting(txId);
+			wal.logEnd(txId, true, true);
+		}
+		long pinned = segments().size();
+		assertThat(wal.getMetrics().get("recycledSegments")).isEqualTo(0L);
+
+		wal.logEnd(LONG_RUNNING, false, false);
+		for (int i = 0; i < 100; i++) {
+			long txId = 10_000 + i;
+			wal.appendUndo(update(txId, i, Map.of("stock", i)));
+			wal.logEnd(txId, false, false);
+		}
+
+		assertThat((Long) wal.getMetrics().get("recycledSegments")).isPositive();
+		assertThat((long) segments().size()).isLessThan(pinned);
+	}
+
+	@Test
+	void recoveryEndsResolvedTransactionsAndKeepsFailedOnesPinned() throws Exception {
+		long failing = 1L;
+		long succeeding = 2L;
+		WriteAheadLog wal = open(4096);
+		wal.appendUndo(decrement(failing, 1, 3));
+		wal.appendUndo(decrement(succeeding, 2, 5));
+		wal.close();
+		Path failingSegment = segments().get(0);
+
+		RollbackManager rollbackManager = mock(RollbackManager.class);
+		when(rollbackManager.compensate(anyList())).thenAnswer(invocation -> {
+			List<TransactionOperation> operations = invocation.getArgument(0);
+			if (operations.get(0).getTransactionId() == failing) {
+				throw new IllegalStateException("inventory unavailable");
+			}
+			return List.of();
+		});
+		wal = open(4096);
+		new WalRecovery(wal, rollbackManager).recover();
+
+		for (int i = 0; i < 100; i++) {
+			long txId = 10 + i;
+			wal.appendUndo(update(txId, i, Map.of("stock", i)));
+			wal.logEnd(txId, false, false);
+		}
+		assertThat((Long) wal.getMetrics().get("recycledSegments")).isZero();
+		assertThat(failingSegment).exists();
+		wal.close();
+
+		assertThat(open(4096).getInDoubtTransactions())
+				.extracting(InDoubtTransaction::getTransactionId).containsExactly(failing);
+	}
+
+	private WriteAheadLog open(int segmentSize) throws Exception {
+		WriteAheadLog wal = new WriteAheadLog(true, directory.toString(), segmentSize, 2);
+		wal.open();
+		return wal;
+	}
+
+	private List<Path> segments() throws Exception {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.filter(p -> p.getFileName().toString().startsWith("wal-")).sorted().toList();
+		}
+	}
+
+	private static TransactionOperation update(long txId, int key, Map<String, Object> before) {
+		TransactionOperation op = new TransactionOperation(txId, TransactionOperation.OperationType.UPDATE,
+				"inventory", "products", key, before, null, "UPDATE products SET stock = ? WHERE product_id = ?");
+		op.setExecuted(true);
+		return op;
+	}
+
+	private static TransactionOperation decrement(long txId, int key, long amount) {
+		TransactionOperation op = new TransactionOperation(txId, TransactionOperation.OperationType.INCREMENT,
+				"inventory", "products", key, null, Map.of("stock", -amount), null);
+		op.setExecuted(true);
+		op.setAutonomous(true);
+		return op;
+	}
+
+	private static TransactionOperation delta(long txId, int key, long amount) {
+		TransactionOperation op = new TransactionOperation(txId, TransactionOperation.OperationType.INCREMENT,
+				"inventory", "products", key, null, Map.of("stock", amount), "UPDATE products SET stock = stock + ? WHERE product_id = ?");
+		op.setExecuted(true);
+		return op;
+	}
+
+	private static TransactionOperation insert(long txId, int key, LocalDateTime createdAt) {
+		TransactionOperation op = new TransactionOperation(txId, TransactionOperation.OperationType.INSERT,
+				"order", "orders", key, null, Map.of("created_at", createdAt, "status", "PENDING"), "INSERT INTO orders ...");
+		op.setExecuted(true);
+		return op;
+	}
+}
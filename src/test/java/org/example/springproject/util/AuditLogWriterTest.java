@@ -0,0 +1,115 @@
+package org.example.springproject.util;
+
+import org.example.springproject.transaction.TransactionOperation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AuditLogWriterTest {
+
+	@TempDir
+	Path directory;
+
+	private final JdbcTemplate inventory = mock(JdbcTemplate.class);
+	private final JdbcTemplate order = mock(JdbcTemplate.class);
+
+	@Test
+	void writesOneMultiRowInsertPerDatabase() {
+		AuditLogWriter writer = writer(100, AuditLogWriter.OverflowPolicy.DROP);
+		writer.submit(update(1L, "inventory", "products", 1));
+		writer.submit(update(1L, "inventory", "products", 2));
+		writer.submit(update(1L, "order", "orders", 3));
+		writer.submit(new TransactionOperation(1L, TransactionOperation.OperationType.SELECT_FOR_UPDATE,
+				"order", "orders", 3, null, null, "SELECT ..."));
+
+		drain(writer);
+
+		ArgumentCaptor<Object[]> inventoryParams = ArgumentCaptor.forClass(Object[].class);
+		verify(inventory).update(startsWith("INSERT INTO transaction_log_inventory"), inventoryParams.capture());
+		assertThat(inventoryParams.getValue()).hasSize(12).startsWith("1", "UPDATE", "products");
+		ArgumentCaptor<Object[]> orderParams = ArgumentCaptor.forClass(Object[].class);
+		verify(order).update(startsWith("INSERT INTO transaction_log_order"), orderParams.capture());
+		assertThat(orderParams.getValue()).hasSize(6);
+		assertThat(writer.getMetrics()).containsEntry("written", 3L).containsEntry("batches", 2L);
+	}
+
+	@Test
+	void dropsOverflowWithoutBlocking() {
+		AuditLogWriter writer = writer(2, AuditLogWriter.OverflowPolicy.DROP);
+		for (int i = 0; i < 5; i++) {
+			writer.submit(update(i, "inventory", "products", i));
+		}
+
+		assertThat(writer.getMetrics()).containsEntry("queued", 2).containsEntry("dropped", 3L);
+		drain(writer);
+		verify(inventory, times(1)).update(anyString(), any(Object[].class));
+	}
+
+	@Test
+	void spillsBatchesTheDatabaseRejects() throws Exception {
+		when(inventory.update(anyString(), any(Object[].class)))
+				.thenThrow(new DataAccessResourceFailureException("down"));
+		AuditLogWriter writer = writer(100, AuditLogWriter.OverflowPolicy.SPILL);
+		writer.submit(update(1L, "inventory", "products", 1));
+		writer.submit(update(2L, "inventory", "products", 2));
+
+		drain(writer);
+		writer.stop();
+
+		List<String> lines = Files.readAllLines(directory.resolve("spill.jsonl"));
+		assertThat(lines).hasSize(2);
+		assertThat(lines.get(0)).contains("\"transactionId\":1").contains("\"stock\":1");
+		assertThat(writer.getMetrics()).containsEntry("spilled", 2L).containsEntry("failedBatches", 1L);
+	}
+
+	@Test
+	void overflowIsSpilledByTheWriterNotTheSubmitter() throws Exception {
+		AuditLogWriter writer = writer(2, AuditLogWriter.OverflowPolicy.SPILL);
+		for (int i = 0; i < 6; i++) {
+			writer.submit(update(i, "inventory", "products", i));
+		}
+
+		assertThat(directory.resolve("spill.jsonl")).doesNotExist();
+		assertThat(writer.getMetrics()).containsEntry("queued", 2).containsEntry("spillQueued", 2)
+				.containsEntry("dropped", 2L);
+
+		writer.spillQueued();
+		writer.stop();
+		assertThat(Files.readAllLines(directory.resolve("spill.jsonl"))).hasSize(2);
+		assertThat(writer.getMetrics()).containsEntry("spilled", 2L).containsEntry("spillQueued", 0);
+	}
+
+	private AuditLogWriter writer(int capacity, AuditLogWriter.OverflowPolicy policy) {
+		// Not started: tests drive drainTo/writeBatch directly instead of the background thread.
+		return new AuditLogWriter(Map.of("inventory", inventory, "order", order), true, capacity, 64, 50,
+				policy, directory.resolve("spill.jsonl").toString());
+	}
+
+	private static void drain(AuditLogWriter writer) {
+		List<AuditLogWriter.AuditRecord> batch = new ArrayList<>();
+		writer.drainTo(batch);
+		writer.writeBatch(batch);
+	}
+
+	private static TransactionOperation update(long txId, String database, String table, int key) {
+		return new TransactionOperation(txId, TransactionOperation.OperationType.UPDATE, database, table, key,
+				Map.of("stock", key), null, "UPDATE ...");
+	}
+}
@@ -0,0 +1,48 @@
+package org.example.springproject.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongHashMapTest {
+
+	@Test
+	void matchesHashMapUnderInsertRemoveChurn() {
+		LongHashMap<Long> map = new LongHashMap<>();
+		Map<Long, Long> reference = new HashMap<>();
+		Random random = new Random(7);
+
+		for (int i = 0; i < 200_000; i++) {
+			// A small key space forces long probe runs and many backward shifts.
+			long key = random.nextInt(512) * 4096L;
+			if (random.nextBoolean()) {
+				assertThat(map.put(key, (long) i)).isEqualTo(reference.put(key, (long) i));
+			} else {
+				assertThat(map.remove(key)).isEqualTo(reference.remove(key));
+			}
+			assertThat(map.size()).isEqualTo(reference.size());
+		}
+		for (Map.Entry<Long, Long> entry : reference.entrySet()) {
+			assertThat(map.get(entry.getKey())).isEqualTo(entry.getValue());
+		}
+	}
+
+	@Test
+	void longLongMapRemovesEdgesByValue() {
+		LongLongHashMap map = new LongLongHashMap();
+		map.put(1, 3);
+		map.put(2, 3);
+		map.put(3, 4);
+
+		map.removeValue(3);
+
+		assertThat(map.containsKey(1)).isFalse();
+		assertThat(map.containsKey(2)).isFalse();
+		assertThat(map.get(3, -1)).isEqualTo(4);
+		assertThat(map.size()).isEqualTo(1);
+	}
+}
@@ -0,0 +1,106 @@
+package org.example.springproject.util;
+
+import org.example.springproject.exceptions.OperationLogFullException;
+import org.example.springproject.transaction.TransactionOperation;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OperationLogTest {
+
+	@Test
+	void returnsOperationsInReverseOrder() {
+		OperationLog log = new OperationLog(100, 1_000);
+		for (int i = 0; i < 20; i++) {
+			log.logOperation(operation(1L, i));
+		}
+
+		List<TransactionOperation> reversed = log.getOperationsInReverseOrder(1L);
+
+		assertThat(reversed).hasSize(20);
+		assertThat(reversed.get(0).getPrimaryKeyValue()).isEqualTo(19);
+		assertThat(reversed.get(19).getPrimaryKeyValue()).isEqualTo(0);
+	}
+
+	@Test
+	void enforcesPerTransactionAndGlobalCaps() {
+		OperationLog log = new OperationLog(2, 3);
+		log.logOperation(operation(1L, 1));
+		log.logOperation(operation(1L, 2));
+		assertThatThrownBy(() -> log.logOperation(operation(1L, 3)))
+				.isInstanceOf(OperationLogFullException.class);
+
+		log.logOperation(operation(2L, 1));
+		assertThatThrownBy(() -> log.logOperation(operation(3L, 1)))
+				.isInstanceOf(OperationLogFullException.class);
+		assertThat(log.getMetrics().get("rejectedOperations")).isEqualTo(2L);
+
+		log.clearLog(1L);
+		log.logOperation(operation(3L, 1));
+		assertThat(log.getRetainedOperationCount()).isEqualTo(2);
+	}
+
+	@Test
+	void rollingBackToAMarkSkipsLaterOperationsOfThatDatabaseOnly() {
+		OperationLog log = new OperationLog(100, 1_000);
+		OperationLog.OperationBuffer buffer = log.open(1L);
+		log.logOperation(operation(1L, 1));
+		int mark = buffer.mark();
+		TransactionOperation inventory = operation(1L, 2);
+		TransactionOperation autonomous = operation(1L, 3);
+		autonomous.setAutonomous(true);
+		TransactionOperation order = new TransactionOperation(1L, TransactionOperation.OperationType.UPDATE, "order",
+				"orders", 4, null, null, "UPDATE orders SET status = ? WHERE order_id = ?", "CANCELLED", 4);
+		log.logOperation(inventory);
+		log.logOperation(autonomous);
+		log.logOperation(order);
+
+		buffer.rollBackTo(mark, "inventory");
+
+		assertThat(log.getOperationsInReverseOrder(1L)).extracting(TransactionOperation::isRolledBack)
+				.containsExactly(false, false, true, false);
+	}
+
+	/**
+	 * Run with {@code -Dbenchmark=true}.
+	 */
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void soakMillionTransactionsKeepsHeapFlat() {
+		OperationLog log = new OperationLog(100, 10_000);
+		Runtime runtime = Runtime.getRuntime();
+		long baseline = 0;
+
+		for (int tx = 0; tx < 1_000_000; tx++) {
+			long txId = tx;
+			log.logOperation(operation(txId, tx));
+			log.logOperation(operation(txId, tx + 1));
+			log.logOperation(operation(txId, tx + 2));
+			log.getOperationsInReverseOrder(txId);
+			log.clearLog(txId);
+
+			if (tx == 100_000) {
+				baseline = usedHeapAfterGc(runtime);
+			}
+		}
+
+		assertThat(log.getActiveTransactionCount()).isZero();
+		assertThat(log.getRetainedOperationCount()).isZero();
+		assertThat(log.getMetrics().get("peakRetainedOperations")).isEqualTo(3L);
+		assertThat(usedHeapAfterGc(runtime) - baseline).isLessThan(16L * 1024 * 1024);
+	}
+
+	private static TransactionOperation operation(long txId, int key) {
+		return new TransactionOperation(txId, TransactionOperation.OperationType.UPDATE, "inventory", "products",
+				key, null, null, "UPDATE products SET stock = ? WHERE product_id = ?", key, key);
+	}
+
+	private static long usedHeapAfterGc(Runtime runtime) {
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,54 @@
+package org.example.springproject.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransactionIdGeneratorTest {
+
+	@Test
+	void idsAreIncreasingAndCarryTimeAndNode() {
+		TransactionIdGenerator generator = new TransactionIdGenerator(42);
+		long before = System.currentTimeMillis();
+		long previous = 0;
+		for (int i = 0; i < 100_000; i++) {
+			long id = generator.nextId();
+			assertThat(id).isGreaterThan(previous);
+			previous = id;
+		}
+
+		assertThat(TransactionIdGenerator.nodeOf(previous)).isEqualTo(42);
+		assertThat(TransactionIdGenerator.timestampOf(previous)).isGreaterThanOrEqualTo(before);
+	}
+
+	@Test
+	void idsAreUniqueAcrossThreads() throws Exception {
+		TransactionIdGenerator generator = new TransactionIdGenerator(0);
+		Set<Long> ids = ConcurrentHashMap.newKeySet();
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		for (int t = 0; t < 8; t++) {
+			pool.execute(() -> {
+				for (int i = 0; i < 50_000; i++) {
+					ids.add(generator.nextId());
+				}
+			});
+		}
+		pool.shutdown();
+		assertThat(pool.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+		assertThat(ids).hasSize(400_000);
+	}
+
+	@Test
+	void rejectsNodeIdOutOfRange() {
+		assertThatThrownBy(() -> new TransactionIdGenerator(TransactionIdGenerator.MAX_NODE_ID + 1))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+}